@@ -0,0 +1,110 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+/**
+ * Computes the prefix edit distance PED(x, y) of one prefix x to many strings
+ * y with the bit-parallel algorithm of Myers (for the edit distance of whole
+ * strings, see Hyyrö, "Explaining and extending the bit-parallel approximate
+ * string matching algorithm of Myers", 2001).
+ *
+ * <p>The PED matrix is computed column by column, one column per character of
+ * y. A column holds the |x| + 1 distances of the prefixes of x to the current
+ * prefix of y, and is encoded as the differences of neighboring cells (+1, 0
+ * or -1), one bit per cell in two longs. So all the cells of a column are
+ * computed at once, by a few operations on longs, and PED(x, y) is the
+ * minimum of the last cells of the columns. The bit masks of the characters
+ * of x are computed once per prefix.
+ */
+public class BitParallelPed {
+  /**
+   * The maximum length of a prefix, one bit per character.
+   */
+  public static final int MAX_LENGTH = 64;
+
+  /**
+   * The bit masks of the characters, by character: bit i is set if x[i] is
+   * the character. Characters that do not fit have no bits set.
+   */
+  protected long[] masks;
+
+  /**
+   * The length of the prefix.
+   */
+  protected int length;
+
+  /**
+   * Creates a new verifier for the given prefix.
+   *
+   * @param x
+   *        The prefix, with at most MAX_LENGTH characters.
+   */
+  public BitParallelPed(String x) {
+    if (x.length() > MAX_LENGTH) {
+      throw new IllegalArgumentException("The prefix \"" + x + "\" is longer "
+          + "than " + MAX_LENGTH + " characters");
+    }
+    this.length = x.length();
+    this.masks = new long[128];
+    for (int i = 0; i < x.length(); i++) {
+      char c = x.charAt(i);
+      if (c >= this.masks.length) {
+        this.masks = Arrays.copyOf(this.masks, c + 1);
+      }
+      this.masks[c] |= 1L << i;
+    }
+  }
+
+  /**
+   * Computes PED(x, y) for the prefix x of this verifier and the given
+   * string y. Returns PED(x, y) if it is smaller or equal to the given delta;
+   * delta + 1 otherwise.
+   *
+   * @param y
+   *        The string.
+   * @param delta
+   *        The value of delta.
+   * @return PED(x,y) if it is smaller or equal to the given delta; delta + 1
+   *         otherwise.
+   */
+  public int prefixEditDistance(String y, int delta) {
+    if (this.length == 0) {
+      return 0;
+    }
+    // The vertical differences of the column: +1 (positive) or -1 (negative)
+    // per cell; 0 if neither bit is set. The first column is (0, 1, ..., |x|).
+    long positive = -1L;
+    long negative = 0L;
+    long last = 1L << (this.length - 1);
+    int distance = this.length;
+    int min = distance;
+    // Note that it is enough to compute the first |x| + delta + 1 columns.
+    int n = Math.min(y.length(), this.length + delta);
+    for (int j = 0; j < n; j++) {
+      char c = y.charAt(j);
+      long mask = c < this.masks.length ? this.masks[c] : 0L;
+      long vertical = mask | negative;
+      long horizontal = (((mask & positive) + positive) ^ positive) | mask;
+      long horizontalPositive = negative | ~(horizontal | positive);
+      long horizontalNegative = positive & horizontal;
+      if ((horizontalPositive & last) != 0) {
+        distance++;
+      } else if ((horizontalNegative & last) != 0) {
+        distance--;
+      }
+      min = Math.min(min, distance);
+      // The first row is (0, 1, ..., |y|), so its horizontal difference is +1.
+      horizontalPositive = (horizontalPositive << 1) | 1L;
+      horizontalNegative <<= 1;
+      positive = horizontalNegative | ~(vertical | horizontalPositive);
+      negative = horizontalPositive & vertical;
+      // The distance decreases by at most one per column.
+      if (distance - (n - j - 1) > delta) {
+        break;
+      }
+    }
+    return min <= delta ? min : delta + 1;
+  }
+}
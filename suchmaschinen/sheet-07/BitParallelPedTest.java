@@ -0,0 +1,49 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the BitParallelPed class.
+ */
+public class BitParallelPedTest {
+  @Test
+  public void testPrefixEditDistance() {
+    Assert.assertEquals(0, new BitParallelPed("frei").prefixEditDistance(
+        "frei", 0));
+    Assert.assertEquals(0, new BitParallelPed("frei").prefixEditDistance(
+        "freiburg", 0));
+    Assert.assertEquals(1, new BitParallelPed("freiburg").prefixEditDistance(
+        "stuttgart", 0));
+    Assert.assertEquals(2, new BitParallelPed("freiburg").prefixEditDistance(
+        "breiburx", 2));
+    Assert.assertEquals(1, new BitParallelPed("freiburg").prefixEditDistance(
+        "breiburx", 0));
+    Assert.assertEquals(0, new BitParallelPed("").prefixEditDistance("x", 0));
+
+    // The same results as the PED matrix, for all pairs of some strings.
+    String[] strings = {"", "a", "ab", "ba", "abc", "frei", "brei", "free",
+        "freiburg", "breisgau", "aaaa", "abab", "xyzzy", "mississippi",
+        "missisippi"};
+    for (String x : strings) {
+      BitParallelPed ped = new BitParallelPed(x);
+      for (String y : strings) {
+        for (int delta = 0; delta <= 4; delta++) {
+          Assert.assertEquals(x + " " + y + " " + delta,
+              QGramIndex.prefixEditDistance(x, y, delta),
+              ped.prefixEditDistance(y, delta));
+        }
+      }
+    }
+
+    // Prefixes of the maximum length.
+    String x = "abcdefghijklmnopqrstuvwxyz0123456789".repeat(2).substring(0,
+        BitParallelPed.MAX_LENGTH);
+    Assert.assertEquals(1, new BitParallelPed(x).prefixEditDistance(
+        x.substring(1), 2));
+    Assert.assertEquals(0, new BitParallelPed(x).prefixEditDistance(
+        x + "23", 0));
+  }
+}
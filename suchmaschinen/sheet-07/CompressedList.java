@@ -0,0 +1,306 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An inverted list of pairs (id, position), sorted by id, compressed in blocks
+ * of {@link #BLOCK_SIZE} pairs. Within a block, each id is stored as the
+ * difference to the previous id (the first id of a block as the difference to
+ * itself, that is 0; the first ids are kept in an array), followed by the
+ * position, both in variable-byte encoding: 7 bits per byte, the highest bit
+ * set in all but the last byte of a number.
+ *
+ * <p>The list is meant to be read sequentially with a {@link Cursor}, which
+ * decodes one pair at a time. Pairs can only be added at the end.
+ */
+public class CompressedList extends AbstractList<IntIntPair> {
+  /**
+   * The number of pairs per block.
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   * The encoded pairs.
+   */
+  protected byte[] bytes;
+
+  /**
+   * The number of used bytes.
+   */
+  protected int numBytes;
+
+  /**
+   * The number of pairs.
+   */
+  protected int size;
+
+  /**
+   * The offsets of the blocks in the bytes, by block.
+   */
+  protected int[] blockOffsets;
+
+  /**
+   * The first ids of the blocks, by block.
+   */
+  protected int[] blockFirstIds;
+
+  /**
+   * The last id in the list.
+   */
+  protected int lastId;
+
+  /**
+   * A cursor over the pairs of a list, which decodes one pair at a time.
+   */
+  public class Cursor {
+    /**
+     * The id of the current pair; Integer.MAX_VALUE after the last pair.
+     */
+    public int id;
+
+    /**
+     * The position of the current pair.
+     */
+    public int position;
+
+    /**
+     * The index of the next pair.
+     */
+    protected int index;
+
+    /**
+     * The offset of the next pair in the bytes.
+     */
+    protected int offset;
+
+    /**
+     * Moves the cursor to the next pair.
+     *
+     * @return True if there is a next pair; false if the list is exhausted.
+     */
+    public boolean next() {
+      if (this.index == size) {
+        this.id = Integer.MAX_VALUE;
+        return false;
+      }
+      if (this.index % BLOCK_SIZE == 0) {
+        this.id = blockFirstIds[this.index / BLOCK_SIZE];
+      }
+      this.index++;
+      this.id += decode();
+      this.position = decode();
+      return true;
+    }
+
+    /**
+     * Moves the cursor to the first pair with an id that is at least the
+     * given id, if the current pair has a smaller id. The blocks before the
+     * pair are skipped by a binary search over their first ids, without
+     * decoding them.
+     *
+     * @param target
+     *        The id.
+     *
+     * @return True if there is such a pair; false if the list is exhausted.
+     */
+    public boolean skipTo(int target) {
+      if (this.index > 0 && this.id >= target) {
+        return this.id != Integer.MAX_VALUE;
+      }
+      // Find the last block after the block of the next pair with a first id
+      // smaller than the target. The blocks before it hold smaller ids only.
+      int low = this.index / BLOCK_SIZE + 1;
+      int high = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+      int block = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (blockFirstIds[mid] < target) {
+          block = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (block != -1) {
+        this.index = block * BLOCK_SIZE;
+        this.offset = blockOffsets[block];
+      }
+      while (next()) {
+        if (this.id >= target) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Decodes the number at the offset and moves the offset behind it.
+     *
+     * @return The number.
+     */
+    protected int decode() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[this.offset++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+  }
+
+  /**
+   * Creates an empty list.
+   */
+  public CompressedList() {
+    this.bytes = new byte[16];
+    this.blockOffsets = new int[1];
+    this.blockFirstIds = new int[1];
+  }
+
+  /**
+   * Adds the pair (id, position) at the end of the list.
+   *
+   * @param id
+   *        The id, which must not be smaller than the last id in the list.
+   * @param position
+   *        The position, which must not be negative.
+   */
+  public void add(int id, int position) {
+    if (id < this.lastId && this.size > 0) {
+      throw new IllegalArgumentException("The ids must be sorted");
+    }
+    if (this.size % BLOCK_SIZE == 0) {
+      // Start a new block.
+      int block = this.size / BLOCK_SIZE;
+      if (block == this.blockOffsets.length) {
+        this.blockOffsets = Arrays.copyOf(this.blockOffsets, 2 * block);
+        this.blockFirstIds = Arrays.copyOf(this.blockFirstIds, 2 * block);
+      }
+      this.blockOffsets[block] = this.numBytes;
+      this.blockFirstIds[block] = id;
+      this.lastId = id;
+    }
+    encode(id - this.lastId);
+    encode(position);
+    this.lastId = id;
+    this.size++;
+  }
+
+  /**
+   * Appends the given number to the bytes.
+   *
+   * @param value
+   *        The number, which must not be negative.
+   */
+  protected void encode(int value) {
+    if (this.numBytes + 5 > this.bytes.length) {
+      this.bytes = Arrays.copyOf(this.bytes, 2 * this.bytes.length + 5);
+    }
+    while (value >= 0x80) {
+      this.bytes[this.numBytes++] = (byte) (value | 0x80);
+      value >>>= 7;
+    }
+    this.bytes[this.numBytes++] = (byte) value;
+  }
+
+  /**
+   * Adds the pairs of the given list at the end of this list, with their ids
+   * shifted by the given offset.
+   *
+   * @param list
+   *        The list, sorted by id.
+   * @param offset
+   *        The offset of the ids.
+   */
+  public void addAll(List<IntIntPair> list, int offset) {
+    if (list instanceof CompressedList) {
+      Cursor cursor = ((CompressedList) list).cursor();
+      while (cursor.next()) {
+        add(cursor.id + offset, cursor.position);
+      }
+    } else {
+      for (IntIntPair pair : list) {
+        add(pair.first + offset, pair.second);
+      }
+    }
+  }
+
+  /**
+   * Shrinks the arrays of the list to its size.
+   */
+  public void trimToSize() {
+    int numBlocks = (this.size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    this.bytes = Arrays.copyOf(this.bytes, this.numBytes);
+    this.blockOffsets = Arrays.copyOf(this.blockOffsets,
+        Math.max(numBlocks, 1));
+    this.blockFirstIds = Arrays.copyOf(this.blockFirstIds,
+        Math.max(numBlocks, 1));
+  }
+
+  /**
+   * Returns a new cursor before the first pair of the list.
+   *
+   * @return The cursor.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  @Override
+  public boolean add(IntIntPair pair) {
+    add(pair.first, pair.second);
+    return true;
+  }
+
+  /**
+   * Returns the pair at the given index. This decodes the block of the pair
+   * up to the pair; use a {@link Cursor} to read the list sequentially.
+   */
+  @Override
+  public IntIntPair get(int i) {
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", size: "
+          + this.size);
+    }
+    Cursor cursor = new Cursor();
+    cursor.index = i - i % BLOCK_SIZE;
+    cursor.offset = this.blockOffsets[i / BLOCK_SIZE];
+    do {
+      cursor.next();
+    } while (cursor.index <= i);
+    return new IntIntPair(cursor.id, cursor.position);
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public Iterator<IntIntPair> iterator() {
+    Cursor cursor = cursor();
+    return new Iterator<IntIntPair>() {
+      @Override
+      public boolean hasNext() {
+        return cursor.index < size;
+      }
+
+      @Override
+      public IntIntPair next() {
+        if (!cursor.next()) {
+          throw new NoSuchElementException();
+        }
+        return new IntIntPair(cursor.id, cursor.position);
+      }
+    };
+  }
+}
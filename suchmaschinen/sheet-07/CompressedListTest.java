@@ -0,0 +1,90 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One unit test for each non-trivial method in the CompressedList class.
+ */
+public class CompressedListTest {
+  @Test
+  public void testAdd() {
+    CompressedList list = new CompressedList();
+    Assert.assertEquals("[]", list.toString());
+    list.add(1, 0);
+    list.add(1, 2);
+    list.add(300, 1);
+    list.add(1 << 30, 200);
+    Assert.assertEquals("[(1, 0), (1, 2), (300, 1), (1073741824, 200)]",
+        list.toString());
+    Assert.assertEquals(4, list.size());
+    Assert.assertEquals("(300, 1)", list.get(2).toString());
+    // The differences of the ids are 0, 0, 299 and 2^30 - 300, which take
+    // 1, 1, 2 and 5 bytes; the positions take 1, 1, 1 and 2 bytes.
+    Assert.assertEquals(14, list.numBytes);
+  }
+
+  @Test
+  public void testCursor() {
+    // Several blocks.
+    CompressedList list = new CompressedList();
+    List<IntIntPair> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      list.add(3 * i + 1, i % 7);
+      expected.add(new IntIntPair(3 * i + 1, i % 7));
+    }
+    list.trimToSize();
+    Assert.assertEquals(8, list.blockFirstIds.length);
+    Assert.assertEquals(expected.toString(), list.toString());
+    Assert.assertEquals("(385, 2)", list.get(128).toString());
+
+    CompressedList.Cursor cursor = list.cursor();
+    for (IntIntPair pair : expected) {
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals(pair.first, cursor.id);
+      Assert.assertEquals(pair.second, cursor.position);
+    }
+    Assert.assertFalse(cursor.next());
+  }
+
+  @Test
+  public void testSkipTo() {
+    CompressedList list = new CompressedList();
+    for (int i = 0; i < 1000; i++) {
+      list.add(3 * i + 1, i % 7);
+    }
+    CompressedList.Cursor cursor = list.cursor();
+    Assert.assertTrue(cursor.skipTo(0));
+    Assert.assertEquals(1, cursor.id);
+    // The current pair is kept if its id is large enough.
+    Assert.assertTrue(cursor.skipTo(1));
+    Assert.assertEquals(1, cursor.id);
+    // Skip to an id in a later block, and to the next id after a missing one.
+    Assert.assertTrue(cursor.skipTo(1000));
+    Assert.assertEquals(1000, cursor.id);
+    Assert.assertEquals(4, cursor.position);
+    Assert.assertTrue(cursor.skipTo(1001));
+    Assert.assertEquals(1003, cursor.id);
+    Assert.assertTrue(cursor.skipTo(2998));
+    Assert.assertEquals(2998, cursor.id);
+    Assert.assertFalse(cursor.skipTo(2999));
+    Assert.assertFalse(cursor.skipTo(3000));
+  }
+
+  @Test
+  public void testAddAll() {
+    CompressedList list1 = new CompressedList();
+    list1.add(1, 0);
+    list1.add(2, 1);
+    CompressedList list2 = new CompressedList();
+    list2.add(5, 3);
+    list2.addAll(list1, 10);
+    list2.addAll(List.of(new IntIntPair(4, 0)), 20);
+    Assert.assertEquals("[(5, 3), (11, 0), (12, 1), (24, 0)]",
+        list2.toString());
+  }
+}
@@ -0,0 +1,351 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The coordinator of a q-gram index that is split into shards served by other
+ * processes (see {@link ShardServerMain}). Like in a
+ * {@link ShardedQGramIndex}, each shard holds a contiguous range of entity
+ * ids. A query is sent to all shards in parallel, and the k best matches of
+ * the shards that answer within the timeout are merged by (PED, s).
+ *
+ * <p>If a shard is down or too slow, the result is partial: it holds the best
+ * matches of the other shards only. The statistics of a partial query say so
+ * (see {@link QueryStats#partial}), so that it is not kept in a
+ * {@link QueryCache}.
+ */
+public class DistributedQGramIndex extends QGramIndex {
+  /**
+   * The result of a query.
+   */
+  public static class Result {
+    /**
+     * The k best matches of the shards that answered.
+     */
+    public List<Match> matches;
+
+    /**
+     * The number of PED computations of the shards that answered.
+     */
+    public int numPedComputations;
+
+    /**
+     * The shards that did not answer in time.
+     */
+    public List<Integer> failedShards = new ArrayList<>();
+
+    /**
+     * Returns whether the result is partial, that is, whether some shards did
+     * not answer in time.
+     *
+     * @return True if the result is partial.
+     */
+    public boolean isPartial() {
+      return !this.failedShards.isEmpty();
+    }
+  }
+
+  /**
+   * The addresses of the shard servers.
+   */
+  protected List<InetSocketAddress> shards;
+
+  /**
+   * The number of entities in the shards before each shard, by shard, and the
+   * total number of entities at the end.
+   */
+  protected int[] offsets;
+
+  /**
+   * The time in milliseconds a shard has to answer a query.
+   */
+  protected int timeout;
+
+  /**
+   * The threads that send the requests to the shards.
+   */
+  protected ExecutorService executor = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "shard-request");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Creates a coordinator for the given shard servers, which must all be up.
+   *
+   * @param shards
+   *        The addresses of the shard servers, in the order of their entity
+   *        ids.
+   * @param timeout
+   *        The time in milliseconds a shard has to answer a query.
+   */
+  public DistributedQGramIndex(List<InetSocketAddress> shards, int timeout)
+      throws IOException {
+    super(3, false);
+    this.shards = new ArrayList<>(shards);
+    this.timeout = timeout;
+
+    // Ask the shards for their number of entities.
+    this.offsets = new int[shards.size() + 1];
+    for (int i = 0; i < shards.size(); i++) {
+      try (Socket socket = connect(i)) {
+        DataOutputStream output = getOutput(socket);
+        output.write(ShardServerMain.INFO);
+        output.flush();
+        DataInputStream input = getInput(socket);
+        this.offsets[i + 1] = this.offsets[i] + input.readInt();
+        this.withSynonyms = input.readBoolean();
+      }
+    }
+    this.entities = new EntityList() {
+      @Override
+      public Entity get(int index) {
+        return getEntity(index + 1);
+      }
+
+      @Override
+      public int size() {
+        return offsets[offsets.length - 1];
+      }
+    };
+  }
+
+  /**
+   * Connects to the given shard.
+   *
+   * @param shard
+   *        The index of the shard.
+   *
+   * @return The socket, with the timeout of the index.
+   */
+  protected Socket connect(int shard) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(this.shards.get(shard), this.timeout);
+      socket.setSoTimeout(this.timeout);
+      socket.setTcpNoDelay(true);
+      return socket;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a buffered output stream of the given socket.
+   *
+   * @param socket
+   *        The socket.
+   *
+   * @return The stream.
+   */
+  protected static DataOutputStream getOutput(Socket socket)
+      throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(
+        socket.getOutputStream()));
+  }
+
+  /**
+   * Returns a buffered input stream of the given socket.
+   *
+   * @param socket
+   *        The socket.
+   *
+   * @return The stream.
+   */
+  protected static DataInputStream getInput(Socket socket)
+      throws IOException {
+    return new DataInputStream(new BufferedInputStream(
+        socket.getInputStream()));
+  }
+
+  /**
+   * Returns the entity with the given id, fetched from its shard.
+   *
+   * @param entityId
+   *        The id of the entity (1-based).
+   *
+   * @return The entity; null if its shard did not answer in time.
+   */
+  @Override
+  public Entity getEntity(int entityId) {
+    int shard = ShardedQGramIndex.findShard(this.offsets, entityId);
+    try (Socket socket = connect(shard)) {
+      DataOutputStream output = getOutput(socket);
+      output.write(ShardServerMain.GET_ENTITY);
+      output.writeInt(entityId - this.offsets[shard]);
+      output.flush();
+      DataInputStream input = getInput(socket);
+      return input.readBoolean() ? ShardServerMain.readEntity(input) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta in all shards (see
+   * {@link #findDistributedMatches}). The session is not used, since the
+   * shards compute their matches from scratch. The time of the query counts
+   * as fetch time, since the phases run on the shard servers.
+   */
+  @Override
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k, QueryStats stats) {
+    long start = System.nanoTime();
+    Result result = findDistributedMatches(prefix, delta, k);
+    stats.numPedComputations += result.numPedComputations;
+    stats.numMatches += result.matches.size();
+    stats.partial |= result.isPartial();
+    stats.endPhase(QueryStats.FETCH, start);
+    return new ObjectIntPair<>(result.matches, result.numPedComputations);
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta for a given integer
+   * delta and a given prefix x, ranked by (PED, s), in all shards that answer
+   * within the timeout.
+   *
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches to return.
+   *
+   * @return The result, which tells whether it is partial.
+   */
+  public Result findDistributedMatches(String prefix, int delta, int k) {
+    // Scatter the query to the shards.
+    List<Future<ObjectIntPair<List<Match>>>> futures = new ArrayList<>();
+    for (int i = 0; i < this.shards.size(); i++) {
+      int shard = i;
+      futures.add(this.executor.submit(
+          () -> findShardMatches(shard, prefix, delta, k)));
+    }
+
+    // Gather the matches with their global ids, waiting at most the timeout
+    // for all shards together.
+    Result result = new Result();
+    List<Match> matches = new ArrayList<>();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+        this.timeout);
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        ObjectIntPair<List<Match>> shardResult = futures.get(i).get(
+            Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        result.numPedComputations += shardResult.second;
+        for (Match match : shardResult.first) {
+          matches.add(new Match(this.offsets[i] + match.entityId, match.ped,
+              match.synonym, match.score));
+        }
+      } catch (ExecutionException | TimeoutException e) {
+        futures.get(i).cancel(true);
+        result.failedShards.add(i);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.failedShards.add(i);
+      }
+    }
+
+    matches = rankMatches(matches);
+    if (matches.size() > k) {
+      matches = new ArrayList<>(matches.subList(0, k));
+    }
+    result.matches = matches;
+    return result;
+  }
+
+  /**
+   * Sends a query to the given shard.
+   *
+   * @param shard
+   *        The index of the shard.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches to return.
+   *
+   * @return A pair (matches, numPEDComputations) with the local ids of the
+   *         shard.
+   */
+  protected ObjectIntPair<List<Match>> findShardMatches(int shard,
+      String prefix, int delta, int k) throws IOException {
+    try (Socket socket = connect(shard)) {
+      DataOutputStream output = getOutput(socket);
+      output.write(ShardServerMain.FIND_MATCHES);
+      output.writeUTF(prefix);
+      output.writeInt(delta);
+      output.writeInt(k);
+      output.flush();
+
+      DataInputStream input = getInput(socket);
+      int numPedComputations = input.readInt();
+      int numMatches = input.readInt();
+      List<Match> matches = new ArrayList<>(numMatches);
+      for (int i = 0; i < numMatches; i++) {
+        matches.add(new Match(input.readInt(), input.readInt(),
+            input.readInt(), input.readInt()));
+      }
+      return new ObjectIntPair<>(matches, numPedComputations);
+    }
+  }
+
+  /**
+   * Precomputes the best matches of the given hot prefix in all shards (see
+   * {@link QGramIndex#precomputeMatches}). A shard server that is restarted
+   * forgets them, unless it loads an index saved with them.
+   *
+   * @throws UncheckedIOException
+   *         If a shard did not answer.
+   */
+  @Override
+  public void precomputeMatches(String prefix, int delta) {
+    for (int i = 0; i < this.shards.size(); i++) {
+      try (Socket socket = connect(i)) {
+        // Precomputing takes longer than a query; wait for it.
+        socket.setSoTimeout(0);
+        DataOutputStream output = getOutput(socket);
+        output.write(ShardServerMain.PRECOMPUTE_MATCHES);
+        output.writeUTF(prefix);
+        output.writeInt(delta);
+        output.flush();
+        getInput(socket).readBoolean();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not precompute the matches of \""
+            + prefix + "\" on shard " + i, e);
+      }
+    }
+  }
+
+  @Override
+  protected int addEntity(Entity entity) {
+    throw new UnsupportedOperationException(
+        "A distributed index cannot be changed");
+  }
+
+  @Override
+  public void save(String fileName) throws IOException {
+    throw new UnsupportedOperationException(
+        "A distributed index cannot be saved");
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * One unit test for each non-trivial method in the DistributedQGramIndex
+ * class.
+ */
+public class DistributedQGramIndexTest {
+  /**
+   * Starts a shard server for the given index on the given server socket.
+   */
+  protected static Thread startShard(ServerSocket server, QGramIndex index) {
+    Thread thread = new Thread(() -> {
+      try {
+        ShardServerMain.serve(server, index, Executors.newCachedThreadPool());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testFindDistributedMatches() throws IOException,
+      InterruptedException {
+    // The example file has two shards when split into three (see
+    // ShardedQGramIndexTest).
+    List<ServerSocket> servers = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      servers.add(new ServerSocket(0));
+      threads.add(startShard(servers.get(i),
+          ShardServerMain.buildShard("example.tsv", true, i, 3)));
+      addresses.add(new InetSocketAddress("localhost",
+          servers.get(i).getLocalPort()));
+    }
+    DistributedQGramIndex qgi = new DistributedQGramIndex(addresses, 1000);
+    Assert.assertEquals(2, qgi.entities.size());
+    Assert.assertTrue(qgi.withSynonyms);
+    Assert.assertEquals("brei", qgi.getEntity(2).name);
+    Assert.assertEquals("[free]", qgi.getEntity(1).synonyms.toString());
+
+    DistributedQGramIndex.Result result = qgi.findDistributedMatches("frei",
+        1, 5);
+    Assert.assertFalse(result.isPartial());
+    Assert.assertEquals("[Match(1, ped=0), Match(2, ped=1)]",
+        result.matches.toString());
+    Assert.assertEquals("[Match(1, ped=0)]",
+        qgi.findMatches("frei", 1, 1).first.toString());
+
+    // Without the first shard, the result is partial and not cached.
+    QueryCache cache = new QueryCache(1 << 20);
+    // Wait until the server stops accepting clients.
+    servers.get(0).close();
+    threads.get(0).join();
+    result = qgi.findDistributedMatches("frei", 1, 5);
+    Assert.assertTrue(result.isPartial());
+    Assert.assertEquals("[0]", result.failedShards.toString());
+    Assert.assertEquals("[Match(2, ped=1)]", result.matches.toString());
+    QueryStats stats = new QueryStats();
+    Assert.assertEquals("[Match(2, ped=1)]", cache.findMatches(qgi, null,
+        "frei", 1, 5, stats).first.toString());
+    Assert.assertTrue(stats.partial);
+    Assert.assertEquals(0, cache.size());
+    Assert.assertNull(qgi.getEntity(1));
+    servers.get(1).close();
+  }
+
+  @Test
+  public void testGetEntity() throws IOException {
+    // A description of more than 64 KB, which writeUTF cannot write.
+    String desc = String.join("", Collections.nCopies(70000, "ä"));
+    QGramIndex index = new QGramIndex(3, true);
+    index.addEntity(new Entity("frei", 3, desc, null, null,
+        Arrays.asList("free")));
+    ServerSocket server = new ServerSocket(0);
+    startShard(server, index);
+    DistributedQGramIndex qgi = new DistributedQGramIndex(Arrays.asList(
+        new InetSocketAddress("localhost", server.getLocalPort())), 1000);
+    Entity entity = qgi.getEntity(1);
+    Assert.assertEquals(desc, entity.desc);
+    Assert.assertNull(entity.wikipediaUrl);
+    Assert.assertEquals("[free]", entity.synonyms.toString());
+    server.close();
+  }
+
+  @Test
+  public void testPrecomputeMatches() throws IOException,
+      InterruptedException {
+    List<ServerSocket> servers = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    List<QGramIndex> indexes = new ArrayList<>();
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      servers.add(new ServerSocket(0));
+      indexes.add(ShardServerMain.buildShard("example.tsv", true, i, 3));
+      threads.add(startShard(servers.get(i), indexes.get(i)));
+      addresses.add(new InetSocketAddress("localhost",
+          servers.get(i).getLocalPort()));
+    }
+    DistributedQGramIndex qgi = new DistributedQGramIndex(addresses, 1000);
+    qgi.precomputeMatches("Frei", 1);
+    for (QGramIndex index : indexes) {
+      Assert.assertTrue(index.precomputedMatches.containsKey("1:frei"));
+    }
+    Assert.assertEquals("[Match(1, ped=0), Match(2, ped=1)]",
+        qgi.findMatches("frei", 1, 5).first.toString());
+
+    // A shard that is down cannot precompute.
+    servers.get(0).close();
+    threads.get(0).join();
+    try {
+      qgi.precomputeMatches("brei", 1);
+      Assert.fail();
+    } catch (UncheckedIOException e) {
+      // Expected.
+    }
+    servers.get(1).close();
+  }
+}
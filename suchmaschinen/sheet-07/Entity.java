@@ -3,52 +3,44 @@
 // Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * An entity in the q-gram index.
+ * An entity in the q-gram index. Entities are read-only, so that they can be
+ * shared by concurrent queries; the per-query data of a match (the PED and
+ * the matched synonym) is held by a {@link Match}.
  */
 public class Entity {
   /**
    * The name of this entity.
    */
-  public String name;
+  public final String name;
 
   /**
    * The score of this entity.
    */
-  public int score;
+  public final int score;
 
   /**
    * The description of this entity.
    */
-  public String desc;
+  public final String desc;
 
   /**
    * The Wikipedia url of this entity.
    */
-  public String wikipediaUrl;
+  public final String wikipediaUrl;
 
   /**
    * The Wikidata id of this entity.
    */
-  public String wikidataId;
+  public final String wikidataId;
 
   /**
    * The synonyms of this entity.
    */
-  public List<String> synonyms;
-
-  /**
-   * The prefix edit distance when this entity is part of a query result.
-   */
-  public int ped = -1;
-
-  /**
-   * The matched synonym when this entity is part of a query result due to a
-   * matching synonym.
-   */
-  public String matchedSynonym;
+  public final List<String> synonyms;
 
   /**
    * Creates a new entity.
@@ -59,8 +51,7 @@ public class Entity {
    *        The score of the entity.
    */
   public Entity(String name, int score) {
-    this.name = name;
-    this.score = score;
+    this(name, score, null, null, null, new ArrayList<>());
   }
 
   /**
@@ -86,7 +77,7 @@ public class Entity {
     this.desc = description;
     this.wikipediaUrl = wikipediaUrl;
     this.wikidataId = wikidataId;
-    this.synonyms = synonyms;
+    this.synonyms = Collections.unmodifiableList(synonyms);
   }
 
   @Override
@@ -101,12 +92,6 @@ public class Entity {
     if (this.desc != null) {
       parts.add("desc='" + this.desc + "'");
     }
-    if (this.ped != -1) {
-      parts.add("ped=" + this.ped);
-    }
-    if (this.matchedSynonym != null) {
-      parts.add("matchedSynonym='" + this.matchedSynonym + "'");
-    }
     return String.format("Entity(%s)", String.join(", ", parts));
   }
 }
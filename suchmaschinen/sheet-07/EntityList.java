@@ -0,0 +1,157 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of the entities of an index that can also be read column by column:
+ * the score and the strings (name, description, Wikipedia URL, Wikidata id
+ * and the joined synonyms) of an entity. The query code reads the columns, so
+ * that columnar lists ({@link EntityStore}, {@link MappedEntityList}) create
+ * an {@link Entity} only when it is asked for, typically for the top-k
+ * matches. The default implementations of the column methods read the
+ * entity, and keep the last entity read, so that reading several columns of
+ * an entity reads it once. Lists that use them must not replace entities.
+ */
+public abstract class EntityList extends AbstractList<Entity>
+    implements RandomAccess {
+  /**
+   * The string columns, in the order in which they are stored.
+   */
+  public static final int NAME = 0;
+  public static final int DESC = 1;
+  public static final int WIKIPEDIA_URL = 2;
+  public static final int WIKIDATA_ID = 3;
+  public static final int SYNONYMS = 4;
+  public static final int NUM_STRING_COLUMNS = 5;
+
+  /**
+   * The separator of the synonyms in the synonyms column.
+   */
+  public static final String SYNONYM_SEPARATOR = "\t";
+
+  /**
+   * The last entity read by the default column methods, with its index.
+   */
+  protected volatile ObjectIntPair<Entity> lastEntity;
+
+  /**
+   * Returns the score of the i-th entity.
+   *
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The score; 0 if the entity is null.
+   */
+  public int getScore(int i) {
+    Entity entity = getLast(i);
+    return entity != null ? entity.score : 0;
+  }
+
+  /**
+   * Returns the string in the given column for the i-th entity.
+   *
+   * @param column
+   *        The column.
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The string, may be null (also if the entity is null).
+   */
+  public String getString(int column, int i) {
+    Entity entity = getLast(i);
+    return entity != null ? getString(entity, column) : null;
+  }
+
+  /**
+   * Returns the i-th entity, the last entity read if it has the same index.
+   *
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The entity.
+   */
+  protected Entity getLast(int i) {
+    ObjectIntPair<Entity> last = this.lastEntity;
+    if (last == null || last.second != i) {
+      last = new ObjectIntPair<>(get(i), i);
+      this.lastEntity = last;
+    }
+    return last.first;
+  }
+
+  /**
+   * Returns the name (synonym = -1) or the given synonym of the i-th entity.
+   *
+   * @param i
+   *        The index of the entity.
+   * @param synonym
+   *        The index of the synonym; -1 for the name.
+   *
+   * @return The name or the synonym.
+   */
+  public String getVariant(int i, int synonym) {
+    if (synonym == -1) {
+      return getString(NAME, i);
+    }
+    // Find the synonym in the joined synonyms.
+    String synonyms = getString(SYNONYMS, i);
+    int start = 0;
+    for (int j = 0; j < synonym; j++) {
+      start = synonyms.indexOf(SYNONYM_SEPARATOR, start) + 1;
+    }
+    int end = synonyms.indexOf(SYNONYM_SEPARATOR, start);
+    return synonyms.substring(start, end == -1 ? synonyms.length() : end);
+  }
+
+  /**
+   * Creates the i-th entity from the columns.
+   *
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The entity.
+   */
+  protected Entity decode(int i) {
+    if (i < 0 || i >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + i);
+    }
+    List<String> synonyms = new ArrayList<>();
+    String joinedSynonyms = getString(SYNONYMS, i);
+    if (!joinedSynonyms.isEmpty()) {
+      synonyms.addAll(Arrays.asList(joinedSynonyms.split(SYNONYM_SEPARATOR)));
+    }
+    return new Entity(getString(NAME, i), getScore(i), getString(DESC, i),
+        getString(WIKIPEDIA_URL, i), getString(WIKIDATA_ID, i), synonyms);
+  }
+
+  /**
+   * Returns the string in the given column of the given entity.
+   *
+   * @param entity
+   *        The entity.
+   * @param column
+   *        The column.
+   *
+   * @return The string, may be null.
+   */
+  protected static String getString(Entity entity, int column) {
+    switch (column) {
+      case NAME:
+        return entity.name;
+      case DESC:
+        return entity.desc;
+      case WIKIPEDIA_URL:
+        return entity.wikipediaUrl;
+      case WIKIDATA_ID:
+        return entity.wikidataId;
+      default:
+        return String.join(SYNONYM_SEPARATOR, entity.synonyms);
+    }
+  }
+}
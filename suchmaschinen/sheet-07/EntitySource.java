@@ -0,0 +1,126 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The file an index was built from, which the entities are read from again
+ * on demand, by the byte offsets of their lines. An index keeps only the
+ * fields needed to answer queries (see {@link EntityStore}), and reads the
+ * other fields (description, Wikipedia URL and Wikidata id) from here, for
+ * the few matches that are shown. The last entities read are cached.
+ *
+ * <p>The lines are read with positional reads, so that entities can be read
+ * from several threads at once. The file must not change while it is used.
+ */
+public class EntitySource {
+  /**
+   * The maximum number of cached entities.
+   */
+  public static final int CACHE_SIZE = 64;
+
+  /**
+   * The name of the file.
+   */
+  protected String fileName;
+
+  /**
+   * The channel of the file.
+   */
+  protected FileChannel channel;
+
+  /**
+   * The last entities read, by offset, in the order of their last access.
+   */
+  protected Map<Long, Entity> cache;
+
+  /**
+   * Opens the given file.
+   *
+   * @param fileName
+   *        The name of the file.
+   */
+  public EntitySource(String fileName) throws IOException {
+    this.fileName = fileName;
+    this.channel = FileChannel.open(Paths.get(fileName));
+    this.cache = new LinkedHashMap<Long, Entity>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Entity> eldest) {
+        return size() > CACHE_SIZE;
+      }
+    };
+  }
+
+  /**
+   * Reads the entity from the line at the given offset (see
+   * {@link QGramIndex#parseEntity}).
+   *
+   * @param offset
+   *        The byte offset of the line.
+   *
+   * @return The entity.
+   */
+  public Entity read(long offset) {
+    synchronized (this.cache) {
+      Entity entity = this.cache.get(offset);
+      if (entity != null) {
+        return entity;
+      }
+    }
+    Entity entity;
+    try {
+      entity = QGramIndex.parseEntity(readLine(offset));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read \"" + this.fileName
+          + "\" at offset " + offset, e);
+    }
+    synchronized (this.cache) {
+      this.cache.put(offset, entity);
+    }
+    return entity;
+  }
+
+  /**
+   * Reads the line at the given offset, without the line ending.
+   *
+   * @param offset
+   *        The byte offset of the line.
+   *
+   * @return The line.
+   */
+  protected String readLine(long offset) throws IOException {
+    byte[] line = new byte[256];
+    int length = 0;
+    while (true) {
+      ByteBuffer buffer = ByteBuffer.wrap(line, length, line.length - length);
+      int numBytes = this.channel.read(buffer, offset + length);
+      if (numBytes <= 0) {
+        break;
+      }
+      int end = length + numBytes;
+      while (length < end && line[length] != '\n') {
+        length++;
+      }
+      if (length < end) {
+        break;
+      }
+      if (length == line.length) {
+        line = Arrays.copyOf(line, 2 * line.length);
+      }
+    }
+    // Strip the carriage return of Windows line endings.
+    if (length > 0 && line[length - 1] == '\r') {
+      length--;
+    }
+    return new String(line, 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,41 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * One unit test for each non-trivial method in the EntitySource class.
+ */
+public class EntitySourceTest {
+  @Test
+  public void testRead() throws IOException {
+    File file = File.createTempFile("example", ".tsv");
+    file.deleteOnExit();
+    String longDesc = String.join(" ", Collections.nCopies(100, "Zürich"));
+    String lines = "name\tscore\r\n"
+        + "frei\t3\ta word\t\tQ1\tfree\r\n"
+        + "brei\t2\t" + longDesc + "\n"
+        + "basel\t1";
+    Files.write(file.toPath(), lines.getBytes(StandardCharsets.UTF_8));
+    EntitySource source = new EntitySource(file.getPath());
+    Entity frei = source.read(12);
+    Assert.assertEquals("Entity(name='frei', score=3, desc='a word')",
+        frei.toString());
+    Assert.assertEquals("Q1", frei.wikidataId);
+    Assert.assertEquals("[free]", frei.synonyms.toString());
+    // A line longer than the initial buffer, and the last line without a
+    // line ending.
+    Assert.assertEquals(longDesc, source.read(36).desc);
+    Assert.assertEquals("basel", source.read(lines.getBytes(
+        StandardCharsets.UTF_8).length - 7).name);
+    // The entity is cached.
+    Assert.assertSame(frei, source.read(12));
+  }
+}
@@ -0,0 +1,372 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An append-only list of entities stored column by column, so that millions
+ * of entities take a few arrays instead of millions of objects on the heap.
+ * The scores are kept in an int array, and each string column in direct
+ * (off-heap) byte buffers, as UTF-8 strings prefixed by their length (-1 for
+ * null), together with the positions of the strings by entity. An entity is
+ * decoded each time it is accessed (see {@link EntityList}).
+ *
+ * <p>A column grows by slabs of a fixed size, instead of being copied into a
+ * buffer twice as large, so that building a large list does not leave
+ * behind direct buffers that only the garbage collector frees.
+ *
+ * <p>The entities read from a file keep only the byte offsets of their lines
+ * instead of the fields that are not needed to answer queries (the
+ * description, the Wikipedia URL and the Wikidata id). These fields are read
+ * from the file on demand (see {@link EntitySource}).
+ *
+ * <p>The strings are read with absolute reads, so that the list can be read
+ * from several threads at once, but must not be read while it is changed.
+ * Each column holds at most 2 GB.
+ */
+public class EntityStore extends EntityList {
+  /**
+   * The number of bits of the position of a string in its slab.
+   */
+  protected static final int SLAB_BITS = 22;
+
+  /**
+   * The size of a slab (4 MB).
+   */
+  protected static final int SLAB_SIZE = 1 << SLAB_BITS;
+
+  /**
+   * The maximum number of slabs of a column, so that the positions of the
+   * strings fit into an int.
+   */
+  protected static final int MAX_SLABS = 1 << (31 - SLAB_BITS);
+
+  /**
+   * The number of entities.
+   */
+  protected int numEntities;
+
+  /**
+   * The scores, by index.
+   */
+  protected int[] scores;
+
+  /**
+   * The slabs of the string columns, by column. The strings of a slab are
+   * stored from position 0 to the position of the buffer, and never cross
+   * the end of a slab. A slab holds at most SLAB_SIZE bytes; only the last
+   * one is copied into a larger one, up to that size (see
+   * {@link #ensureRemaining}).
+   */
+  protected ByteBuffer[][] columns;
+
+  /**
+   * The positions of the strings, by column and index, as the index of the
+   * slab times SLAB_SIZE plus the position in the slab; -1 if the string is
+   * read from the source.
+   */
+  protected int[][] positions;
+
+  /**
+   * The file the entities with an offset were read from; null if there are no
+   * such entities.
+   */
+  protected EntitySource source;
+
+  /**
+   * The byte offsets of the lines of the entities in the source, by index;
+   * null if there is no source.
+   */
+  protected long[] offsets;
+
+  /**
+   * Creates an empty list.
+   */
+  public EntityStore() {
+    this(null);
+  }
+
+  /**
+   * Creates an empty list of entities read from the given file.
+   *
+   * @param source
+   *        The file; may be null.
+   */
+  public EntityStore(EntitySource source) {
+    this.scores = new int[16];
+    this.columns = new ByteBuffer[NUM_STRING_COLUMNS][];
+    this.positions = new int[NUM_STRING_COLUMNS][16];
+    for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+      this.columns[c] = new ByteBuffer[] {ByteBuffer.allocateDirect(256)};
+    }
+    this.source = source;
+    this.offsets = source != null ? new long[16] : null;
+  }
+
+  @Override
+  public Entity get(int i) {
+    return decode(i);
+  }
+
+  @Override
+  public int getScore(int i) {
+    return this.scores[i];
+  }
+
+  @Override
+  public String getString(int column, int i) {
+    int position = this.positions[column][i];
+    if (position < 0) {
+      return getString(this.source.read(this.offsets[i]), column);
+    }
+    ByteBuffer buffer = this.columns[column][position >>> SLAB_BITS];
+    position &= SLAB_SIZE - 1;
+    int length = buffer.getInt(position);
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(position + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int size() {
+    return this.numEntities;
+  }
+
+  /**
+   * Returns the byte offset of the line of the i-th entity in the source.
+   *
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The offset; -1 if all fields of the entity are stored.
+   */
+  public long getOffset(int i) {
+    return this.offsets != null ? this.offsets[i] : -1;
+  }
+
+  /**
+   * Creates the i-th entity with only the fields needed to answer queries:
+   * the name, the score and the synonyms. Unlike {@link #get}, it never reads
+   * the source.
+   *
+   * @param i
+   *        The index of the entity.
+   *
+   * @return The entity.
+   */
+  public Entity getIndexedFields(int i) {
+    List<String> synonyms = new ArrayList<>();
+    String joinedSynonyms = getString(SYNONYMS, i);
+    if (!joinedSynonyms.isEmpty()) {
+      synonyms.addAll(Arrays.asList(joinedSynonyms.split(SYNONYM_SEPARATOR)));
+    }
+    return new Entity(getString(NAME, i), getScore(i), null, null, null,
+        synonyms);
+  }
+
+  @Override
+  public boolean add(Entity entity) {
+    return add(entity, -1);
+  }
+
+  /**
+   * Appends the given entity, read from the line at the given offset of the
+   * source. Its description, Wikipedia URL and Wikidata id are not stored.
+   *
+   * @param entity
+   *        The entity.
+   * @param offset
+   *        The byte offset of the line; -1 to store all fields.
+   *
+   * @return True.
+   */
+  public boolean add(Entity entity, long offset) {
+    if (offset >= 0 && this.source == null) {
+      throw new IllegalStateException("The entities have no source");
+    }
+    ensureCapacity(this.numEntities + 1);
+    this.scores[this.numEntities] = entity.score;
+    if (this.offsets != null) {
+      this.offsets[this.numEntities] = offset;
+    }
+    for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+      if (offset >= 0 && c != NAME && c != SYNONYMS) {
+        this.positions[c][this.numEntities] = -1;
+        continue;
+      }
+      String string = getString(entity, c);
+      byte[] bytes = string != null
+          ? string.getBytes(StandardCharsets.UTF_8) : null;
+      ByteBuffer buffer = ensureRemaining(c, 4 + (bytes != null
+          ? bytes.length : 0));
+      this.positions[c][this.numEntities] = getEnd(c);
+      if (bytes != null) {
+        buffer.putInt(bytes.length).put(bytes);
+      } else {
+        buffer.putInt(-1);
+      }
+    }
+    this.numEntities++;
+    this.modCount++;
+    return true;
+  }
+
+  /**
+   * Appends the given entities. The columns of another store with no or the
+   * same source are copied as a whole, without decoding the entities.
+   */
+  @Override
+  public boolean addAll(Collection<? extends Entity> entities) {
+    if (!(entities instanceof EntityStore)) {
+      return super.addAll(entities);
+    }
+    EntityStore other = (EntityStore) entities;
+    if (other.source != null && this.source == null) {
+      this.source = other.source;
+      this.offsets = new long[this.scores.length];
+      Arrays.fill(this.offsets, 0, this.numEntities, -1);
+    }
+    if (other.source != null && other.source != this.source) {
+      return super.addAll(entities);
+    }
+    int n = other.numEntities;
+    ensureCapacity(this.numEntities + n);
+    System.arraycopy(other.scores, 0, this.scores, this.numEntities, n);
+    if (this.offsets != null) {
+      if (other.offsets != null) {
+        System.arraycopy(other.offsets, 0, this.offsets, this.numEntities, n);
+      } else {
+        Arrays.fill(this.offsets, this.numEntities, this.numEntities + n, -1);
+      }
+    }
+    for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+      // Each slab of the other store fits into one slab, so that its strings
+      // are moved by the same offset.
+      ByteBuffer[] slabs = other.columns[c];
+      int[] offsets = new int[slabs.length];
+      for (int j = 0; j < slabs.length; j++) {
+        ByteBuffer strings = slabs[j].duplicate().flip();
+        ByteBuffer buffer = ensureRemaining(c, strings.remaining());
+        offsets[j] = getEnd(c) - (j << SLAB_BITS);
+        buffer.put(strings);
+      }
+      for (int i = 0; i < n; i++) {
+        int position = other.positions[c][i];
+        this.positions[c][this.numEntities + i] = position >= 0
+            ? position + offsets[position >>> SLAB_BITS] : -1;
+      }
+    }
+    this.numEntities += n;
+    this.modCount++;
+    return n > 0;
+  }
+
+  /**
+   * Shrinks the arrays and the last slabs of the columns to their sizes.
+   * Does not change a list that has its size already, so that it can be
+   * shared by indexes.
+   */
+  public void trimToSize() {
+    if (this.scores.length != this.numEntities) {
+      this.scores = Arrays.copyOf(this.scores, this.numEntities);
+      if (this.offsets != null) {
+        this.offsets = Arrays.copyOf(this.offsets, this.numEntities);
+      }
+      for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+        this.positions[c] = Arrays.copyOf(this.positions[c],
+            this.numEntities);
+      }
+    }
+    for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+      ByteBuffer[] slabs = this.columns[c];
+      if (slabs[slabs.length - 1].hasRemaining()) {
+        ByteBuffer strings = slabs[slabs.length - 1].duplicate().flip();
+        slabs[slabs.length - 1] = ByteBuffer.allocateDirect(
+            strings.remaining()).put(strings);
+      }
+    }
+  }
+
+  /**
+   * Grows the arrays to hold at least the given number of entities.
+   *
+   * @param capacity
+   *        The number of entities.
+   */
+  protected void ensureCapacity(int capacity) {
+    if (capacity > this.scores.length) {
+      capacity = Math.max(capacity, 2 * this.scores.length);
+      this.scores = Arrays.copyOf(this.scores, capacity);
+      if (this.offsets != null) {
+        this.offsets = Arrays.copyOf(this.offsets, capacity);
+      }
+      for (int c = 0; c < NUM_STRING_COLUMNS; c++) {
+        this.positions[c] = Arrays.copyOf(this.positions[c], capacity);
+      }
+    }
+  }
+
+  /**
+   * Returns the position of the end of the given column, where the next
+   * string is stored (see {@link #positions}).
+   *
+   * @param column
+   *        The column.
+   *
+   * @return The position.
+   */
+  protected int getEnd(int column) {
+    ByteBuffer[] slabs = this.columns[column];
+    return ((slabs.length - 1) << SLAB_BITS)
+        + slabs[slabs.length - 1].position();
+  }
+
+  /**
+   * Grows the given column to hold at least the given number of bytes more in
+   * its last slab: the last slab is copied into a larger one while it is
+   * smaller than SLAB_SIZE, and a new slab is added otherwise.
+   *
+   * @param column
+   *        The column.
+   * @param numBytes
+   *        The number of bytes, at most SLAB_SIZE.
+   *
+   * @return The last slab of the column.
+   */
+  protected ByteBuffer ensureRemaining(int column, int numBytes) {
+    ByteBuffer[] slabs = this.columns[column];
+    ByteBuffer slab = slabs[slabs.length - 1];
+    if (slab.remaining() >= numBytes) {
+      return slab;
+    }
+    if (numBytes > SLAB_SIZE) {
+      throw new IllegalStateException("A string of column " + column
+          + " of the entities is too long");
+    }
+    long size = (long) slab.position() + numBytes;
+    if (size <= SLAB_SIZE) {
+      slab = ByteBuffer.allocateDirect((int) Math.min(Math.max(size,
+          2L * slab.capacity()), SLAB_SIZE)).put(slab.flip());
+      slabs[slabs.length - 1] = slab;
+      return slab;
+    }
+    if (slabs.length == MAX_SLABS) {
+      throw new IllegalStateException("Column " + column
+          + " of the entities is full");
+    }
+    slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+    slabs = Arrays.copyOf(slabs, slabs.length + 1);
+    slabs[slabs.length - 1] = slab;
+    this.columns[column] = slabs;
+    return slab;
+  }
+}
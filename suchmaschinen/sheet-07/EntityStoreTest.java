@@ -0,0 +1,153 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * One unit test for each non-trivial method in the EntityStore class.
+ */
+public class EntityStoreTest {
+  @Test
+  public void testAdd() {
+    EntityStore store = new EntityStore();
+    store.add(new Entity("Freiburg", 3, "a city", null, "Q2833",
+        Arrays.asList("Friburgo", "Fribourg")));
+    store.add(new Entity("Brei", 2));
+    Assert.assertEquals(2, store.size());
+    Assert.assertEquals("[Entity(name='Freiburg', score=3, desc='a city'), "
+        + "Entity(name='Brei', score=2)]", store.toString());
+    Assert.assertEquals(3, store.getScore(0));
+    Assert.assertNull(store.getString(EntityList.WIKIPEDIA_URL, 0));
+    Assert.assertEquals("Q2833", store.get(0).wikidataId);
+    Assert.assertEquals("[Friburgo, Fribourg]",
+        store.get(0).synonyms.toString());
+    Assert.assertEquals("[]", store.get(1).synonyms.toString());
+
+    // Non-ASCII strings, and more bytes than the initial columns hold.
+    String name = String.join("", Collections.nCopies(100, "Zürich"));
+    store.add(new Entity(name, 1));
+    Assert.assertEquals(name, store.get(2).name);
+    Assert.assertEquals("Brei", store.get(1).name);
+  }
+
+  @Test
+  public void testAddWithOffset() throws IOException {
+    File file = File.createTempFile("example", ".tsv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), Arrays.asList("name\tscore",
+        "frei\t3\ta word\t\tQ1\tfree"));
+    EntityStore store = new EntityStore(new EntitySource(file.getPath()));
+    store.add(new Entity("frei", 3, "a word", null, "Q1",
+        Arrays.asList("free")), 11);
+    store.add(new Entity("brei", 2, "another word", null, null,
+        Arrays.asList()));
+    // Only the fields needed to answer queries are stored.
+    Assert.assertEquals(-1, store.positions[EntityList.DESC][0]);
+    Assert.assertEquals("free", store.getVariant(0, 0));
+    // The other fields are read from the file.
+    Assert.assertEquals("a word", store.getString(EntityList.DESC, 0));
+    Assert.assertEquals("Q1", store.get(0).wikidataId);
+    Assert.assertEquals("another word", store.get(1).desc);
+    Assert.assertEquals(11, store.getOffset(0));
+    Assert.assertEquals(-1, store.getOffset(1));
+    Assert.assertEquals("Entity(name='frei', score=3)",
+        store.getIndexedFields(0).toString());
+    Assert.assertEquals("[free]", store.getIndexedFields(0).synonyms
+        .toString());
+
+    // The offsets are kept when appended to a store without a source.
+    EntityStore other = new EntityStore();
+    other.add(new Entity("Basel", 4));
+    other.addAll(store);
+    Assert.assertEquals("[Entity(name='Basel', score=4), "
+        + "Entity(name='frei', score=3, desc='a word'), "
+        + "Entity(name='brei', score=2, desc='another word')]",
+        other.toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAddWithOffsetWithoutSource() {
+    new EntityStore().add(new Entity("frei", 3), 11);
+  }
+
+  @Test
+  public void testGetVariant() {
+    EntityStore store = new EntityStore();
+    store.add(new Entity("Freiburg", 3, null, null, null,
+        Arrays.asList("Friburgo", "Fribourg", "Freiburg im Breisgau")));
+    Assert.assertEquals("Freiburg", store.getVariant(0, -1));
+    Assert.assertEquals("Friburgo", store.getVariant(0, 0));
+    Assert.assertEquals("Fribourg", store.getVariant(0, 1));
+    Assert.assertEquals("Freiburg im Breisgau", store.getVariant(0, 2));
+  }
+
+  @Test
+  public void testAddAll() {
+    EntityStore store1 = new EntityStore();
+    store1.add(new Entity("Freiburg", 3, "a city", null, null,
+        Arrays.asList("Fribourg")));
+    EntityStore store2 = new EntityStore();
+    store2.add(new Entity("Brei", 2));
+    store2.add(new Entity("Frei", 1, "a word", null, null,
+        Arrays.asList("free")));
+    store1.addAll(store2);
+    store1.addAll(Arrays.asList(new Entity("Basel", 4)));
+    Assert.assertEquals(4, store1.size());
+    Assert.assertEquals("[Entity(name='Freiburg', score=3, desc='a city'), "
+        + "Entity(name='Brei', score=2), "
+        + "Entity(name='Frei', score=1, desc='a word'), "
+        + "Entity(name='Basel', score=4)]", store1.toString());
+    Assert.assertEquals("free", store1.getVariant(2, 0));
+  }
+
+  @Test
+  public void testEnsureRemaining() {
+    // Four names of 1 MB fill the first slab, and the fifth starts a new one.
+    String name = String.join("", Collections.nCopies((1 << 20) - 8, "a"));
+    EntityStore store1 = new EntityStore();
+    for (int i = 0; i < 5; i++) {
+      store1.add(new Entity(name + i, i));
+    }
+    ByteBuffer[] slabs = store1.columns[EntityList.NAME];
+    Assert.assertEquals(2, slabs.length);
+    Assert.assertEquals(EntityStore.SLAB_SIZE - 12, slabs[0].position());
+    Assert.assertEquals(EntityStore.SLAB_SIZE, slabs[1].capacity());
+    Assert.assertEquals(EntityStore.SLAB_SIZE,
+        store1.positions[EntityList.NAME][4]);
+    Assert.assertEquals(name + 4, store1.get(4).name);
+
+    // Each slab of another store is appended to one slab, here the first
+    // slab to "Brei".
+    EntityStore store2 = new EntityStore();
+    store2.add(new Entity("Brei", 2));
+    store2.addAll(store1);
+    Assert.assertEquals(2, store2.columns[EntityList.NAME].length);
+    Assert.assertEquals(EntityStore.SLAB_SIZE,
+        store2.positions[EntityList.NAME][5]);
+    Assert.assertEquals("Brei", store2.get(0).name);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(name + i, store2.get(i + 1).name);
+    }
+  }
+
+  @Test
+  public void testTrimToSize() {
+    EntityStore store = new EntityStore();
+    store.add(new Entity("Freiburg", 3));
+    store.trimToSize();
+    Assert.assertEquals(1, store.scores.length);
+    // "Freiburg" takes 4 + 8 bytes.
+    Assert.assertEquals(12, store.columns[EntityList.NAME][0].capacity());
+    store.add(new Entity("Brei", 2));
+    Assert.assertEquals("[Entity(name='Freiburg', score=3), "
+        + "Entity(name='Brei', score=2)]", store.toString());
+  }
+}
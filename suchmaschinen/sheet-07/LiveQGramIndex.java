@@ -0,0 +1,681 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A q-gram index that allows to add, update and delete entities while it is
+ * queried. The entities are kept in up to three segments:
+ *
+ * <p>(1) the base, an immutable index, usually built from a file;
+ *
+ * <p>(2) the delta, a small index that receives the added and updated
+ * entities;
+ *
+ * <p>(3) while a compaction runs, the frozen delta, that is, the former delta
+ * which is folded into a new base.
+ *
+ * <p>A deleted entity, or the old version of an updated entity, is marked with
+ * a tombstone in the segment that holds it. A query merges the matches of all
+ * segments. When the delta grows too large, a background compaction builds a
+ * new base from the base and the frozen delta and swaps it in atomically.
+ * Queries (and updates) only wait for the swap, not for the compaction.
+ *
+ * <p>The id of an entity stays the same across updates and compactions; the
+ * ids of deleted entities are not reused.
+ */
+public class LiveQGramIndex extends QGramIndex {
+  /**
+   * The default number of entities in the delta and tombstones in the base
+   * that triggers a compaction.
+   */
+  public static final int DEFAULT_MAX_DELTA_SIZE = 1000;
+
+  /**
+   * A segment: an index and the tombstones of its entities.
+   */
+  protected static class Segment {
+    /**
+     * The index.
+     */
+    protected QGramIndex index;
+
+    /**
+     * The ids of the entities, by id in the index - 1; null if the ids are the
+     * ids in the index (in the base).
+     */
+    protected int[] ids;
+
+    /**
+     * The ids in the index, by id; null if the ids are the ids in the index.
+     */
+    protected Map<Integer, Integer> localIds;
+
+    /**
+     * The ids in the index of the entities with a tombstone.
+     */
+    protected BitSet deleted = new BitSet();
+
+    /**
+     * The number of entities with a tombstone that may still match (that is,
+     * which are no holes).
+     */
+    protected int numTombstones;
+
+    /**
+     * Creates a new segment.
+     *
+     * @param index
+     *        The index.
+     * @param withIds
+     *        Whether the ids differ from the ids in the index.
+     */
+    protected Segment(QGramIndex index, boolean withIds) {
+      this.index = index;
+      if (withIds) {
+        this.ids = new int[16];
+        this.localIds = new HashMap<>();
+      }
+    }
+
+    /**
+     * Returns the id in the index of the given entity, if the entity is in
+     * this segment and has no tombstone.
+     *
+     * @param id
+     *        The id of the entity.
+     *
+     * @return The id in the index; -1 if there is none.
+     */
+    protected int findLocalId(int id) {
+      int localId;
+      if (this.localIds == null) {
+        localId = id <= this.index.entities.size() ? id : -1;
+      } else {
+        localId = this.localIds.getOrDefault(id, -1);
+      }
+      return localId > 0 && !this.deleted.get(localId) ? localId : -1;
+    }
+  }
+
+  /**
+   * The number of entities in the delta and tombstones in the base that
+   * triggers a compaction.
+   */
+  protected int maxDeltaSize;
+
+  /**
+   * The base segment.
+   */
+  protected Segment baseSegment;
+
+  /**
+   * The delta segment.
+   */
+  protected Segment deltaSegment;
+
+  /**
+   * The frozen delta segment; null if no compaction runs.
+   */
+  protected Segment frozenSegment;
+
+  /**
+   * The id of the next added entity.
+   */
+  protected int nextId;
+
+  /**
+   * The lock of the segments. Queries hold the read lock, updates and the
+   * swap of a new base the write lock.
+   */
+  protected ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * The lock that allows only one compaction at a time.
+   */
+  protected final Object compactionLock = new Object();
+
+  /**
+   * The thread that runs the background compactions.
+   */
+  protected ExecutorService compactor = Executors.newSingleThreadExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "compaction");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Creates a new index on top of the given base index.
+   *
+   * @param base
+   *        The base index, which must not be changed afterwards.
+   */
+  public LiveQGramIndex(QGramIndex base) {
+    this(base, DEFAULT_MAX_DELTA_SIZE);
+  }
+
+  /**
+   * Creates a new index on top of the given base index.
+   *
+   * @param base
+   *        The base index, which must not be changed afterwards.
+   * @param maxDeltaSize
+   *        The number of entities in the delta and tombstones in the base
+   *        that triggers a compaction.
+   */
+  public LiveQGramIndex(QGramIndex base, int maxDeltaSize) {
+    super(base.q, base.withSynonyms);
+    this.maxDeltaSize = maxDeltaSize;
+    this.baseSegment = new Segment(base, false);
+    this.deltaSegment = new Segment(new QGramIndex(this.q, this.withSynonyms),
+        true);
+    this.nextId = base.entities.size() + 1;
+    this.entities = new EntityList() {
+      @Override
+      public Entity get(int index) {
+        return getEntity(index + 1);
+      }
+
+      @Override
+      public int getScore(int index) {
+        lock.readLock().lock();
+        try {
+          for (Segment segment : getSegments()) {
+            int localId = segment.findLocalId(index + 1);
+            if (localId != -1) {
+              return segment.index.entities.getScore(localId - 1);
+            }
+          }
+          return 0;
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      @Override
+      public String getString(int column, int index) {
+        lock.readLock().lock();
+        try {
+          for (Segment segment : getSegments()) {
+            int localId = segment.findLocalId(index + 1);
+            if (localId != -1) {
+              return segment.index.entities.getString(column, localId - 1);
+            }
+          }
+          return null;
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      @Override
+      public int size() {
+        return nextId - 1;
+      }
+    };
+  }
+
+  /**
+   * Adds the given entity. The entity gets the next free id.
+   *
+   * @param entity
+   *        The entity to add.
+   *
+   * @return The id of the entity.
+   */
+  @Override
+  public int addEntity(Entity entity) {
+    int id;
+    this.lock.writeLock().lock();
+    try {
+      id = this.nextId++;
+      addToDelta(id, entity);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    compactIfNeeded();
+    return id;
+  }
+
+  /**
+   * Replaces the entity with the given id by the given entity.
+   *
+   * @param id
+   *        The id of the entity.
+   * @param entity
+   *        The new version of the entity.
+   *
+   * @return True if the entity was replaced; false if there is no entity with
+   *         the given id.
+   */
+  public boolean updateEntity(int id, Entity entity) {
+    this.lock.writeLock().lock();
+    try {
+      if (!markDeleted(id)) {
+        return false;
+      }
+      addToDelta(id, entity);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    compactIfNeeded();
+    return true;
+  }
+
+  /**
+   * Deletes the entity with the given id.
+   *
+   * @param id
+   *        The id of the entity.
+   *
+   * @return True if the entity was deleted; false if there is no entity with
+   *         the given id.
+   */
+  public boolean deleteEntity(int id) {
+    this.lock.writeLock().lock();
+    try {
+      if (!markDeleted(id)) {
+        return false;
+      }
+      this.version = VERSIONS.incrementAndGet();
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    compactIfNeeded();
+    return true;
+  }
+
+  /**
+   * Adds the given entity with the given id to the delta. The write lock must
+   * be held.
+   *
+   * @param id
+   *        The id of the entity.
+   * @param entity
+   *        The entity.
+   */
+  protected void addToDelta(int id, Entity entity) {
+    Segment segment = this.deltaSegment;
+    int localId = segment.index.addEntity(entity);
+    if (localId > segment.ids.length) {
+      segment.ids = Arrays.copyOf(segment.ids, 2 * segment.ids.length);
+    }
+    segment.ids[localId - 1] = id;
+    segment.localIds.put(id, localId);
+    this.version = VERSIONS.incrementAndGet();
+  }
+
+  /**
+   * Puts a tombstone on the current version of the entity with the given id.
+   * The write lock must be held.
+   *
+   * @param id
+   *        The id of the entity.
+   *
+   * @return True if there was a current version.
+   */
+  protected boolean markDeleted(int id) {
+    for (Segment segment : getSegments()) {
+      int localId = segment.findLocalId(id);
+      if (localId != -1) {
+        segment.deleted.set(localId);
+        segment.numTombstones++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the segments, the newest first. The lock must be held.
+   *
+   * @return The segments.
+   */
+  protected List<Segment> getSegments() {
+    List<Segment> segments = new ArrayList<>(3);
+    segments.add(this.deltaSegment);
+    if (this.frozenSegment != null) {
+      segments.add(this.frozenSegment);
+    }
+    segments.add(this.baseSegment);
+    return segments;
+  }
+
+  @Override
+  public Entity getEntity(int entityId) {
+    this.lock.readLock().lock();
+    try {
+      for (Segment segment : getSegments()) {
+        int localId = segment.findLocalId(entityId);
+        if (localId != -1) {
+          return segment.index.getEntity(localId);
+        }
+      }
+      return null;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta in all segments (see
+   * {@link QGramIndex#findMatches(QuerySession, String, int, int)}). The
+   * session is only used for the base. Since the best matches of the base may
+   * have tombstones, the base is asked for k plus the number of its
+   * tombstones; the small deltas are asked for all their matches.
+   */
+  @Override
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k, QueryStats stats) {
+    List<Match> matches = new ArrayList<>();
+    int numPedComputations = 0;
+
+    this.lock.readLock().lock();
+    try {
+      for (Segment segment : getSegments()) {
+        ObjectIntPair<List<Match>> result;
+        QueryStats segmentStats = new QueryStats();
+        if (segment == this.baseSegment) {
+          result = segment.index.findMatches(session, prefix, delta,
+              (int) Math.min((long) k + segment.numTombstones,
+                  Integer.MAX_VALUE), segmentStats);
+        } else {
+          result = segment.index.findMatches(null, prefix, delta,
+              Integer.MAX_VALUE, segmentStats);
+        }
+        numPedComputations += result.second;
+        stats.add(segmentStats);
+
+        for (Match match : result.first) {
+          if (segment.deleted.get(match.entityId)) {
+            continue;
+          }
+          if (segment.ids == null) {
+            matches.add(match);
+          } else {
+            matches.add(new Match(segment.ids[match.entityId - 1], match.ped,
+                match.synonym, match.score));
+          }
+        }
+      }
+    } finally {
+      this.lock.readLock().unlock();
+    }
+
+    long start = System.nanoTime();
+    matches = rankMatches(matches);
+    if (matches.size() > k) {
+      matches = new ArrayList<>(matches.subList(0, k));
+    }
+    stats.numMatches += matches.size();
+    stats.endPhase(QueryStats.RANK, start);
+    return new ObjectIntPair<>(matches, numPedComputations);
+  }
+
+  /**
+   * Precomputes the best matches of the given hot prefix in the base (see
+   * {@link QGramIndex#precomputeMatches}).
+   */
+  @Override
+  public void precomputeMatches(String prefix, int delta) {
+    this.lock.readLock().lock();
+    try {
+      this.baseSegment.index.precomputeMatches(prefix, delta);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the k best entities that match the words of the given multi-word
+   * query in all segments (see {@link QGramIndex#findMultiWordMatches}).
+   * Each segment has a word index of its own, which is only rebuilt when its
+   * index changes: the word index of the base once per base, the one of the
+   * small delta after each change of the delta. Like in
+   * {@link #findMatches(QuerySession, String, int, int, QueryStats)}, the
+   * matches with a tombstone are dropped, so that the base is asked for k
+   * plus the number of its tombstones and the deltas for all their matches.
+   */
+  @Override
+  public ObjectIntPair<List<Match>> findMultiWordMatches(String query,
+      int delta, int k) {
+    List<Match> matches = new ArrayList<>();
+    int numPedComputations = 0;
+
+    this.lock.readLock().lock();
+    try {
+      for (Segment segment : getSegments()) {
+        int segmentK = segment == this.baseSegment
+            ? (int) Math.min((long) k + segment.numTombstones,
+                Integer.MAX_VALUE)
+            : Integer.MAX_VALUE;
+        ObjectIntPair<List<Match>> result = segment.index
+            .findMultiWordMatches(query, delta, segmentK);
+        numPedComputations += result.second;
+
+        for (Match match : result.first) {
+          if (segment.deleted.get(match.entityId)) {
+            continue;
+          }
+          if (segment.ids == null) {
+            matches.add(match);
+          } else {
+            matches.add(new Match(segment.ids[match.entityId - 1], match.ped,
+                match.synonym, match.score));
+          }
+        }
+      }
+    } finally {
+      this.lock.readLock().unlock();
+    }
+
+    matches = rankMatches(matches);
+    if (matches.size() > k) {
+      matches = new ArrayList<>(matches.subList(0, k));
+    }
+    return new ObjectIntPair<>(matches, numPedComputations);
+  }
+
+  /**
+   * Starts a background compaction if the delta or the tombstones in the base
+   * have grown too large and no compaction runs.
+   */
+  protected void compactIfNeeded() {
+    this.lock.readLock().lock();
+    try {
+      if (this.frozenSegment != null
+          || this.deltaSegment.index.entities.size()
+          + this.baseSegment.numTombstones < this.maxDeltaSize) {
+        return;
+      }
+    } finally {
+      this.lock.readLock().unlock();
+    }
+    this.compactor.execute(this::compact);
+  }
+
+  /**
+   * Folds the delta into a new base. The delta is frozen and replaced by an
+   * empty one; the new base is built from the base and the frozen delta
+   * without holding the lock; then it is swapped in. Tombstones set during
+   * the compaction are carried over to the new base.
+   */
+  public void compact() {
+    synchronized (this.compactionLock) {
+      // Freeze the delta.
+      Segment base;
+      Segment frozen;
+      BitSet baseDeleted;
+      BitSet frozenDeleted;
+      int numIds;
+      this.lock.writeLock().lock();
+      try {
+        if (this.deltaSegment.index.entities.isEmpty()
+            && this.baseSegment.numTombstones == 0) {
+          return;
+        }
+        base = this.baseSegment;
+        frozen = this.deltaSegment;
+        this.frozenSegment = frozen;
+        this.deltaSegment = new Segment(new QGramIndex(this.q,
+            this.withSynonyms), true);
+        baseDeleted = (BitSet) base.deleted.clone();
+        frozenDeleted = (BitSet) frozen.deleted.clone();
+        numIds = this.nextId - 1;
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+
+      // Build the new base. Each entity comes from the frozen delta (> 0),
+      // from the base (0) or is a hole (< 0), by id - 1.
+      int[] sources = new int[numIds];
+      Arrays.fill(sources, -1);
+      for (int id = 1; id <= base.index.entities.size(); id++) {
+        if (!baseDeleted.get(id)) {
+          sources[id - 1] = 0;
+        }
+      }
+      for (int localId = 1; localId <= frozen.index.entities.size();
+          localId++) {
+        if (!frozenDeleted.get(localId)) {
+          sources[frozen.ids[localId - 1] - 1] = localId;
+        }
+      }
+      QGramIndex index = buildBase(base, frozen, sources);
+      index.trimLists();
+      index.getPrefixTrie();
+      if (base.index.precomputedVersion == base.index.version) {
+        // Precompute the matches of the same hot prefixes.
+        for (String key : base.index.precomputedMatches.keySet()) {
+          int pos = key.indexOf(':');
+          index.precomputeMatches(key.substring(pos + 1),
+              Integer.parseInt(key.substring(0, pos)));
+        }
+      }
+
+      // Swap in the new base, with the tombstones set in the meantime.
+      this.lock.writeLock().lock();
+      try {
+        Segment newBase = new Segment(index, false);
+        for (int id = 1; id <= numIds; id++) {
+          int source = sources[id - 1];
+          if (source < 0) {
+            newBase.deleted.set(id);
+          } else if (source == 0 ? base.deleted.get(id)
+              : frozen.deleted.get(source)) {
+            newBase.deleted.set(id);
+            newBase.numTombstones++;
+          }
+        }
+        this.baseSegment = newBase;
+        this.frozenSegment = null;
+        this.version = VERSIONS.incrementAndGet();
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Builds a new base from the entities of the given base and frozen delta.
+   * Ranges of ids are indexed in parallel and the partial indexes are
+   * appended in order, like in {@link QGramIndex#buildFromFile}. An entity of
+   * the base that was read from a file is added with only its indexed fields
+   * and the offset of its line, so that its other fields are neither read
+   * nor stored again. A deleted entity leaves a hole: an entity without
+   * q-grams, which never matches, with the score of the entity before it,
+   * so that the order of the scores is kept.
+   *
+   * @param base
+   *        The base.
+   * @param frozen
+   *        The frozen delta.
+   * @param sources
+   *        The source of each entity by id - 1: the id in the frozen delta
+   *        (> 0), the base (0) or none (< 0).
+   *
+   * @return The new base.
+   */
+  protected QGramIndex buildBase(Segment base, Segment frozen, int[] sources) {
+    EntityStore store = base.index.entities instanceof EntityStore
+        ? (EntityStore) base.index.entities : null;
+    EntitySource source = store != null ? store.source : null;
+    int[] scores = new int[sources.length];
+    int score = Integer.MAX_VALUE;
+    for (int id = 1; id <= sources.length; id++) {
+      if (sources[id - 1] >= 0) {
+        score = sources[id - 1] == 0 ? base.index.entities.getScore(id - 1)
+            : frozen.index.entities.getScore(sources[id - 1] - 1);
+      }
+      scores[id - 1] = score;
+    }
+
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    int rangeSize = Math.max(1, (sources.length + numThreads - 1)
+        / numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<QGramIndex>> futures = new ArrayList<>();
+      for (int from = 1; from <= sources.length; from += rangeSize) {
+        int fromId = from;
+        int toId = Math.min(from + rangeSize, sources.length + 1);
+        futures.add(executor.submit(() -> {
+          QGramIndex partial = new QGramIndex(this.q, this.withSynonyms);
+          partial.entities = new EntityStore(source);
+          for (int id = fromId; id < toId; id++) {
+            int entitySource = sources[id - 1];
+            if (entitySource < 0) {
+              partial.addEntity(new Entity("", scores[id - 1]));
+            } else if (entitySource > 0) {
+              partial.addEntity(frozen.index.getEntity(entitySource));
+            } else if (store != null && store.getOffset(id - 1) >= 0) {
+              partial.addEntity(store.getIndexedFields(id - 1),
+                  store.getOffset(id - 1));
+            } else {
+              partial.addEntity(base.index.getEntity(id));
+            }
+          }
+          return partial;
+        }));
+      }
+
+      QGramIndex index = new QGramIndex(this.q, this.withSynonyms);
+      for (Future<QGramIndex> future : futures) {
+        index.appendIndex(future.get());
+      }
+      return index;
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Could not compact the index", e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Compacts the index and saves the base (see {@link QGramIndex#save}).
+   * Deleted entities are saved as empty entities without q-grams.
+   */
+  @Override
+  public void save(String fileName) throws IOException {
+    compact();
+    this.lock.readLock().lock();
+    try {
+      this.baseSegment.index.save(fileName);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the LiveQGramIndex class.
+ */
+public class LiveQGramIndexTest {
+  /**
+   * Creates a live index on top of the example index.
+   */
+  protected static LiveQGramIndex createIndex() {
+    QGramIndex base = new QGramIndex(3, true);
+    base.buildFromFile("example.tsv");
+    return new LiveQGramIndex(base, 100);
+  }
+
+  @Test
+  public void testAddEntity() {
+    LiveQGramIndex qgi = createIndex();
+    Assert.assertEquals(3, qgi.addEntity(new Entity("freiburg", 4)));
+    Assert.assertEquals("freiburg", qgi.getEntity(3).name);
+    Assert.assertEquals("[Match(3, ped=0), Match(1, ped=0), Match(2, ped=1)]",
+        qgi.findMatches("frei", 1).first.toString());
+    Assert.assertEquals("[Match(3, ped=0)]",
+        qgi.findMatches("frei", 1, 1).first.toString());
+  }
+
+  @Test
+  public void testUpdateEntity() {
+    LiveQGramIndex qgi = createIndex();
+    Assert.assertTrue(qgi.updateEntity(2, new Entity("frei", 1)));
+    Assert.assertFalse(qgi.updateEntity(3, new Entity("frei", 1)));
+    Assert.assertEquals(1, qgi.getEntity(2).score);
+    Assert.assertEquals("[Match(1, ped=0), Match(2, ped=0)]",
+        qgi.findMatches("frei", 1).first.toString());
+    Assert.assertEquals("[]", qgi.findMatches("brei", 0).first.toString());
+
+    // Update the new version again.
+    Assert.assertTrue(qgi.updateEntity(2, new Entity("brei", 5)));
+    Assert.assertEquals("[Match(2, ped=0), Match(1, ped=1)]",
+        qgi.findMatches("brei", 1).first.toString());
+  }
+
+  @Test
+  public void testDeleteEntity() {
+    LiveQGramIndex qgi = createIndex();
+    long version = qgi.version;
+    Assert.assertTrue(qgi.deleteEntity(1));
+    Assert.assertFalse(qgi.deleteEntity(1));
+    Assert.assertNotEquals(version, qgi.version);
+    Assert.assertNull(qgi.getEntity(1));
+    Assert.assertEquals("[Match(2, ped=1)]",
+        qgi.findMatches("frei", 1).first.toString());
+    // The base is asked for one more match, to make up for the tombstone.
+    Assert.assertEquals("[Match(2, ped=1)]",
+        qgi.findMatches("frei", 1, 1).first.toString());
+    Assert.assertEquals("[Match(2, ped=1)]",
+        qgi.findMultiWordMatches("frei", 1, 5).first.toString());
+  }
+
+  @Test
+  public void testFindMultiWordMatches() {
+    LiveQGramIndex qgi = createIndex();
+    Assert.assertEquals("[Match(1, ped=0), Match(2, ped=1)]",
+        qgi.findMultiWordMatches("frei", 1, 5).first.toString());
+    WordIndex baseWordIndex = qgi.baseSegment.index.wordIndex;
+    Assert.assertNotNull(baseWordIndex);
+
+    // Changes only rebuild the word index of the delta.
+    qgi.addEntity(new Entity("frei burg", 4));
+    qgi.deleteEntity(2);
+    Assert.assertEquals("[Match(3, ped=0)]",
+        qgi.findMultiWordMatches("burg frei", 1, 5).first.toString());
+    Assert.assertEquals("[Match(3, ped=0), Match(1, ped=0)]",
+        qgi.findMultiWordMatches("frei", 1, 2).first.toString());
+    Assert.assertSame(baseWordIndex, qgi.baseSegment.index.wordIndex);
+  }
+
+  @Test
+  public void testCompact() {
+    LiveQGramIndex qgi = createIndex();
+    qgi.deleteEntity(1);
+    qgi.updateEntity(2, new Entity("brei", 5));
+    int id = qgi.addEntity(new Entity("freiburg", 4));
+    String expected = qgi.findMatches("frei", 1).first.toString();
+
+    qgi.compact();
+    Assert.assertNull(qgi.frozenSegment);
+    Assert.assertEquals(0, qgi.deltaSegment.index.entities.size());
+    Assert.assertEquals(3, qgi.baseSegment.index.entities.size());
+    Assert.assertEquals(0, qgi.baseSegment.numTombstones);
+    Assert.assertEquals(expected, qgi.findMatches("frei", 1).first.toString());
+    Assert.assertNull(qgi.getEntity(1));
+    Assert.assertEquals(5, qgi.getEntity(2).score);
+    Assert.assertEquals("freiburg", qgi.getEntity(id).name);
+
+    // Ids are not reused.
+    Assert.assertEquals(4, qgi.addEntity(new Entity("brei", 1)));
+  }
+
+  @Test
+  public void testBuildBase() {
+    LiveQGramIndex qgi = createIndex();
+    qgi.deleteEntity(1);
+    qgi.compact();
+    // The entity of the base keeps the offset of its line, and the hole
+    // keeps the scores in descending order.
+    EntityStore store = (EntityStore) qgi.baseSegment.index.entities;
+    Assert.assertTrue(store.getOffset(1) > 0);
+    Assert.assertEquals(-1, store.positions[EntityList.DESC][1]);
+    Assert.assertEquals("another word", qgi.getEntity(2).desc);
+    Assert.assertTrue(qgi.baseSegment.index.scoresDescending);
+    Assert.assertEquals("[Match(2, ped=1)]",
+        qgi.findMatches("frei", 1).first.toString());
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * A read-only list of the entities stored in an index snapshot. The entities
+ * are stored column by column: one column with the scores and one column per
+ * string field, holding the positions of the strings. An entity is decoded
+ * each time it is accessed.
+ */
+public class MappedEntityList extends EntityList {
+  /**
+   * The snapshot.
+   */
+  protected SnapshotReader snapshot;
+
+  /**
+   * The number of entities.
+   */
+  protected int numEntities;
+
+  /**
+   * The position of the score column (one integer per entity).
+   */
+  protected long scoresPosition;
+
+  /**
+   * The positions of the string columns (one long per entity, the position of
+   * the string).
+   */
+  protected long[] columnPositions;
+
+  /**
+   * Creates a new list of the entities in the given snapshot.
+   *
+   * @param snapshot
+   *        The snapshot.
+   * @param numEntities
+   *        The number of entities.
+   * @param scoresPosition
+   *        The position of the score column.
+   * @param columnPositions
+   *        The positions of the string columns.
+   */
+  public MappedEntityList(SnapshotReader snapshot, int numEntities,
+      long scoresPosition, long[] columnPositions) {
+    this.snapshot = snapshot;
+    this.numEntities = numEntities;
+    this.scoresPosition = scoresPosition;
+    this.columnPositions = columnPositions;
+  }
+
+  @Override
+  public Entity get(int i) {
+    return decode(i);
+  }
+
+  @Override
+  public int getScore(int i) {
+    return this.snapshot.getInt(this.scoresPosition + 4L * i);
+  }
+
+  @Override
+  public String getString(int column, int i) {
+    return this.snapshot.getString(
+        this.snapshot.getLong(this.columnPositions[column] + 8L * i));
+  }
+
+  @Override
+  public int size() {
+    return this.numEntities;
+  }
+}
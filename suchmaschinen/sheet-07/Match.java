@@ -0,0 +1,61 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * A match of a query: an entity together with the prefix edit distance of the
+ * query to the entity and the synonym that matched, if any. Matches are
+ * created per query and never change, so the entities of an index can be
+ * shared by concurrent queries.
+ */
+public class Match {
+  /**
+   * The id of the matched entity (1-based).
+   */
+  public final int entityId;
+
+  /**
+   * The prefix edit distance of the query to the entity.
+   */
+  public final int ped;
+
+  /**
+   * The index of the matched synonym in the synonyms of the entity; -1 if the
+   * name of the entity matched.
+   */
+  public final int synonym;
+
+  /**
+   * The score of the matched entity (copied to rank matches without looking
+   * up the entity).
+   */
+  public final int score;
+
+  /**
+   * Creates a new match.
+   *
+   * @param entityId
+   *        The id of the matched entity.
+   * @param ped
+   *        The prefix edit distance of the query to the entity.
+   * @param synonym
+   *        The index of the matched synonym; -1 if the name matched.
+   * @param score
+   *        The score of the matched entity.
+   */
+  public Match(int entityId, int ped, int synonym, int score) {
+    this.entityId = entityId;
+    this.ped = ped;
+    this.synonym = synonym;
+    this.score = score;
+  }
+
+  @Override
+  public String toString() {
+    if (this.synonym == -1) {
+      return String.format("Match(%d, ped=%d)", this.entityId, this.ped);
+    }
+    return String.format("Match(%d, ped=%d, synonym=%d)", this.entityId,
+        this.ped, this.synonym);
+  }
+}
@@ -0,0 +1,197 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A q-gram index with several values of q. It holds one q-gram index per value
+ * of q over the same entities (with the same entity and variant ids), and a
+ * planner picks the index with the lowest estimated cost per query.
+ *
+ * <p>The cost of a query on an index is estimated from the sum P of the
+ * lengths of the inverted lists of the q-grams of the prefix and the count
+ * threshold t = |x| - q * delta. A candidate must occur in at least t of the
+ * lists, so there are at most P / t candidates; in practice, their number
+ * falls faster with t, and P / t^2 predicts the query time best. Only indexes
+ * with t >= 1 are considered, since the count filter finds all matches only
+ * then. If there is no such index, the first index is used, as a plain index
+ * with its q would do.
+ */
+public class MultiQGramIndex extends QGramIndex {
+  /**
+   * The indexes, one per value of q. The first one also answers short
+   * exact-prefix queries and hot prefixes.
+   */
+  protected QGramIndex[] indexes;
+
+  /**
+   * Creates an empty index with the given values of q.
+   *
+   * @param qs
+   *        The values of q; the first one is the default.
+   * @param withSynonyms
+   *        The boolean flag that indicates whether to use synonyms or not.
+   */
+  public MultiQGramIndex(int[] qs, boolean withSynonyms) {
+    super(qs[0], withSynonyms);
+    this.indexes = new QGramIndex[qs.length];
+    for (int i = 0; i < qs.length; i++) {
+      this.indexes[i] = new QGramIndex(qs[i], withSynonyms);
+    }
+    this.entities = this.indexes[0].entities;
+  }
+
+  /**
+   * Builds the index with the first value of q from the given file (see
+   * {@link QGramIndex#buildFromFile(String, int)}) and the indexes with the
+   * other values of q from its entities, in parallel.
+   *
+   * @param fileName
+   *        the name of the file to read.
+   * @param numThreads
+   *        The number of threads to use.
+   */
+  @Override
+  protected void buildFromFile(String fileName, int numThreads) {
+    this.indexes[0].buildFromFile(fileName, numThreads);
+    this.entities = this.indexes[0].entities;
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 1; i < this.indexes.length; i++) {
+        // The indexes share the entities of the first index.
+        QGramIndex index = this.indexes[i];
+        index.entities = this.entities;
+        index.scoresDescending = this.indexes[0].scoresDescending;
+        futures.add(executor.submit(() -> {
+          for (int id = 1; id <= this.entities.size(); id++) {
+            index.addVariants(id, this.entities.get(id - 1));
+          }
+          index.trimLists();
+          index.version = VERSIONS.incrementAndGet();
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      System.err.println("Could not build index from \"" + fileName + "\"");
+      e.printStackTrace();
+    } finally {
+      executor.shutdown();
+    }
+    this.version = VERSIONS.incrementAndGet();
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta (see
+   * {@link QGramIndex#findMatches(QuerySession, String, int, int)}) in the
+   * index chosen by {@link #planQuery}.
+   */
+  @Override
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k, QueryStats stats) {
+    prefix = normalize(prefix);
+    return planQuery(session, prefix, delta).findMatches(session, prefix,
+        delta, k, stats);
+  }
+
+  /**
+   * Chooses the index to answer the given query with. Short exact-prefix
+   * queries and hot prefixes go to the first index, which has the prefix trie
+   * and the precomputed matches. A query that extends the last query of its
+   * session stays with the index of the session, if it finds all matches, so
+   * that the work of the session is reused. Otherwise, the index with the
+   * lowest estimated cost is chosen.
+   *
+   * @param session
+   *        The session; may be null.
+   * @param prefix
+   *        The normalized prefix.
+   * @param delta
+   *        The value of delta.
+   *
+   * @return The index.
+   */
+  protected QGramIndex planQuery(QuerySession session, String prefix,
+      int delta) {
+    QGramIndex first = this.indexes[0];
+    if (delta == 0 && prefix.length() <= PREFIX_TRIE_DEPTH
+        || first.precomputedVersion == first.version
+        && first.precomputedMatches.containsKey(delta + ":" + prefix)) {
+      return first;
+    }
+
+    QGramIndex best = first;
+    long bestCost = Long.MAX_VALUE;
+    for (QGramIndex index : this.indexes) {
+      int threshold = prefix.length() - index.q * delta;
+      if (threshold < 1) {
+        continue;
+      }
+      if (session != null && session.version == index.version
+          && session.isExtension(prefix)) {
+        return index;
+      }
+      long cost = estimateCost(index, prefix, threshold);
+      if (cost < bestCost) {
+        best = index;
+        bestCost = cost;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Estimates the cost of a query on the given index (see above).
+   *
+   * @param index
+   *        The index.
+   * @param prefix
+   *        The normalized prefix.
+   * @param threshold
+   *        The count threshold |x| - q * delta, at least 1.
+   *
+   * @return The estimated cost.
+   */
+  protected static long estimateCost(QGramIndex index, String prefix,
+      int threshold) {
+    long numPostings = 0;
+    for (String qGram : index.computeQGrams(prefix)) {
+      List<IntIntPair> il = index.invertedLists.get(qGram);
+      if (il != null) {
+        numPostings += il.size();
+      }
+    }
+    return numPostings / ((long) threshold * threshold);
+  }
+
+  /**
+   * Precomputes the best matches of the given hot prefix in the first index
+   * (see {@link QGramIndex#precomputeMatches}).
+   */
+  @Override
+  public void precomputeMatches(String prefix, int delta) {
+    this.indexes[0].precomputeMatches(prefix, delta);
+  }
+
+  @Override
+  protected int addEntity(Entity entity) {
+    throw new UnsupportedOperationException(
+        "A multi-q index cannot be changed");
+  }
+
+  @Override
+  public void save(String fileName) throws IOException {
+    throw new UnsupportedOperationException(
+        "A multi-q index cannot be saved");
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the MultiQGramIndex class.
+ */
+public class MultiQGramIndexTest {
+  @Test
+  public void testBuildFromFile() {
+    MultiQGramIndex qgi = new MultiQGramIndex(new int[] {3, 2}, true);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals(2, qgi.entities.size());
+    Assert.assertEquals(2, qgi.indexes[1].q);
+    Assert.assertEquals(3, qgi.indexes[1].numVariants);
+    Assert.assertEquals("[(1, 2), (2, 2), (3, 2)]",
+        qgi.indexes[1].invertedLists.get("re").toString());
+  }
+
+  @Test
+  public void testPlanQuery() {
+    MultiQGramIndex qgi = new MultiQGramIndex(new int[] {3, 2, 4}, true);
+    qgi.buildFromFile("example.tsv");
+    // Short exact-prefix queries go to the first index.
+    Assert.assertEquals(3, qgi.planQuery(null, "frei", 0).q);
+    // For "freib" and delta = 1, the thresholds are 5 - 2 = 3, 5 - 3 = 2 and
+    // 5 - 4 = 1 for q = 2, 3 and 4, and the lists of the q-grams have 9, 8 and
+    // 7 postings, so the costs are 9 / 3^2 = 1, 8 / 2^2 = 2 and
+    // 7 / 1^2 = 7.
+    Assert.assertEquals(2, qgi.planQuery(null, "freib", 1).q);
+    Assert.assertEquals(2, MultiQGramIndex.estimateCost(qgi.indexes[0],
+        "freib", 2));
+    // With delta = 2, only q = 2 has a positive threshold.
+    Assert.assertEquals(2, qgi.planQuery(null, "freib", 2).q);
+    // With none, the first index is used.
+    Assert.assertEquals(3, qgi.planQuery(null, "frei", 2).q);
+  }
+
+  @Test
+  public void testFindMatches() {
+    QGramIndex expected = new QGramIndex(3, true);
+    expected.buildFromFile("example.tsv");
+    MultiQGramIndex qgi = new MultiQGramIndex(new int[] {3, 2, 4}, true);
+    qgi.buildFromFile("example.tsv");
+    for (String prefix : new String[] {"b", "fr", "brei", "freib", "frex"}) {
+      for (int delta = 0; delta <= 1; delta++) {
+        Assert.assertEquals(
+            expected.findMatches(prefix, delta).first.toString(),
+            qgi.findMatches(prefix, delta).first.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of pairs of integers, stored as consecutive integers
+ * (first, second, first, second, ...) in an {@link IntBuffer}, for example in
+ * a memory-mapped index snapshot. The pairs are created on access.
+ */
+public class PackedPairList extends AbstractList<IntIntPair>
+    implements RandomAccess {
+  /**
+   * The integers of the pairs.
+   */
+  protected IntBuffer ints;
+
+  /**
+   * Creates a new list backed by the given integers.
+   *
+   * @param ints
+   *        The integers of the pairs, two per pair.
+   */
+  public PackedPairList(IntBuffer ints) {
+    this.ints = ints;
+  }
+
+  @Override
+  public IntIntPair get(int i) {
+    return new IntIntPair(this.ints.get(2 * i), this.ints.get(2 * i + 1));
+  }
+
+  @Override
+  public int size() {
+    return this.ints.limit() / 2;
+  }
+}
@@ -0,0 +1,333 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie over the first characters of the normalized names (and synonyms) of
+ * the entities of a q-gram index, which answers queries with delta = 0, that
+ * is, exact-prefix queries, without merging inverted lists or computing PEDs.
+ * Each node stores the k best entities below it, ranked by score, so that the
+ * k best matches of a prefix are found in O(|prefix|).
+ *
+ * <p>The trie is encoded in arrays. The nodes are numbered in breadth-first
+ * order, so that the children of a node have consecutive numbers and are
+ * sorted by their labels.
+ */
+public class PrefixTrie {
+  /**
+   * The maximum depth of the trie, that is, the maximum length of a prefix.
+   */
+  protected int depth;
+
+  /**
+   * The maximum number of entities stored per node.
+   */
+  protected int k;
+
+  /**
+   * The version of the index the trie was built from.
+   */
+  protected long version;
+
+  /**
+   * The number of nodes. The root is node 0.
+   */
+  protected int numNodes;
+
+  /**
+   * The labels of the nodes (the last character of their prefix).
+   */
+  protected char[] labels;
+
+  /**
+   * The children of node i are the nodes firstChild[i], ...,
+   * firstChild[i + 1] - 1.
+   */
+  protected int[] firstChild;
+
+  /**
+   * The best entities of node i are at the positions topStart[i], ...,
+   * topStart[i + 1] - 1 of the arrays below.
+   */
+  protected int[] topStart;
+
+  /**
+   * The ids of the best entities, by node.
+   */
+  protected int[] topIds;
+
+  /**
+   * The indexes of the matched synonyms (-1 for the name), by node.
+   */
+  protected int[] topSynonyms;
+
+  /**
+   * The scores of the best entities, by node.
+   */
+  protected int[] topScores;
+
+  /**
+   * Creates an empty trie, to be filled by {@link QGramIndex#load}.
+   *
+   * @param depth
+   *        The maximum length of a prefix.
+   * @param k
+   *        The maximum number of entities stored per node.
+   * @param version
+   *        The version of the index.
+   */
+  protected PrefixTrie(int depth, int k, long version) {
+    this.depth = depth;
+    this.k = k;
+    this.version = version;
+  }
+
+  /**
+   * Builds the trie of the given index.
+   *
+   * @param index
+   *        The index.
+   * @param depth
+   *        The maximum length of a prefix.
+   * @param k
+   *        The maximum number of entities to store per node.
+   */
+  public PrefixTrie(QGramIndex index, int depth, int k) {
+    this.depth = depth;
+    this.k = k;
+    this.version = index.version;
+
+    // Normalize the variants, cut them to the depth of the trie and group them
+    // by the result.
+    int numVariants = index.numVariants;
+    Map<String, List<Integer>> groups = new HashMap<>();
+    int[] scores = new int[numVariants];
+    String name = null;
+    String[] synonyms = null;
+    int score = 0;
+    for (int i = 0; i < numVariants; i++) {
+      int entityId = index.variantEntityIds[i];
+      if (i == 0 || entityId != index.variantEntityIds[i - 1]) {
+        // Read the columns of the entity (ids are 1-based).
+        name = index.entities.getString(EntityList.NAME, entityId - 1);
+        synonyms = null;
+        score = index.entities.getScore(entityId - 1);
+      }
+      int synonym = index.variantSynonyms[i];
+      if (synonym != -1 && synonyms == null) {
+        synonyms = index.entities.getString(EntityList.SYNONYMS, entityId - 1)
+            .split(EntityList.SYNONYM_SEPARATOR);
+      }
+      String string = QGramIndex.normalize(synonym == -1 ? name
+          : synonyms[synonym]);
+      string = string.substring(0, Math.min(string.length(), depth));
+      groups.computeIfAbsent(string, key -> new ArrayList<>()).add(i);
+      scores[i] = score;
+    }
+
+    // Sort the variants by the groups.
+    List<String> keys = new ArrayList<>(groups.keySet());
+    Collections.sort(keys);
+    int[] order = new int[numVariants];
+    String[] strings = new String[numVariants];
+    int n = 0;
+    for (String key : keys) {
+      for (int variant : groups.get(key)) {
+        order[n] = variant;
+        strings[n] = key;
+        n++;
+      }
+    }
+
+    // Create the nodes in breadth-first order. Node i covers the sorted
+    // variants order[lo[i]], ..., order[hi[i] - 1].
+    int capacity = 16;
+    this.labels = new char[capacity];
+    this.firstChild = new int[capacity + 1];
+    int[] lo = new int[capacity];
+    int[] hi = new int[capacity];
+    int[] depths = new int[capacity];
+    hi[0] = numVariants;
+    this.numNodes = 1;
+    for (int node = 0; node < this.numNodes; node++) {
+      this.firstChild[node] = this.numNodes;
+      int d = depths[node];
+      if (d == depth) {
+        continue;
+      }
+      // Skip the variants that end at the node (they come first).
+      int i = lo[node];
+      while (i < hi[node] && strings[i].length() == d) {
+        i++;
+      }
+      // Add a child for each next character.
+      while (i < hi[node]) {
+        char c = strings[i].charAt(d);
+        int j = i + 1;
+        while (j < hi[node] && strings[j].charAt(d) == c) {
+          j++;
+        }
+        if (this.numNodes == capacity) {
+          capacity *= 2;
+          this.labels = Arrays.copyOf(this.labels, capacity);
+          this.firstChild = Arrays.copyOf(this.firstChild, capacity + 1);
+          lo = Arrays.copyOf(lo, capacity);
+          hi = Arrays.copyOf(hi, capacity);
+          depths = Arrays.copyOf(depths, capacity);
+        }
+        this.labels[this.numNodes] = c;
+        lo[this.numNodes] = i;
+        hi[this.numNodes] = j;
+        depths[this.numNodes] = d + 1;
+        this.numNodes++;
+        i = j;
+      }
+    }
+    this.labels = Arrays.copyOf(this.labels, this.numNodes);
+    this.firstChild = Arrays.copyOf(this.firstChild, this.numNodes + 1);
+    this.firstChild[this.numNodes] = this.numNodes;
+
+    // Compute the best entities of the nodes bottom-up, from the variants
+    // that end at a node (at the maximum depth: all variants below it) and
+    // the best entities of its children. This is exact, since an entity among
+    // the k best of a node is among the k best of each child it occurs in.
+    List<List<int[]>> tops = new ArrayList<>(this.numNodes);
+    for (int node = 0; node < this.numNodes; node++) {
+      tops.add(null);
+    }
+    int numTops = 0;
+    for (int node = this.numNodes - 1; node >= 0; node--) {
+      List<int[]> top = new ArrayList<>();
+      for (int i = lo[node]; i < hi[node]; i++) {
+        if (strings[i].length() > depths[node]) {
+          break;
+        }
+        int variant = order[i];
+        offer(top, index.variantEntityIds[variant],
+            index.variantSynonyms[variant], scores[variant]);
+      }
+      for (int c = this.firstChild[node]; c < this.firstChild[node + 1]; c++) {
+        for (int[] candidate : tops.get(c)) {
+          offer(top, candidate[0], candidate[1], candidate[2]);
+        }
+      }
+      tops.set(node, top);
+      numTops += top.size();
+    }
+
+    // Flatten the best entities.
+    this.topStart = new int[this.numNodes + 1];
+    this.topIds = new int[numTops];
+    this.topSynonyms = new int[numTops];
+    this.topScores = new int[numTops];
+    int pos = 0;
+    for (int node = 0; node < this.numNodes; node++) {
+      this.topStart[node] = pos;
+      for (int[] top : tops.get(node)) {
+        this.topIds[pos] = top[0];
+        this.topSynonyms[pos] = top[1];
+        this.topScores[pos] = top[2];
+        pos++;
+      }
+    }
+    this.topStart[this.numNodes] = pos;
+  }
+
+  /**
+   * Adds the given candidate to the given list of the k best candidates,
+   * ranked by score and then by entity id, if it is among them. Of several
+   * candidates of the same entity, the one with the lowest synonym index (the
+   * name first) is kept.
+   *
+   * @param top
+   *        The best candidates (entityId, synonym, score), sorted.
+   * @param entityId
+   *        The entity id of the candidate.
+   * @param synonym
+   *        The index of the synonym of the candidate (-1 for the name).
+   * @param score
+   *        The score of the candidate.
+   */
+  protected void offer(List<int[]> top, int entityId, int synonym, int score) {
+    // Find the position of the candidate and look for the same entity.
+    int pos = top.size();
+    while (pos > 0 && (top.get(pos - 1)[2] < score
+        || top.get(pos - 1)[2] == score && top.get(pos - 1)[0] > entityId)) {
+      pos--;
+    }
+    if (pos > 0 && top.get(pos - 1)[0] == entityId) {
+      int[] other = top.get(pos - 1);
+      other[1] = Math.min(other[1], synonym);
+      return;
+    }
+    if (pos == this.k) {
+      return;
+    }
+    top.add(pos, new int[] {entityId, synonym, score});
+    if (top.size() > this.k) {
+      top.remove(top.size() - 1);
+    }
+  }
+
+  /**
+   * Finds the k best entities with a name or synonym that starts with the
+   * given prefix, ranked by score. These are the k best matches with
+   * PED = 0, in the order of {@link QGramIndex#findMatches}.
+   *
+   * @param prefix
+   *        The normalized prefix, at most as long as the depth of the trie.
+   * @param k
+   *        The maximum number of matches, at most the k of the trie.
+   *
+   * @return The matches.
+   */
+  public List<Match> findMatches(String prefix, int k) {
+    List<Match> matches = new ArrayList<>();
+    int node = 0;
+    for (int i = 0; i < prefix.length() && node != -1; i++) {
+      node = findChild(node, prefix.charAt(i));
+    }
+    if (node == -1) {
+      return matches;
+    }
+    int end = Math.min(this.topStart[node] + k, this.topStart[node + 1]);
+    for (int i = this.topStart[node]; i < end; i++) {
+      matches.add(new Match(this.topIds[i], 0, this.topSynonyms[i],
+          this.topScores[i]));
+    }
+    return matches;
+  }
+
+  /**
+   * Returns the child of the given node with the given label (binary search).
+   *
+   * @param node
+   *        The node.
+   * @param c
+   *        The label.
+   *
+   * @return The child; -1 if there is none.
+   */
+  protected int findChild(int node, char c) {
+    int low = this.firstChild[node];
+    int high = this.firstChild[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (this.labels[mid] < c) {
+        low = mid + 1;
+      } else if (this.labels[mid] > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+}
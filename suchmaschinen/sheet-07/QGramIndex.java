@@ -3,46 +3,225 @@
 // Author: Hannah Bast <bast@cs.uni-freiburg.de>,
 //         Claudius Korzen <korzen@cs.uni-freiburg.de>.
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
 
 /**
  * A simple q-gram index as explained in lecture 5.
  */
 public class QGramIndex {
+  /**
+   * The maximum size of a chunk of the input file in bytes (a mapped buffer
+   * can hold at most 2 GB).
+   */
+  protected static final long MAX_CHUNK_SIZE = 1L << 30;
+
+  /**
+   * The magic number at the start of an index snapshot ("QGIX").
+   */
+  protected static final int SNAPSHOT_MAGIC = 0x51474958;
+
+  /**
+   * The version of the snapshot format. Increase it whenever the format
+   * changes, so that old snapshots are rejected instead of misread.
+   */
+  protected static final int SNAPSHOT_VERSION = 4;
+
+  /**
+   * The file extension of index snapshots.
+   */
+  public static final String SNAPSHOT_EXTENSION = ".qgi";
+
+  /**
+   * The size of the snapshot header in bytes: six integers (magic, version,
+   * q, withSynonyms, #entities, #q-grams), the positions of the q-gram
+   * directory (three arrays), the scores and the string columns, the number
+   * of variants with the positions of their three arrays, four integers of
+   * the prefix trie (depth, k, #nodes, #best entities) with the positions of
+   * its six arrays, and the number of precomputed prefixes with the positions
+   * of their three arrays.
+   */
+  protected static final int SNAPSHOT_HEADER_SIZE = 6 * 4
+      + (4 + EntityList.NUM_STRING_COLUMNS) * 8 + 4 + 3 * 8
+      + 4 * 4 + 6 * 8 + 4 + 3 * 8;
+
+  /**
+   * The maximum length of a prefix answered by the prefix trie.
+   */
+  protected static final int PREFIX_TRIE_DEPTH = 4;
+
+  /**
+   * The maximum k of a query answered by the prefix trie or the precomputed
+   * matches of hot prefixes.
+   */
+  protected static final int PRECOMPUTED_K = 10;
+
+  /**
+   * The factor mu of the DivideSkip heuristic, which probes the
+   * threshold / (mu * log2(M) + 1) longest inverted lists of a query instead
+   * of merging them, where M is the length of the longest list (see
+   * {@link #divideSkip}).
+   */
+  protected static final double DIVIDE_SKIP_MU = 0.0085;
+
+  /**
+   * The number of variant ids of the first range of a query on an index with
+   * the ids in descending order of the scores; each next range is twice as
+   * large (see {@link #findMatches(QuerySession, String, int, int)}).
+   */
+  protected static final int FIRST_RANGE_SIZE = 1024;
+
+  /**
+   * The number of runs per core a batch of queries is split into (see
+   * {@link #findMatchesBatch}).
+   */
+  protected static final int BATCH_RUNS_PER_CORE = 4;
+
+  /**
+   * The number of candidates of a query from which on they are verified in
+   * parallel (see {@link #verifyCandidatesInParallel}).
+   */
+  protected static final int PARALLEL_VERIFICATION_THRESHOLD = 20000;
+
+  /**
+   * The number of ranges per core the candidates are split into when they
+   * are verified in parallel.
+   */
+  protected static final int VERIFICATION_RANGES_PER_CORE = 4;
+
+  /**
+   * The source of the index versions.
+   */
+  protected static final AtomicLong VERSIONS = new AtomicLong();
+
   /**
    * The value of q.
    */
   protected int q;
 
+  /**
+   * The version of this index. It changes whenever the index changes and is
+   * unique across all indexes, so that cached results can be invalidated.
+   */
+  protected volatile long version;
+
   /**
    * The padding (q-1 times $).
    */
   protected String padding;
 
   /**
-   * The inverted lists.
+   * The inverted lists. The postings are pairs (variant id, position), one
+   * per occurrence of the q-gram in a variant, sorted by id and position. A
+   * variant is the name or, with synonyms, one of the synonyms of an entity.
+   * The lists are compressed (see {@link CompressedList}), except for the
+   * lists of a loaded snapshot.
    */
   protected TreeMap<String, List<IntIntPair>> invertedLists;
 
   /**
-   * The list of entities.
+   * The list of entities. The entities of a built index are stored column by
+   * column (see {@link EntityStore}).
+   */
+  protected EntityList entities;
+
+  /**
+   * The entity ids of the variants, by variant id - 1. The variants of an
+   * entity have consecutive ids, starting with the name. Without synonyms,
+   * the variant id of each name is the entity id.
+   */
+  protected int[] variantEntityIds;
+
+  /**
+   * The synonym indexes of the variants (-1 for names), by variant id - 1.
    */
-  protected List<Entity> entities;
+  protected int[] variantSynonyms;
+
+  /**
+   * The lengths of the normalized variants, by variant id - 1.
+   */
+  protected int[] variantLengths;
+
+  /**
+   * The number of variants.
+   */
+  protected int numVariants;
 
   /**
    * The boolean flag that indicates whether to use synonyms or not.
    */
   protected boolean withSynonyms;
 
+  /**
+   * The boolean flag that indicates whether to assign the entity ids in
+   * descending order of the scores when building from a file.
+   */
+  protected boolean sortByScore;
+
+  /**
+   * The boolean flag that indicates whether to search progressively, that is,
+   * to widen the filters from PED 0 to delta only while the top-k are
+   * incomplete (see {@link #findMatches(QuerySession, String, int, int)}).
+   */
+  protected boolean progressive;
+
+  /**
+   * True if the scores of the entities do not increase with their ids. Then
+   * the candidates of a query come in the order of the ranking for each PED,
+   * and {@link #findMatches(QuerySession, String, int, int)} stops early.
+   */
+  protected boolean scoresDescending;
+
+  /**
+   * The prefix trie for queries with delta = 0; null if it was not built yet.
+   */
+  protected volatile PrefixTrie prefixTrie;
+
+  /**
+   * The word index for multi-word queries; null if it was not built yet.
+   */
+  protected volatile WordIndex wordIndex;
+
+  /**
+   * The precomputed matches of hot prefixes, by key "delta:prefix". A value
+   * holds the best matches as quadruples (entityId, PED, synonym, score).
+   * The map is never changed once published; precomputing a prefix publishes
+   * a changed copy, so that queries read it without a lock.
+   */
+  protected volatile Map<String, int[]> precomputedMatches;
+
+  /**
+   * The version of the index the precomputed matches were computed on. It is
+   * written after the matches and read before them.
+   */
+  protected volatile long precomputedVersion;
+
+  /**
+   * The histograms of the statistics of the queries answered by this index
+   * (see {@link #findMatches(QuerySession, String, int, int)}).
+   */
+  protected QueryHistograms histograms;
+
   /**
    * Creates an empty q-gram index.
    *
@@ -52,92 +231,541 @@ public class QGramIndex {
    *        The boolean flag that indicates whether to use synonyms or not.
    */
   public QGramIndex(int q, boolean withSynonyms) {
+    this(q, withSynonyms, false);
+  }
+
+  /**
+   * Creates an empty q-gram index.
+   *
+   * @param q
+   *        The value of q.
+   * @param withSynonyms
+   *        The boolean flag that indicates whether to use synonyms or not.
+   * @param sortByScore
+   *        The boolean flag that indicates whether to assign the entity ids in
+   *        descending order of the scores when building from a file.
+   */
+  public QGramIndex(int q, boolean withSynonyms, boolean sortByScore) {
     this.q = q;
     this.withSynonyms = withSynonyms;
+    this.sortByScore = sortByScore;
+    this.scoresDescending = true;
+    this.progressive = true;
     this.padding = String.join("", Collections.nCopies(q - 1, "$"));
     this.invertedLists = new TreeMap<>();
-    this.entities = new ArrayList<>();
+    this.entities = new EntityStore();
+    this.variantEntityIds = new int[16];
+    this.variantSynonyms = new int[16];
+    this.variantLengths = new int[16];
+    this.precomputedMatches = new HashMap<>();
+    this.histograms = new QueryHistograms();
+    this.version = VERSIONS.incrementAndGet();
   }
 
   // ==========================================================================
   // Exercise 1.1
 
   /**
-   * Builds the index from the given file (one line per entity, see ES5).
+   * Builds the index from the given file (one line per entity, see ES5), using
+   * one thread per available core.
    *
    * @param fileName
    *        the name of the file to read.
    */
   protected void buildFromFile(String fileName) {
-    try (BufferedReader br = Files.newBufferedReader(Paths.get(fileName))) {
-      // Ignore the first line (which includes the column headers).
-      br.readLine();
-
-      // Iterate through the remaining lines.
-      String line;
-      int entityId = 0;
-
-      while ((line = br.readLine()) != null) {
-        entityId++;
-        // Split the line and fetch the several fields.
-        String[] parts = line.split("\t", -1);
-
-        String name = parts.length > 0 ? parts[0] : null;
-        int score = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
-        String description = parts.length > 2 ? parts[2] : null;
-        String wikipediaUrl = parts.length > 3 ? parts[3] : null;
-        String wikidataId = parts.length > 4 ? parts[4] : null;
-        List<String> synonyms = new ArrayList<>();
-        if (parts.length > 5 && !parts[5].isEmpty()) {
-          synonyms.addAll(Arrays.asList(parts[5].split(";")));
-        }
+    buildFromFile(fileName, Runtime.getRuntime().availableProcessors());
+  }
 
-        if (name != null) {
-          // Compute the q-grams of the entity name and add them to the index.
-          for (String qGram : computeQGrams(name)) {
-            if (!this.invertedLists.containsKey(qGram)) {
-              this.invertedLists.put(qGram, new ArrayList<>());
-            }
-            List<IntIntPair> il = this.invertedLists.get(qGram);
-            // Check if the id of the last pair is equal to the current id.
-            if (!il.isEmpty() && il.get(il.size() - 1).first == entityId) {
-              // Increment the frequency of the last pair.
-              il.get(il.size() - 1).second++;
-            } else {
-              // Add a new pair (entityId, 1) to the list.
-              il.add(new IntIntPair(entityId, 1));
-            }
+  /**
+   * Builds the index from the given file (one line per entity, see ES5). The
+   * file is split into newline-aligned chunks which are parsed and indexed in
+   * parallel. Each chunk yields a partial index with local entity ids, and the
+   * partial indexes are then concatenated in file order, so the result is
+   * identical to reading the file line by line. If the entities are sorted by
+   * score, they are indexed in that order instead (see
+   * {@link #buildSortedPartials}).
+   *
+   * @param fileName
+   *        the name of the file to read.
+   * @param numThreads
+   *        The number of threads to use.
+   */
+  protected void buildFromFile(String fileName, int numThreads) {
+    try {
+      // The partial indexes are appended in the order of the chunks.
+      List<QGramIndex> partials = this.sortByScore
+          ? buildSortedPartials(fileName, numThreads)
+          : buildPartials(fileName, numThreads, numThreads);
+      for (QGramIndex partial : partials) {
+        appendIndex(partial);
+      }
+      trimLists();
+
+      // Build the prefix trie for short exact-prefix queries.
+      getPrefixTrie();
+    } catch (IOException e) {
+      System.err.println("Could not read \"" + fileName + "\"");
+      e.printStackTrace();
+    } catch (InterruptedException | ExecutionException e) {
+      System.err.println("Could not build index from \"" + fileName + "\"");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Splits the given file into newline-aligned chunks (see
+   * {@link #computeChunkBounds}) and builds a partial index from each chunk
+   * (see {@link #buildFromChunk}), in parallel.
+   *
+   * @param fileName
+   *        the name of the file to read.
+   * @param numChunks
+   *        The desired number of chunks.
+   * @param numThreads
+   *        The number of threads to use.
+   *
+   * @return The partial indexes, in the order of the chunks.
+   */
+  protected List<QGramIndex> buildPartials(String fileName, int numChunks,
+      int numThreads)
+      throws IOException, InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+      // Submit one task per chunk. The tasks run in any order.
+      EntitySource source = new EntitySource(fileName);
+      long[] bounds = computeChunkBounds(channel, numChunks);
+      List<Future<QGramIndex>> futures = new ArrayList<>();
+      for (int i = 0; i < bounds.length - 1; i++) {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+            bounds[i], bounds[i + 1] - bounds[i]);
+        long offset = bounds[i];
+        futures.add(executor.submit(() -> buildFromChunk(chunk, source,
+            offset)));
+      }
+
+      List<QGramIndex> partials = new ArrayList<>(futures.size());
+      for (Future<QGramIndex> future : futures) {
+        partials.add(future.get());
+      }
+      return partials;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Parses the given file in newline-aligned chunks in parallel (see
+   * {@link #parseChunk}), sorts the entities by descending score and builds a
+   * partial index from each of numThreads ranges of the sorted entities, in
+   * parallel. The sort is stable, so entities with equal scores keep the
+   * order of the file.
+   *
+   * @param fileName
+   *        the name of the file to read.
+   * @param numThreads
+   *        The number of threads to use.
+   *
+   * @return The partial indexes, in the order of the ranges.
+   */
+  protected List<QGramIndex> buildSortedPartials(String fileName,
+      int numThreads)
+      throws IOException, InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+      EntitySource source = new EntitySource(fileName);
+      long[] bounds = computeChunkBounds(channel, numThreads);
+      List<Future<List<ObjectIntPair<Entity>>>> chunks = new ArrayList<>();
+      for (int i = 0; i < bounds.length - 1; i++) {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+            bounds[i], bounds[i + 1] - bounds[i]);
+        chunks.add(executor.submit(() -> {
+          // The entities with the offsets of their lines in the chunk.
+          List<ObjectIntPair<Entity>> entities = new ArrayList<>();
+          parseChunk(chunk, 0, (entity, offset) -> entities.add(
+              new ObjectIntPair<>(entity, (int) offset)));
+          return entities;
+        }));
+      }
+      List<Entity> entities = new ArrayList<>();
+      long[] offsets = new long[16];
+      for (int i = 0; i < chunks.size(); i++) {
+        for (ObjectIntPair<Entity> pair : chunks.get(i).get()) {
+          if (entities.size() == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
           }
+          offsets[entities.size()] = bounds[i] + pair.second;
+          entities.add(pair.first);
+        }
+      }
+      Integer[] order = new Integer[entities.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingInt(
+          (Integer i) -> entities.get(i).score).reversed());
 
-          if (this.withSynonyms) {
-            // Compute the q-grams of the synonyms and add them to the index.
-            for (String synonym : synonyms) {
-              for (String qGram : computeQGrams(synonym)) {
-                if (!this.invertedLists.containsKey(qGram)) {
-                  this.invertedLists.put(qGram, new ArrayList<>());
-                }
-                List<IntIntPair> il = this.invertedLists.get(qGram);
-                // Check if the id of the last pair is equal to the current id.
-                if (!il.isEmpty() && il.get(il.size() - 1).first == entityId) {
-                  // Increment the frequency of the last pair.
-                  il.get(il.size() - 1).second++;
-                } else {
-                  // Add a new pair (entityId, 1) to the list.
-                  il.add(new IntIntPair(entityId, 1));
-                }
-              }
-            }
+      List<Future<QGramIndex>> futures = new ArrayList<>();
+      long[] lineOffsets = offsets;
+      for (int i = 0; i < numThreads; i++) {
+        int from = (int) ((long) order.length * i / numThreads);
+        int to = (int) ((long) order.length * (i + 1) / numThreads);
+        futures.add(executor.submit(() -> {
+          QGramIndex partial = new QGramIndex(this.q, this.withSynonyms);
+          partial.entities = new EntityStore(source);
+          for (int j = from; j < to; j++) {
+            partial.addEntity(entities.get(order[j]), lineOffsets[order[j]]);
           }
+          return partial;
+        }));
+      }
+
+      List<QGramIndex> partials = new ArrayList<>(futures.size());
+      for (Future<QGramIndex> future : futures) {
+        partials.add(future.get());
+      }
+      return partials;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Splits the given file into newline-aligned chunks, skipping the first line
+   * (which includes the column headers).
+   *
+   * @param channel
+   *        The channel of the file to split.
+   * @param numChunks
+   *        The desired number of chunks. More chunks are used if a chunk would
+   *        exceed the maximum size of a mapped buffer.
+   *
+   * @return The byte offsets of the chunk boundaries, starting with the start
+   *         of the first chunk and ending with the size of the file.
+   */
+  protected static long[] computeChunkBounds(FileChannel channel,
+      int numChunks) throws IOException {
+    long size = channel.size();
+    long start = findNextLineStart(channel, 0);
+    numChunks = (int) Math.max(numChunks, (size - start) / MAX_CHUNK_SIZE + 1);
+
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(start);
+    for (int i = 1; i < numChunks; i++) {
+      long bound = findNextLineStart(channel,
+          Math.max(start + (size - start) * i / numChunks - 1, 0));
+      // Skip empty chunks (e.g., when a single line spans several chunks).
+      if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+        bounds.add(bound);
+      }
+    }
+    bounds.add(Math.max(size, start));
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
 
-          // Cache the entity.
-          this.entities.add(new Entity(name, score, description, wikipediaUrl,
-              wikidataId, synonyms));
+  /**
+   * Returns the offset of the first byte after the first newline at or after
+   * the given position, or the size of the file if there is no such newline.
+   *
+   * @param channel
+   *        The channel of the file to search.
+   * @param position
+   *        The position to start the search at.
+   *
+   * @return The offset of the start of the next line.
+   */
+  protected static long findNextLineStart(FileChannel channel, long position)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    while (channel.read(buffer, position) > 0) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        position++;
+        if (buffer.get() == '\n') {
+          return position;
         }
       }
-    } catch (IOException e) {
-      System.err.println("Could not read \"" + fileName + "\"");
-      e.printStackTrace();
+      buffer.clear();
+    }
+    return channel.size();
+  }
+
+  /**
+   * Builds a partial index from the given chunk of lines of the given source.
+   * The entity ids of the partial index start at 1.
+   *
+   * @param chunk
+   *        The chunk to parse, starting at the beginning of a line.
+   * @param source
+   *        The file of the chunk.
+   * @param offset
+   *        The byte offset of the chunk in the file.
+   *
+   * @return The partial index.
+   */
+  protected QGramIndex buildFromChunk(ByteBuffer chunk, EntitySource source,
+      long offset) {
+    QGramIndex partial = new QGramIndex(this.q, this.withSynonyms);
+    partial.entities = new EntityStore(source);
+    parseChunk(chunk, offset, partial::addEntity);
+    return partial;
+  }
+
+  /**
+   * Parses the entities of the given chunk of lines and passes each entity,
+   * with the byte offset of its line, to the given consumer, in the order of
+   * the lines.
+   *
+   * @param chunk
+   *        The chunk to parse, starting at the beginning of a line.
+   * @param offset
+   *        The byte offset of the chunk.
+   * @param consumer
+   *        The consumer of the entities.
+   */
+  protected static void parseChunk(ByteBuffer chunk, long offset,
+      ObjLongConsumer<Entity> consumer) {
+    byte[] line = new byte[256];
+    int lineLength = 0;
+    int lineStart = chunk.position();
+
+    while (chunk.hasRemaining()) {
+      byte b = chunk.get();
+      if (b != '\n') {
+        if (lineLength == line.length) {
+          line = Arrays.copyOf(line, 2 * line.length);
+        }
+        line[lineLength++] = b;
+      }
+      if (b == '\n' || !chunk.hasRemaining()) {
+        // Strip the carriage return of Windows line endings.
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+          lineLength--;
+        }
+        consumer.accept(parseEntity(
+            new String(line, 0, lineLength, StandardCharsets.UTF_8)),
+            offset + lineStart);
+        lineLength = 0;
+        lineStart = chunk.position();
+      }
+    }
+  }
+
+  /**
+   * Parses an entity from the given line (see ES5).
+   *
+   * @param line
+   *        The line to parse.
+   *
+   * @return The parsed entity.
+   */
+  protected static Entity parseEntity(String line) {
+    // Split the line and fetch the several fields.
+    String[] parts = line.split("\t", -1);
+
+    String name = parts[0];
+    int score = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+    String description = parts.length > 2 ? parts[2] : null;
+    String wikipediaUrl = parts.length > 3 ? parts[3] : null;
+    String wikidataId = parts.length > 4 ? parts[4] : null;
+    List<String> synonyms = new ArrayList<>();
+    if (parts.length > 5 && !parts[5].isEmpty()) {
+      synonyms.addAll(Arrays.asList(parts[5].split(";")));
+    }
+
+    return new Entity(name, score, description, wikipediaUrl, wikidataId,
+        synonyms);
+  }
+
+  /**
+   * Adds the given entity to the index. The entity gets the next free id, its
+   * name and (with synonyms) its synonyms get the next free variant ids.
+   *
+   * @param entity
+   *        The entity to add.
+   *
+   * @return The id of the entity.
+   */
+  protected int addEntity(Entity entity) {
+    return addEntity(entity, -1);
+  }
+
+  /**
+   * Adds the given entity, read from the line at the given byte offset of the
+   * source of the entities, to the index (see {@link #addEntity(Entity)}).
+   * Only the fields needed to answer queries are kept, the other fields are
+   * read from the source on demand (see {@link EntityStore}).
+   *
+   * @param entity
+   *        The entity to add.
+   * @param offset
+   *        The byte offset of the line; -1 to keep all fields.
+   *
+   * @return The id of the entity.
+   */
+  protected int addEntity(Entity entity, long offset) {
+    int entityId = this.entities.size() + 1; // ids are 1-based.
+    addVariants(entityId, entity);
+
+    // Cache the entity.
+    if (!this.entities.isEmpty() && entity.score
+        > this.entities.getScore(this.entities.size() - 1)) {
+      this.scoresDescending = false;
+    }
+    if (offset >= 0) {
+      ((EntityStore) this.entities).add(entity, offset);
+    } else {
+      this.entities.add(entity);
+    }
+    this.version = VERSIONS.incrementAndGet();
+    return entityId;
+  }
+
+  /**
+   * Adds the name and (with synonyms) the synonyms of the given entity to the
+   * index, as the next variants.
+   *
+   * @param entityId
+   *        The id of the entity.
+   * @param entity
+   *        The entity.
+   */
+  protected void addVariants(int entityId, Entity entity) {
+    // Compute the q-grams of the entity name and add them to the index.
+    addVariant(entityId, -1, entity.name);
+
+    if (this.withSynonyms) {
+      // Compute the q-grams of the synonyms and add them to the index, each
+      // synonym as a variant of its own.
+      for (int i = 0; i < entity.synonyms.size(); i++) {
+        addVariant(entityId, i, entity.synonyms.get(i));
+      }
+    }
+  }
+
+  /**
+   * Adds a new variant of an entity and the q-grams of the variant to the
+   * index.
+   *
+   * @param entityId
+   *        The id of the entity.
+   * @param synonym
+   *        The index of the synonym; -1 for the name.
+   * @param variant
+   *        The name or synonym.
+   */
+  protected void addVariant(int entityId, int synonym, String variant) {
+    int variantId = newVariant(entityId, synonym,
+        normalize(variant).length());
+    List<String> qGrams = computeQGrams(variant);
+    for (int i = 0; i < qGrams.size(); i++) {
+      addPosting(qGrams.get(i), variantId, i);
+    }
+  }
+
+  /**
+   * Adds a new variant of an entity, without its q-grams.
+   *
+   * @param entityId
+   *        The id of the entity.
+   * @param synonym
+   *        The index of the synonym; -1 for the name.
+   * @param length
+   *        The length of the normalized variant.
+   *
+   * @return The id of the variant (1-based).
+   */
+  protected int newVariant(int entityId, int synonym, int length) {
+    if (this.numVariants == this.variantEntityIds.length) {
+      int capacity = Math.max(2 * this.numVariants, 16);
+      this.variantEntityIds = Arrays.copyOf(this.variantEntityIds, capacity);
+      this.variantSynonyms = Arrays.copyOf(this.variantSynonyms, capacity);
+      this.variantLengths = Arrays.copyOf(this.variantLengths, capacity);
+    }
+    this.variantEntityIds[this.numVariants] = entityId;
+    this.variantSynonyms[this.numVariants] = synonym;
+    this.variantLengths[this.numVariants] = length;
+    this.numVariants++;
+    return this.numVariants;
+  }
+
+  /**
+   * Adds an occurrence of the given q-gram in the given variant to the index.
+   *
+   * @param qGram
+   *        The q-gram.
+   * @param variantId
+   *        The id of the variant, which must not be smaller than the ids
+   *        already contained in the inverted list of the q-gram.
+   * @param position
+   *        The position of the q-gram in the (padded) variant.
+   */
+  protected void addPosting(String qGram, int variantId, int position) {
+    getList(qGram).add(variantId, position);
+  }
+
+  /**
+   * Returns the inverted list of the given q-gram to add postings to, which
+   * is created if there is none.
+   *
+   * @param qGram
+   *        The q-gram.
+   *
+   * @return The inverted list.
+   */
+  protected CompressedList getList(String qGram) {
+    List<IntIntPair> il = this.invertedLists.get(qGram);
+    if (il == null) {
+      il = new CompressedList();
+      this.invertedLists.put(qGram, il);
+    }
+    return (CompressedList) il;
+  }
+
+  /**
+   * Shrinks the inverted lists and the entity columns to their sizes, after
+   * the index was built.
+   */
+  protected void trimLists() {
+    for (List<IntIntPair> il : this.invertedLists.values()) {
+      if (il instanceof CompressedList) {
+        ((CompressedList) il).trimToSize();
+      }
+    }
+    if (this.entities instanceof EntityStore) {
+      ((EntityStore) this.entities).trimToSize();
+    }
+  }
+
+  /**
+   * Appends the given index to this index. The entity and variant ids of the
+   * given index are shifted by the number of entities and variants in this
+   * index.
+   *
+   * @param other
+   *        The index to append.
+   */
+  protected void appendIndex(QGramIndex other) {
+    int offset = this.numVariants;
+    for (Map.Entry<String, List<IntIntPair>> entry
+        : other.invertedLists.entrySet()) {
+      getList(entry.getKey()).addAll(entry.getValue(), offset);
     }
+    for (int i = 0; i < other.numVariants; i++) {
+      newVariant(other.variantEntityIds[i] + this.entities.size(),
+          other.variantSynonyms[i], other.variantLengths[i]);
+    }
+    if (!other.scoresDescending || !this.entities.isEmpty()
+        && !other.entities.isEmpty() && other.entities.getScore(0)
+        > this.entities.getScore(this.entities.size() - 1)) {
+      this.scoresDescending = false;
+    }
+    this.entities.addAll(other.entities);
+    this.version = VERSIONS.incrementAndGet();
   }
 
   // ==========================================================================
@@ -218,116 +846,1100 @@ public class QGramIndex {
     return result;
   }
 
-  // ==========================================================================
-  // Exercise 1.3
-
   /**
-   * Finds all entities y with PED(x, y) <= delta for a given integer delta and
-   * a given prefix x.
+   * Returns the variants in the given inverted list of a q-gram that contain
+   * the q-gram at a position differing by at most the given window from the
+   * given position, as pairs (variantId, 1).
    *
-   * @param prefix
-   *        The prefix.
-   * @param delta
-   *        The value of delta.
-   * @return A pair (matches, numPEDComputations), where 'matches' is the list
-   *         of matching entities and 'numPEDComputations' is the number of PED
-   *         computations needed to compute the matches.
+   * @param list
+   *        The inverted list, with pairs (variantId, position).
+   * @param position
+   *        The position of the q-gram in the prefix.
+   * @param window
+   *        The maximum difference of the positions.
+   *
+   * @return The list of pairs (variantId, 1), sorted by id.
    */
-  protected ObjectIntPair<List<Entity>> findMatches(String prefix, int delta) {
-    List<Entity> matches = new ArrayList<>();
-    int numPedComputations = 0;
+  protected static List<IntIntPair> filterPositions(List<IntIntPair> list,
+      int position, int window) {
+    return filterPositions(list, position, window, 0, Integer.MAX_VALUE,
+        null);
+  }
 
+  /**
+   * Returns the variants with ids in the given range in the given inverted
+   * list of a q-gram that contain the q-gram at a position differing by at
+   * most the given window from the given position, as pairs (variantId, 1).
+   *
+   * @param list
+   *        The inverted list, with pairs (variantId, position).
+   * @param position
+   *        The position of the q-gram in the prefix.
+   * @param window
+   *        The maximum difference of the positions.
+   * @param fromId
+   *        The smallest variant id (inclusive).
+   * @param toId
+   *        The largest variant id (exclusive).
+   * @param stats
+   *        The statistics of the query, to add the number of scanned pairs
+   *        to; may be null.
+   *
+   * @return The list of pairs (variantId, 1), sorted by id.
+   */
+  protected static List<IntIntPair> filterPositions(List<IntIntPair> list,
+      int position, int window, int fromId, int toId, QueryStats stats) {
+    List<IntIntPair> result = new ArrayList<>();
+    int numScanned = 0;
+    if (list instanceof CompressedList) {
+      // Decode the list pair by pair, without creating the pairs.
+      CompressedList.Cursor cursor = ((CompressedList) list).cursor();
+      int lastId = -1;
+      boolean found = cursor.skipTo(fromId);
+      while (found && cursor.id < toId) {
+        numScanned++;
+        if (Math.abs(cursor.position - position) <= window
+            && cursor.id != lastId) {
+          result.add(new IntIntPair(cursor.id, 1));
+          lastId = cursor.id;
+        }
+        found = cursor.next();
+      }
+    } else {
+      for (int i = lowerBound(list, 0, fromId); i < list.size(); i++) {
+        IntIntPair pair = list.get(i);
+        if (pair.first >= toId) {
+          break;
+        }
+        numScanned++;
+        // Count each variant only once, even if it contains the q-gram at
+        // several matching positions.
+        if (Math.abs(pair.second - position) <= window && (result.isEmpty()
+            || result.get(result.size() - 1).first != pair.first)) {
+          result.add(new IntIntPair(pair.first, 1));
+        }
+      }
+    }
+    if (stats != null) {
+      stats.numPostings += numScanned;
+    }
+    return result;
+  }
+
+  /**
+   * Finds the first pair with at least the given id in the given inverted
+   * list, by a binary search.
+   *
+   * @param list
+   *        The inverted list, sorted by id.
+   * @param start
+   *        The index to start the search at.
+   * @param id
+   *        The id.
+   *
+   * @return The index of the pair; the size of the list if there is none.
+   */
+  protected static int lowerBound(List<IntIntPair> list, int start, int id) {
+    int low = start;
+    int high = list.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (list.get(mid).first < id) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Computes the variants that contain at least the given number of the given
+   * q-grams at a position differing by at most the given window from their
+   * position in the prefix, like merging the filtered inverted lists of all
+   * q-grams would, but without scanning the longest lists (DivideSkip).
+   *
+   * <p>The L longest lists are only probed: a variant in at least threshold
+   * lists is in at least threshold - L of the other lists. So the other lists
+   * are merged, and only the variants in at least threshold - L of them are
+   * looked up in the long lists, in the order of their ids, by skipping to
+   * them. L is at most threshold - 1 and is chosen as in DivideSkip, so that
+   * the number of lookups does not exceed the number of postings saved.
+   *
+   * @param qGrams
+   *        The q-grams of the prefix, in the order of their positions.
+   * @param window
+   *        The maximum difference of the positions.
+   * @param threshold
+   *        The minimum number of q-grams.
+   * @param fromId
+   *        The smallest variant id (inclusive).
+   * @param toId
+   *        The largest variant id (exclusive).
+   *
+   * @return The list of pairs (variantId, frequency) of the variants in the
+   *         given range with a frequency of at least the threshold, sorted by
+   *         id. A frequency is only counted up to the threshold when probing
+   *         the long lists.
+   */
+  protected List<IntIntPair> divideSkip(List<String> qGrams, int window,
+      int threshold, int fromId, int toId) {
+    return divideSkip(qGrams, window, threshold, fromId, toId,
+        new QueryStats());
+  }
+
+  /**
+   * Computes the candidates like {@link #divideSkip(List, int, int, int,
+   * int)} and adds the sizes and times of the fetch, filter and merge phases
+   * to the given statistics.
+   *
+   * @param qGrams
+   *        The q-grams of the prefix, in the order of their positions.
+   * @param window
+   *        The maximum difference of the positions.
+   * @param threshold
+   *        The minimum number of q-grams.
+   * @param fromId
+   *        The smallest variant id (inclusive).
+   * @param toId
+   *        The largest variant id (exclusive).
+   * @param stats
+   *        The statistics of the query.
+   *
+   * @return The candidates (see {@link #divideSkip(List, int, int, int,
+   *         int)}).
+   */
+  protected List<IntIntPair> divideSkip(List<String> qGrams, int window,
+      int threshold, int fromId, int toId, QueryStats stats) {
+    long start = System.nanoTime();
+    // The inverted lists with the positions of their q-grams, longest first.
+    List<ObjectIntPair<List<IntIntPair>>> lists = new ArrayList<>();
+    for (int i = 0; i < qGrams.size(); i++) {
+      List<IntIntPair> il = this.invertedLists.get(qGrams.get(i));
+      if (il != null) {
+        lists.add(new ObjectIntPair<>(il, i));
+      }
+    }
+    lists.sort((x, y) -> Integer.compare(y.first.size(), x.first.size()));
+    stats.numLists += lists.size();
+
+    int numLong = 0;
+    if (threshold > 1 && !lists.isEmpty()) {
+      double log = Math.log(lists.get(0).first.size()) / Math.log(2);
+      numLong = Math.min(lists.size(),
+          (int) (threshold / (DIVIDE_SKIP_MU * log + 1)));
+      numLong = Math.min(numLong, threshold - 1);
+    }
+
+    start = stats.endPhase(QueryStats.FETCH, start);
+
+    List<List<IntIntPair>> shortLists = new ArrayList<>();
+    for (int i = numLong; i < lists.size(); i++) {
+      shortLists.add(filterPositions(lists.get(i).first, lists.get(i).second,
+          window, fromId, toId, stats));
+    }
+    start = stats.endPhase(QueryStats.FILTER, start);
+    List<IntIntPair> candidates = mergeLists(shortLists);
+    if (numLong == 0) {
+      stats.endPhase(QueryStats.MERGE, start);
+      return candidates;
+    }
+
+    // Probe the long lists for the candidates that can still pass.
+    CompressedList.Cursor[] cursors = new CompressedList.Cursor[numLong];
+    int[] starts = new int[numLong];
+    for (int j = 0; j < numLong; j++) {
+      if (lists.get(j).first instanceof CompressedList) {
+        cursors[j] = ((CompressedList) lists.get(j).first).cursor();
+      }
+    }
+    List<IntIntPair> result = new ArrayList<>();
+    for (IntIntPair candidate : candidates) {
+      int freq = candidate.second;
+      for (int j = 0; j < numLong && freq < threshold
+          && freq + numLong - j >= threshold; j++) {
+        List<IntIntPair> list = lists.get(j).first;
+        int position = lists.get(j).second;
+        if (cursors[j] != null) {
+          CompressedList.Cursor cursor = cursors[j];
+          boolean found = cursor.skipTo(candidate.first);
+          while (found && cursor.id == candidate.first) {
+            if (Math.abs(cursor.position - position) <= window) {
+              freq++;
+              break;
+            }
+            found = cursor.next();
+          }
+          continue;
+        }
+        starts[j] = lowerBound(list, starts[j], candidate.first);
+        for (int i = starts[j]; i < list.size()
+            && list.get(i).first == candidate.first; i++) {
+          if (Math.abs(list.get(i).second - position) <= window) {
+            freq++;
+            break;
+          }
+        }
+      }
+      if (freq >= threshold) {
+        result.add(new IntIntPair(candidate.first, freq));
+      }
+    }
+    stats.endPhase(QueryStats.MERGE, start);
+    return result;
+  }
+
+  // ==========================================================================
+  // Exercise 1.3
+
+  /**
+   * Finds all entities y with PED(x, y) <= delta for a given integer delta and
+   * a given prefix x.
+   *
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of matches and 'numPEDComputations' is the number of PED
+   *         computations needed to compute the matches.
+   */
+  protected ObjectIntPair<List<Match>> findMatches(String prefix, int delta) {
+    return findMatches(prefix, delta, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta for a given integer
+   * delta and a given prefix x, ranked by (PED, s). The best matches are kept
+   * in a bounded heap; a candidate that cannot make it into the top-k is
+   * neither added to the result nor, if its score is too low, verified.
+   *
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches to return.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of the k best matches and 'numPEDComputations' is the number of
+   *         PED computations needed to compute the matches.
+   */
+  protected ObjectIntPair<List<Match>> findMatches(String prefix, int delta,
+      int k) {
+    return findMatches(null, prefix, delta, k);
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta for a given integer
+   * delta and a given prefix x, ranked by (PED, s), as part of the given
+   * search-as-you-type session. Hot prefixes (see {@link #precomputeMatches})
+   * and queries with delta = 0 and short prefixes (see {@link PrefixTrie})
+   * are answered without any PED computation, if k is small enough. If x
+   * extends the prefix of the last query of
+   * the session, only the inverted lists of the new q-grams are merged into
+   * the candidates of the last query (provided they were counted for a delta
+   * at least as large), and the PED of a candidate verified by the last query
+   * is computed by adding one row per new character to its last PED row.
+   * Otherwise, the matches are computed from scratch.
+   *
+   * <p>Before the PED of a variant y is computed, it must pass three filters:
+   * |y| >= |x| - delta (length filter), and x and y must have at least
+   * |x| - q * delta q-grams in common (count filter), where a q-gram only
+   * counts if its positions in x and y differ by at most delta (position
+   * filter).
+   *
+   * @param session
+   *        The session; null to compute the matches from scratch without
+   *        keeping any state.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches to return.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of the k best matches and 'numPEDComputations' is the number of
+   *         PED computations needed to compute the matches.
+   */
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k) {
+    QueryStats stats = new QueryStats();
+    ObjectIntPair<List<Match>> result = findMatches(session, prefix, delta, k,
+        stats);
+    this.histograms.record(stats);
+    return result;
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta like
+   * {@link #findMatches(QuerySession, String, int, int)}, and adds the
+   * statistics of the query to the given statistics instead of the
+   * histograms of this index. Indexes made of other indexes override this
+   * method and query their indexes with it.
+   *
+   * @param session
+   *        The session; null to compute the matches from scratch without
+   *        keeping any state.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches to return.
+   * @param stats
+   *        The statistics of the query.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of the k best matches and 'numPEDComputations' is the number of
+   *         PED computations needed to compute the matches.
+   */
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k, QueryStats stats) {
     // Normalize the prefix.
     prefix = normalize(prefix);
-    int threshold = prefix.length() - (this.q * delta);
+
+    // Answer hot prefixes from their precomputed matches.
+    long phaseStart = System.nanoTime();
+    int[] precomputed = k <= PRECOMPUTED_K
+        && this.precomputedVersion == this.version
+        ? this.precomputedMatches.get(delta + ":" + prefix) : null;
+    if (precomputed != null) {
+      if (session != null) {
+        session.reset();
+      }
+      List<Match> matches = new ArrayList<>();
+      for (int i = 0; i < precomputed.length && matches.size() < k; i += 4) {
+        matches.add(new Match(precomputed[i], precomputed[i + 1],
+            precomputed[i + 2], precomputed[i + 3]));
+      }
+      stats.numMatches += matches.size();
+      stats.endPhase(QueryStats.FETCH, phaseStart);
+      return new ObjectIntPair<>(matches, 0);
+    }
+
+    // Answer short exact-prefix queries from the prefix trie.
+    if (delta == 0 && prefix.length() > 0
+        && prefix.length() <= PREFIX_TRIE_DEPTH && k <= PRECOMPUTED_K) {
+      if (session != null) {
+        session.reset();
+      }
+      List<Match> matches = getPrefixTrie().findMatches(prefix, k);
+      stats.numMatches += matches.size();
+      stats.endPhase(QueryStats.FETCH, phaseStart);
+      return new ObjectIntPair<>(matches, 0);
+    }
+
+    // The state of a session is only valid for the index it was computed on.
+    if (session != null && session.version != this.version) {
+      session.reset();
+      session.version = this.version;
+    }
+
+    TopKHeap topK = new TopKHeap(k);
+    int numPedComputations = 0;
 
     if (prefix.length() > 0) {
-      // Fetch all the inverted lists for each q-gram of the prefix.
-      List<List<IntIntPair>> lists = new ArrayList<>();
-      for (String qGram : computeQGrams(prefix)) {
-        if (this.invertedLists.containsKey(qGram)) {
-          lists.add(this.invertedLists.get(qGram));
+      List<String> qGrams = computeQGrams(prefix);
+      stats.numQGrams += qGrams.size();
+      phaseStart = stats.endPhase(QueryStats.FETCH, phaseStart);
+      if (session != null) {
+        // In a session, the positions are checked for delta + 1, so that the
+        // candidates can be reused when delta grows by one with the next
+        // prefix.
+        int window = delta + 1;
+        List<List<IntIntPair>> lists = new ArrayList<>();
+        int start = 0;
+        if (session.isExtension(prefix) && delta <= session.delta) {
+          // Start with the candidates of the last query and fetch only the
+          // inverted lists of the new q-grams (the q-grams of the last prefix
+          // are a prefix of the q-grams of an extension).
+          lists.add(session.candidates);
+          start = session.prefix.length();
+          window = Math.min(window, session.delta);
+        }
+
+        // Fetch all the inverted lists for each q-gram of the prefix and keep
+        // the variants that contain the q-gram at a matching position.
+        for (int i = start; i < qGrams.size(); i++) {
+          List<IntIntPair> il = this.invertedLists.get(qGrams.get(i));
+          if (il != null) {
+            phaseStart = stats.endPhase(QueryStats.FETCH, phaseStart);
+            lists.add(filterPositions(il, i, window));
+            stats.numLists++;
+            stats.numPostings += il.size();
+            phaseStart = stats.endPhase(QueryStats.FILTER, phaseStart);
+          }
+        }
+        phaseStart = stats.endPhase(QueryStats.FETCH, phaseStart);
+        List<IntIntPair> candidates = mergeLists(lists);
+        phaseStart = stats.endPhase(QueryStats.MERGE, phaseStart);
+        int threshold = prefix.length() - (this.q * delta);
+        for (IntIntPair candidate : candidates) {
+          if (candidate.second >= threshold) {
+            stats.numCandidates++;
+          }
+        }
+        numPedComputations += verifyCandidates(session, null, prefix, delta,
+            delta, candidates, 0, candidates.size(), topK, null);
+        session.finish(prefix, window, candidates);
+        stats.endPhase(QueryStats.VERIFY, phaseStart);
+      } else {
+        // The PEDs are computed bit-parallel.
+        BitParallelPed verifier = prefix.length() <= BitParallelPed.MAX_LENGTH
+            ? new BitParallelPed(prefix) : null;
+
+        // The candidates are first computed and verified with the filters for
+        // PED 0 (the start level), and again with the filters for the next
+        // level only while fewer than k matches with a PED up to the start
+        // level were found, up to delta (progressive search). The top-k are
+        // the same as with delta, since the matches with a PED up to the start
+        // level rank first, and the names are still verified with delta (see
+        // verifyCandidates). The heap is kept across the levels, and a level
+        // neither verifies a variant nor offers an entity again. Queries for
+        // all matches start at delta.
+        boolean limited = k < this.entities.size();
+        int startLevel = this.progressive && limited ? 0 : delta;
+        VerifiedVariants verified = startLevel < delta
+            ? new VerifiedVariants() : null;
+        while (true) {
+          numPedComputations += findMatchesAtLevel(verifier, prefix, qGrams,
+              delta, startLevel, limited, topK, verified, stats);
+          if (startLevel >= delta
+              || topK.pedBound(Integer.MIN_VALUE, delta) < startLevel) {
+            break;
+          }
+          startLevel++;
+          verified.endLevel();
         }
       }
+    }
 
-      for (IntIntPair pair : mergeLists(lists)) {
-        int id = pair.first;
-        int freq = pair.second;
-        Entity entity = this.entities.get(id - 1); // ids are 1-based.
+    // Create the result from the top-k matches (sorted by (PED, s)).
+    phaseStart = System.nanoTime();
+    int numMatches = topK.sort();
+    List<Match> matches = new ArrayList<>(numMatches);
+    for (int i = 0; i < numMatches; i++) {
+      matches.add(new Match(topK.ids[i], topK.peds[i], topK.synonyms[i],
+          topK.scores[i]));
+    }
+    stats.numPedComputations += numPedComputations;
+    stats.numMatches += numMatches;
+    stats.endPhase(QueryStats.RANK, phaseStart);
 
-        // Compute the PED for all entities where comm(x,y) >= |x| - q * delta.
-        if (freq >= threshold) {
-          // Compute the PED to the name of the entity.
-          int ped = prefixEditDistance(prefix, normalize(entity.name), delta);
-          numPedComputations++;
+    return new ObjectIntPair<>(matches, numPedComputations);
+  }
+
+  /**
+   * Computes and verifies the candidates of a query without a session (see
+   * {@link #findMatches(QuerySession, String, int, int)}) that pass the
+   * filters for the given PED (the level), and offers the matches to the
+   * given heap.
+   *
+   * <p>If the ids are in descending order of the scores and the number of
+   * matches is limited, the candidates are computed for growing ranges of
+   * variant ids, and the search stops once no later entity can make it into
+   * the top-k. An entity can only do so with a smaller PED than the worst of
+   * the top-k, since its score is not larger, so that the filters of the
+   * later ranges are computed for that smaller PED. (In a progressive search,
+   * the top-k may already hold later entities, found by an earlier level, so
+   * the bound is computed for the score and id of the first later entity.)
+   *
+   * @param verifier
+   *        The bit-parallel verifier of the prefix; may be null.
+   * @param prefix
+   *        The normalized prefix.
+   * @param qGrams
+   *        The q-grams of the prefix.
+   * @param delta
+   *        The value of delta.
+   * @param level
+   *        The level, at most delta.
+   * @param limited
+   *        True if the heap keeps fewer matches than there are entities.
+   * @param topK
+   *        The heap to offer the matches to, which may hold the matches of
+   *        the earlier levels.
+   * @param verified
+   *        The records of the earlier levels, which this level adds to; null
+   *        if there are no levels (see {@link #verifyCandidates}).
+   * @param stats
+   *        The statistics of the query.
+   *
+   * @return The number of PED computations.
+   */
+  protected int findMatchesAtLevel(BitParallelPed verifier, String prefix,
+      List<String> qGrams, int delta, int level, boolean limited,
+      TopKHeap topK, VerifiedVariants verified, QueryStats stats) {
+    int numPedComputations = 0;
+    int maxLevel = level;
+    int fromId = 1;
+    int rangeSize = this.scoresDescending && limited ? FIRST_RANGE_SIZE
+        : Integer.MAX_VALUE;
+    while (true) {
+      int toId = (int) Math.min((long) fromId + rangeSize, Integer.MAX_VALUE);
+      // Do not split the variants of an entity.
+      while (toId <= this.numVariants && this.variantEntityIds[toId - 1]
+          == this.variantEntityIds[toId - 2]) {
+        toId++;
+      }
+
+      // Only the candidates that pass the count filter are needed, so the
+      // longest lists are only probed.
+      List<IntIntPair> candidates = divideSkip(qGrams, level,
+          prefix.length() - (this.q * level), fromId, toId, stats);
+      stats.numCandidates += candidates.size();
+      long start = System.nanoTime();
+      if (candidates.size() >= PARALLEL_VERIFICATION_THRESHOLD) {
+        numPedComputations += verifyCandidatesInParallel(verifier, prefix,
+            delta, level, candidates, topK, verified);
+      } else {
+        numPedComputations += verifyCandidates(null, verifier, prefix, delta,
+            level, candidates, 0, candidates.size(), topK, verified);
+      }
+      stats.endPhase(QueryStats.VERIFY, start);
+
+      if (toId > this.numVariants) {
+        return numPedComputations;
+      }
+      fromId = toId;
+      rangeSize *= 2;
+      // The largest PED of a later entity that can make it into the top-k
+      // (its score is not larger, and its id not smaller, than those of the
+      // first later entity).
+      int nextId = this.variantEntityIds[fromId - 1];
+      level = Math.min(maxLevel, topK.pedBound(nextId,
+          this.entities.getScore(nextId - 1), delta));
+      if (level < 0) {
+        return numPedComputations;
+      }
+    }
+  }
+
+  /**
+   * Verifies the given range of candidates of a query (see
+   * {@link #findMatches(QuerySession, String, int, int)}) and offers the
+   * matches to the given heap. The range must not split the variants of an
+   * entity.
+   *
+   * <p>In a progressive search, the given records of the earlier levels tell
+   * which PEDs are known and which entities were offered already. A match of
+   * a synonym with a PED above the level is not offered before the last
+   * level, since a synonym that only passes the filters of a later level may
+   * match better.
+   *
+   * @param session
+   *        The session; may be null.
+   * @param verifier
+   *        The bit-parallel verifier of the prefix; may be null.
+   * @param prefix
+   *        The normalized prefix.
+   * @param delta
+   *        The value of delta.
+   * @param level
+   *        The largest PED of a match that can still make it into the top-k;
+   *        the candidates passed the filters for this PED.
+   * @param candidates
+   *        The candidates, as pairs (variantId, frequency), sorted by id.
+   * @param from
+   *        The index of the first candidate (inclusive).
+   * @param to
+   *        The index of the last candidate (exclusive).
+   * @param topK
+   *        The heap to offer the matches to.
+   * @param verified
+   *        The records of the earlier levels of a progressive search, which
+   *        this level adds to; null if there are no levels.
+   *
+   * @return The number of PED computations.
+   */
+  protected int verifyCandidates(QuerySession session,
+      BitParallelPed verifier, String prefix, int delta, int level,
+      List<IntIntPair> candidates, int from, int to, TopKHeap topK,
+      VerifiedVariants verified) {
+    int numPedComputations = 0;
+    int threshold = prefix.length() - (this.q * level);
+    int minLength = prefix.length() - level;
+
+    // The variants of an entity are adjacent in the candidates, the name
+    // first. The state of the entity of the current variant:
+    int entityId = -1;
+    int nameVariantId = -1;
+    int score = 0;
+    int bound = -1;
+    int bestMatchingSynonym = -1;
+    int bestPed = Integer.MAX_VALUE;
+    boolean nameSeen = false;
+    List<String> qGrams = null;
+
+    // One more iteration after the last candidate takes the best matching
+    // synonym of the last entity.
+    for (int i = from; i <= to; i++) {
+      int variantId = i < to ? candidates.get(i).first : 0;
+
+      // Compute the PED for all variants where comm(x,y) >= |x| - q * delta
+      // and |y| >= |x| - delta. Since the q-grams are counted per variant,
+      // a variant with PED <= delta always passes, regardless of the other
+      // variants.
+      if (i < to && (candidates.get(i).second < threshold
+          || this.variantLengths[variantId - 1] < minLength)) {
+        continue;
+      }
 
-          if (ped <= delta) {
-            entity.ped = ped;
-            entity.matchedSynonym = null;
-            matches.add(entity);
-            continue;
+      int id = i < to ? this.variantEntityIds[variantId - 1] : -1;
+      if (id != entityId) {
+        // Take the best matching synonym of the previous entity, unless a
+        // later level may find a better one.
+        if (bestMatchingSynonym != -1 && (bestPed <= level
+            || level == delta)) {
+          topK.offer(entityId, bestPed, score, bestMatchingSynonym);
+          if (verified != null) {
+            verified.addEntity(entityId);
           }
+        }
+        if (i == to) {
+          break;
+        }
+        entityId = id;
+        nameVariantId = variantId - this.variantSynonyms[variantId - 1] - 1;
+        score = this.entities.getScore(id - 1);
+        bestMatchingSynonym = -1;
+        bestPed = Integer.MAX_VALUE;
+        nameSeen = false;
 
-          if (this.withSynonyms) {
-            // Compute the best matching synonym (the synonym with lowest PED).
-            String bestMatchingSynonym = null;
-            int bestPed = Integer.MAX_VALUE;
-
-            // Iterate through all synonyms and compute PED.
-            for (String syn : entity.synonyms) {
-              int synPed = prefixEditDistance(prefix, normalize(syn), delta);
-              numPedComputations++;
-
-              // Check if the synonym is the "best" matching synonym.
-              if (synPed <= delta && synPed < bestPed) {
-                bestPed = synPed;
-                bestMatchingSynonym = syn;
-              }
-            }
+        // Skip the entity if an earlier level offered it, or if it cannot
+        // make it into the top-k anymore.
+        if (verified != null && verified.isOffered(id)) {
+          bound = -1;
+          continue;
+        }
+        bound = topK.pedBound(id, score, delta);
+        if (bound < 0 && this.scoresDescending) {
+          // Neither can any later entity.
+          break;
+        }
+      }
+      if (bound < 0) {
+        continue;
+      }
 
-            // Take the best matching synonym.
-            if (bestMatchingSynonym != null) {
-              entity.matchedSynonym = bestMatchingSynonym;
-              entity.ped = bestPed;
-              matches.add(entity);
-            }
+      int synonym = this.variantSynonyms[variantId - 1];
+      if (synonym != -1 && !nameSeen && level < delta) {
+        // The name is not a candidate of this level, but may still match
+        // with a PED above the level, and then takes precedence over the
+        // synonyms. Its PED is only computed if it passes the filters for
+        // delta, like without levels.
+        nameSeen = true;
+        String name = normalize(this.entities.getString(EntityList.NAME,
+            id - 1));
+        if (qGrams == null) {
+          qGrams = computeQGrams(prefix);
+        }
+        int ped = verified != null ? verified.getPed(nameVariantId) : -1;
+        if (ped < 0 && passesFilters(prefix, qGrams, name, delta)) {
+          ped = prefixEditDistance(session, verifier, prefix, nameVariantId,
+              name, delta);
+          numPedComputations++;
+          if (verified != null) {
+            verified.addVariant(nameVariantId, ped);
           }
         }
+        if (ped >= 0 && ped <= delta) {
+          topK.offer(id, ped, score, -1);
+          if (verified != null) {
+            verified.addEntity(id);
+          }
+          bound = -1; // Skip the synonyms.
+          continue;
+        }
+      }
+      if (synonym == -1) {
+        // Compute the PED to the name of the entity. This needs the full
+        // delta, since a matching name takes precedence over the
+        // synonyms.
+        int ped = verified != null ? verified.getPed(variantId) : -1;
+        if (ped < 0) {
+          ped = prefixEditDistance(session, verifier, prefix, variantId,
+              normalize(this.entities.getString(EntityList.NAME, id - 1)),
+              delta);
+          numPedComputations++;
+          if (verified != null) {
+            verified.addVariant(variantId, ped);
+          }
+        }
+        nameSeen = true;
+
+        if (ped <= delta) {
+          topK.offer(id, ped, score, -1);
+          if (verified != null) {
+            verified.addEntity(id);
+          }
+          bound = -1; // Skip the synonyms.
+        }
+        continue;
+      }
+
+      // Check if the synonym is the "best" matching synonym (the synonym
+      // with lowest PED). A PED computed by an earlier level with a larger
+      // bound is still valid for the bound.
+      int synPed = verified != null ? verified.getPed(variantId) : -1;
+      if (synPed < 0) {
+        synPed = prefixEditDistance(session, verifier, prefix, variantId,
+            normalize(this.entities.getVariant(id - 1, synonym)), bound);
+        numPedComputations++;
+        if (verified != null) {
+          verified.addVariant(variantId, synPed);
+        }
       }
+      if (synPed <= bound && synPed < bestPed) {
+        bestPed = synPed;
+        bestMatchingSynonym = synonym;
+      }
+    }
+    return numPedComputations;
+  }
 
-      // Rank the matches.
-      matches = rankMatches(matches);
+  /**
+   * Returns whether the given variant passes the filters for the given PED,
+   * like a candidate of {@link #divideSkip(List, int, int, int, int)}: at
+   * least |x| - q * level (and at least one) of the q-grams of the prefix x
+   * occur in the variant y at a position differing by at most the level, and
+   * |y| >= |x| - level.
+   *
+   * @param prefix
+   *        The normalized prefix.
+   * @param qGrams
+   *        The q-grams of the prefix.
+   * @param variant
+   *        The normalized variant.
+   * @param level
+   *        The PED.
+   *
+   * @return True if the variant passes the filters.
+   */
+  protected boolean passesFilters(String prefix, List<String> qGrams,
+      String variant, int level) {
+    if (variant.length() < prefix.length() - level) {
+      return false;
+    }
+    List<String> variantQGrams = computeQGrams(variant);
+    int count = 0;
+    for (int i = 0; i < qGrams.size(); i++) {
+      int to = Math.min(i + level, variantQGrams.size() - 1);
+      for (int j = Math.max(i - level, 0); j <= to; j++) {
+        if (qGrams.get(i).equals(variantQGrams.get(j))) {
+          count++;
+          break;
+        }
+      }
     }
+    return count >= Math.max(prefix.length() - this.q * level, 1);
+  }
 
-    return new ObjectIntPair<>(matches, numPedComputations);
+  /**
+   * Verifies the given candidates of a query without a session like
+   * {@link #verifyCandidates}, split into ranges that are verified in
+   * parallel in the common fork-join pool, each with a heap of its own. The
+   * heaps are merged into the given heap at the end.
+   *
+   * @param verifier
+   *        The bit-parallel verifier of the prefix; may be null.
+   * @param prefix
+   *        The normalized prefix.
+   * @param delta
+   *        The value of delta.
+   * @param level
+   *        The largest PED of a match that can still make it into the top-k.
+   * @param candidates
+   *        The candidates, as pairs (variantId, frequency), sorted by id.
+   * @param topK
+   *        The heap to offer the matches to.
+   * @param verified
+   *        The records of the earlier levels of a progressive search, which
+   *        this level adds to; null if there are no levels.
+   *
+   * @return The number of PED computations.
+   */
+  protected int verifyCandidatesInParallel(BitParallelPed verifier,
+      String prefix, int delta, int level, List<IntIntPair> candidates,
+      TopKHeap topK, VerifiedVariants verified) {
+    int numRanges = Math.max(2, VERIFICATION_RANGES_PER_CORE
+        * ForkJoinPool.commonPool().getParallelism());
+    int[] bounds = new int[numRanges + 1];
+    for (int i = 1; i <= numRanges; i++) {
+      // Move each bound to the first variant of an entity.
+      int bound = Math.max(bounds[i - 1],
+          (int) ((long) candidates.size() * i / numRanges));
+      while (bound > 0 && bound < candidates.size()
+          && this.variantEntityIds[candidates.get(bound).first - 1]
+          == this.variantEntityIds[candidates.get(bound - 1).first - 1]) {
+        bound++;
+      }
+      bounds[i] = bound;
+    }
+
+    // Verify the ranges, the first one in the calling thread.
+    TopKHeap[] heaps = new TopKHeap[numRanges];
+    VerifiedVariants[] forks = new VerifiedVariants[numRanges];
+    List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+    for (int i = 1; i < numRanges; i++) {
+      TopKHeap heap = new TopKHeap(topK.k);
+      heaps[i] = heap;
+      VerifiedVariants fork = verified != null ? verified.fork() : null;
+      forks[i] = fork;
+      int from = bounds[i];
+      int to = bounds[i + 1];
+      tasks.add(ForkJoinPool.commonPool().submit(() -> verifyCandidates(
+          null, verifier, prefix, delta, level, candidates, from, to, heap,
+          fork)));
+    }
+    int numPedComputations = verifyCandidates(null, verifier, prefix, delta,
+        level, candidates, bounds[0], bounds[1], topK, verified);
+    for (int i = 1; i < numRanges; i++) {
+      numPedComputations += tasks.get(i - 1).join();
+      topK.offerAll(heaps[i]);
+      if (verified != null) {
+        verified.addAll(forks[i]);
+      }
+    }
+    return numPedComputations;
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta for each of the given
+   * prefixes, with the results identical to calling
+   * {@link #findMatches(String, int, int)} for each.
+   *
+   * <p>The queries are normalized, deduplicated and sorted, so that a prefix
+   * is directly followed by its extensions, and the sorted queries are split
+   * into contiguous runs which are processed in parallel, one session per run
+   * (see {@link QuerySession}). A query uses the session if the next query
+   * extends it or it extends the last query of the session, so that the
+   * candidates and PED rows of a prefix are reused for its extensions. The
+   * other queries run without a session, which needs fewer candidates.
+   *
+   * @param prefixes
+   *        The prefixes.
+   * @param deltas
+   *        The values of delta, by prefix.
+   * @param k
+   *        The maximum number of matches to return per prefix.
+   * @return The pairs (matches, numPEDComputations), by prefix. Queries that
+   *         are equal after normalization share their result.
+   */
+  public List<ObjectIntPair<List<Match>>> findMatchesBatch(
+      List<String> prefixes, int[] deltas, int k) {
+    // Deduplicate and sort the queries by key "prefix<tab>delta". The prefix
+    // contains no tabs after normalization.
+    TreeMap<String, List<Integer>> queries = new TreeMap<>();
+    for (int i = 0; i < prefixes.size(); i++) {
+      queries.computeIfAbsent(normalize(prefixes.get(i)) + "\t" + deltas[i],
+          key -> new ArrayList<>()).add(i);
+    }
+    List<String> keys = new ArrayList<>(queries.keySet());
+
+    // Process the runs in parallel, the first one in the calling thread.
+    List<ObjectIntPair<List<Match>>> results = new ArrayList<>(
+        Collections.nCopies(prefixes.size(), null));
+    int numRuns = Math.min(keys.size(),
+        BATCH_RUNS_PER_CORE * Runtime.getRuntime().availableProcessors());
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int i = 1; i < numRuns; i++) {
+      List<String> run = keys.subList(keys.size() * i / numRuns,
+          keys.size() * (i + 1) / numRuns);
+      tasks.add(ForkJoinPool.commonPool().submit(
+          () -> findMatchesRun(run, queries, k, results)));
+    }
+    if (numRuns > 0) {
+      findMatchesRun(keys.subList(0, keys.size() / numRuns), queries, k,
+          results);
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    return results;
+  }
+
+  /**
+   * Answers the given run of sorted queries of a batch (see
+   * {@link #findMatchesBatch}).
+   *
+   * @param run
+   *        The keys "prefix<tab>delta" of the queries, sorted.
+   * @param queries
+   *        The indexes of the queries in the batch, by key.
+   * @param k
+   *        The maximum number of matches to return per query.
+   * @param results
+   *        The results of the batch, by index, to fill.
+   */
+  protected void findMatchesRun(List<String> run,
+      Map<String, List<Integer>> queries, int k,
+      List<ObjectIntPair<List<Match>>> results) {
+    QuerySession session = new QuerySession();
+    for (int i = 0; i < run.size(); i++) {
+      String key = run.get(i);
+      String prefix = key.substring(0, key.lastIndexOf('\t'));
+      int delta = Integer.parseInt(key.substring(prefix.length() + 1));
+      boolean extended = i + 1 < run.size() && run.get(i + 1).startsWith(prefix)
+          && run.get(i + 1).charAt(prefix.length()) != '\t';
+      ObjectIntPair<List<Match>> result = findMatches(
+          extended || session.isExtension(prefix) ? session : null, prefix,
+          delta, k);
+      for (int index : queries.get(key)) {
+        results.set(index, result);
+      }
+    }
   }
 
   // ==========================================================================
   // Exercise 1.4
 
   /**
-   * Ranks the given list of entities (PED, s), where PED is the PED value and s
-   * is the popularity score of an entity.
+   * Ranks the given list of matches by (PED, s), where PED is the PED value
+   * and s is the popularity score of an entity. Matches with equal PED and
+   * score are ranked by entity id.
    *
    * @param matches
-   *        The list of entities to rank.
+   *        The list of matches to rank.
    *
-   * @return The list of entities sorted by (PED, s).
+   * @return The list of matches sorted by (PED, s).
    */
-  protected static List<Entity> rankMatches(List<Entity> matches) {
-    // Sort the entities by (ped, s).
-    Collections.sort(matches, new Comparator<Entity>() {
+  protected static List<Match> rankMatches(List<Match> matches) {
+    // Sort the matches by (ped, s).
+    Collections.sort(matches, new Comparator<Match>() {
       @Override
-      public int compare(Entity e1, Entity e2) {
-        if (e1.ped != e2.ped) {
-          return e1.ped - e2.ped;
+      public int compare(Match m1, Match m2) {
+        if (m1.ped != m2.ped) {
+          return m1.ped - m2.ped;
         }
-        return e2.score - e1.score;
+        if (m1.score != m2.score) {
+          return Integer.compare(m2.score, m1.score);
+        }
+        return Integer.compare(m1.entityId, m2.entityId);
       }
     });
     return matches;
   }
 
+  /**
+   * Returns the entity with the given id.
+   *
+   * @param entityId
+   *        The id of the entity (1-based).
+   *
+   * @return The entity.
+   */
+  public Entity getEntity(int entityId) {
+    return this.entities.get(entityId - 1);
+  }
+
+  /**
+   * Returns the synonym that matched in the given match.
+   *
+   * @param match
+   *        The match.
+   *
+   * @return The matched synonym; null if the name of the entity matched.
+   */
+  public String getMatchedSynonym(Match match) {
+    if (match.synonym == -1) {
+      return null;
+    }
+    return getEntity(match.entityId).synonyms.get(match.synonym);
+  }
+
+  /**
+   * Returns the prefix trie of this index. The trie is built on first use and
+   * rebuilt after the index changed.
+   *
+   * @return The prefix trie.
+   */
+  protected PrefixTrie getPrefixTrie() {
+    PrefixTrie trie = this.prefixTrie;
+    if (trie == null || trie.version != this.version) {
+      synchronized (this) {
+        trie = this.prefixTrie;
+        if (trie == null || trie.version != this.version) {
+          trie = new PrefixTrie(this, PREFIX_TRIE_DEPTH, PRECOMPUTED_K);
+          this.prefixTrie = trie;
+        }
+      }
+    }
+    return trie;
+  }
+
+  /**
+   * Returns the word index of this index. The word index is built on first
+   * use and rebuilt after the index changed.
+   *
+   * @return The word index.
+   */
+  protected WordIndex getWordIndex() {
+    WordIndex index = this.wordIndex;
+    if (index == null || index.version != this.version) {
+      synchronized (this) {
+        index = this.wordIndex;
+        if (index == null || index.version != this.version) {
+          index = new WordIndex(this, this.entities.size());
+          this.wordIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Finds the k best entities with a name or synonym that matches each word
+   * of the given multi-word query, in any order, with a distinct word and a
+   * PED of at most delta per word (see {@link WordIndex#findMatches}). Unlike
+   * {@link #findMatches(QuerySession, String, int, int)}, which matches the
+   * normalized query as one prefix against whole names, each query word is
+   * matched against the words of the entities.
+   *
+   * @param query
+   *        The query.
+   * @param delta
+   *        The value of delta, for each word.
+   * @param k
+   *        The maximum number of matches to return.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of the k best matches and 'numPEDComputations' is the number of
+   *         PED computations needed to compute the matches.
+   */
+  public ObjectIntPair<List<Match>> findMultiWordMatches(String query,
+      int delta, int k) {
+    return getWordIndex().findMatches(query, delta, k);
+  }
+
+  /**
+   * Precomputes the best matches of the given hot prefix and delta, so that
+   * {@link #findMatches(QuerySession, String, int, int)} answers them without
+   * touching the inverted lists. The precomputed matches are saved with the
+   * index and dropped when the index changes.
+   *
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   */
+  public synchronized void precomputeMatches(String prefix, int delta) {
+    long version = this.version;
+    prefix = normalize(prefix);
+    List<Match> matches = findMatches(null, prefix, delta, PRECOMPUTED_K).first;
+    int[] precomputed = new int[4 * matches.size()];
+    for (int i = 0; i < matches.size(); i++) {
+      Match match = matches.get(i);
+      precomputed[4 * i] = match.entityId;
+      precomputed[4 * i + 1] = match.ped;
+      precomputed[4 * i + 2] = match.synonym;
+      precomputed[4 * i + 3] = match.score;
+    }
+    Map<String, int[]> precomputedMatches = this.precomputedVersion == version
+        ? new HashMap<>(this.precomputedMatches) : new HashMap<>();
+    precomputedMatches.put(delta + ":" + prefix, precomputed);
+    this.precomputedMatches = precomputedMatches;
+    this.precomputedVersion = version;
+  }
+
   // ==========================================================================
 
   /**
@@ -384,6 +1996,77 @@ public class QGramIndex {
     return minDelta;
   }
 
+  /**
+   * Computes the prefix edit distance PED(x,y), within the given session if it
+   * is not null (see {@link QuerySession#prefixEditDistance}), or else with
+   * the given verifier if it is not null.
+   *
+   * @param session
+   *        The session, may be null.
+   * @param verifier
+   *        The bit-parallel verifier of x, may be null.
+   * @param x
+   *        The normalized prefix.
+   * @param variantId
+   *        The id of the variant y.
+   * @param y
+   *        The normalized name or synonym.
+   * @param delta
+   *        The value of delta.
+   * @return PED(x,y) if it is smaller or equal to the given delta; delta + 1
+   *         otherwise.
+   */
+  protected static int prefixEditDistance(QuerySession session,
+      BitParallelPed verifier, String x, int variantId, String y, int delta) {
+    if (session != null) {
+      return session.prefixEditDistance(x, variantId, y, delta);
+    }
+    if (verifier != null) {
+      return verifier.prefixEditDistance(y, delta);
+    }
+    return prefixEditDistance(x, y, delta);
+  }
+
+  /**
+   * Returns the first row of the prefix edit distance matrix of the empty
+   * string and the given string y, that is, (0, 1, ..., |y|).
+   *
+   * @param y
+   *        The string.
+   * @return The first row of the matrix.
+   */
+  protected static int[] initialPedRow(String y) {
+    int[] row = new int[y.length() + 1];
+    for (int j = 0; j < row.length; j++) {
+      row[j] = j;
+    }
+    return row;
+  }
+
+  /**
+   * Computes the next row of the prefix edit distance matrix of a string x and
+   * a string y, from the last row of the matrix and the character appended to
+   * x. The rows span all |y| + 1 columns, so that they can be extended by any
+   * number of characters.
+   *
+   * @param row
+   *        The last row of the matrix of x and y.
+   * @param c
+   *        The character appended to x.
+   * @param y
+   *        The string y.
+   * @return The last row of the matrix of xc and y.
+   */
+  protected static int[] extendPedRow(int[] row, char c, String y) {
+    int[] next = new int[row.length];
+    next[0] = row[0] + 1;
+    for (int j = 1; j < row.length; j++) {
+      int s = c == y.charAt(j - 1) ? 0 : 1;
+      next[j] = Math.min(row[j - 1] + s, Math.min(next[j - 1], row[j]) + 1);
+    }
+    return next;
+  }
+
   /**
    * Computes all q-grams of the normalized version of the given string.
    *
@@ -412,4 +2095,283 @@ public class QGramIndex {
   protected static String normalize(String string) {
     return string.replaceAll("\\W", "").toLowerCase();
   }
+
+  // ==========================================================================
+
+  /**
+   * Saves this index to the given file, in a binary format that can be
+   * memory-mapped by {@link #load}. The file holds the settings of the index,
+   * the q-gram directory, the inverted lists (packed as pairs of integers) and
+   * the entities (column by column).
+   *
+   * @param fileName
+   *        The name of the file to write.
+   */
+  public void save(String fileName) throws IOException {
+    try (SnapshotWriter out = new SnapshotWriter(fileName,
+        SNAPSHOT_HEADER_SIZE)) {
+      // Write the inverted lists and the q-gram directory.
+      int numQGrams = this.invertedLists.size();
+      long[] qGramPositions = new long[numQGrams];
+      long[] listPositions = new long[numQGrams];
+      int[] listLengths = new int[numQGrams];
+      int i = 0;
+      for (Map.Entry<String, List<IntIntPair>> entry
+          : this.invertedLists.entrySet()) {
+        qGramPositions[i] = out.writeString(entry.getKey());
+        listPositions[i] = out.reserve(8L * entry.getValue().size());
+        listLengths[i] = entry.getValue().size();
+        for (IntIntPair pair : entry.getValue()) {
+          out.writeInt(pair.first);
+          out.writeInt(pair.second);
+        }
+        i++;
+      }
+      long qGramsPosition = writeLongs(out, qGramPositions);
+      long listsPosition = writeLongs(out, listPositions);
+      long lengthsPosition = writeInts(out, listLengths);
+
+      // Write the entities, column by column.
+      int numEntities = this.entities.size();
+      int[] scores = new int[numEntities];
+      for (int j = 0; j < numEntities; j++) {
+        scores[j] = this.entities.getScore(j);
+      }
+      long scoresPosition = writeInts(out, scores);
+
+      long[] columnPositions = new long[EntityList.NUM_STRING_COLUMNS];
+      long[] stringPositions = new long[numEntities];
+      for (int c = 0; c < columnPositions.length; c++) {
+        for (int j = 0; j < numEntities; j++) {
+          stringPositions[j] = out.writeString(this.entities.getString(c, j));
+        }
+        columnPositions[c] = writeLongs(out, stringPositions);
+      }
+
+      // Write the variants.
+      long variantEntityIdsPosition = writeInts(out,
+          Arrays.copyOf(this.variantEntityIds, this.numVariants));
+      long variantSynonymsPosition = writeInts(out,
+          Arrays.copyOf(this.variantSynonyms, this.numVariants));
+      long variantLengthsPosition = writeInts(out,
+          Arrays.copyOf(this.variantLengths, this.numVariants));
+
+      // Write the prefix trie.
+      PrefixTrie trie = getPrefixTrie();
+      int[] labels = new int[trie.numNodes];
+      for (int j = 0; j < trie.numNodes; j++) {
+        labels[j] = trie.labels[j];
+      }
+      long labelsPosition = writeInts(out, labels);
+      long firstChildPosition = writeInts(out, trie.firstChild);
+      long topStartPosition = writeInts(out, trie.topStart);
+      long topIdsPosition = writeInts(out, trie.topIds);
+      long topSynonymsPosition = writeInts(out, trie.topSynonyms);
+      long topScoresPosition = writeInts(out, trie.topScores);
+
+      // Write the precomputed matches of hot prefixes.
+      Map<String, int[]> precomputed = this.precomputedVersion == this.version
+          ? this.precomputedMatches : new HashMap<>();
+      long[] keyPositions = new long[precomputed.size()];
+      long[] matchesPositions = new long[precomputed.size()];
+      int[] matchesLengths = new int[precomputed.size()];
+      i = 0;
+      for (Map.Entry<String, int[]> entry : precomputed.entrySet()) {
+        keyPositions[i] = out.writeString(entry.getKey());
+        matchesPositions[i] = writeInts(out, entry.getValue());
+        matchesLengths[i] = entry.getValue().length;
+        i++;
+      }
+      long keysPosition = writeLongs(out, keyPositions);
+      long matchesPosition = writeLongs(out, matchesPositions);
+      long matchesLengthsPosition = writeInts(out, matchesLengths);
+
+      // Write the header.
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+      header.putInt(SNAPSHOT_MAGIC);
+      header.putInt(SNAPSHOT_VERSION);
+      header.putInt(this.q);
+      header.putInt(this.withSynonyms ? 1 : 0);
+      header.putInt(numEntities);
+      header.putInt(numQGrams);
+      header.putLong(qGramsPosition);
+      header.putLong(listsPosition);
+      header.putLong(lengthsPosition);
+      header.putLong(scoresPosition);
+      for (long columnPosition : columnPositions) {
+        header.putLong(columnPosition);
+      }
+      header.putInt(this.numVariants);
+      header.putLong(variantEntityIdsPosition);
+      header.putLong(variantSynonymsPosition);
+      header.putLong(variantLengthsPosition);
+      header.putInt(trie.depth);
+      header.putInt(trie.k);
+      header.putInt(trie.numNodes);
+      header.putInt(trie.topIds.length);
+      header.putLong(labelsPosition);
+      header.putLong(firstChildPosition);
+      header.putLong(topStartPosition);
+      header.putLong(topIdsPosition);
+      header.putLong(topSynonymsPosition);
+      header.putLong(topScoresPosition);
+      header.putInt(precomputed.size());
+      header.putLong(keysPosition);
+      header.putLong(matchesPosition);
+      header.putLong(matchesLengthsPosition);
+      out.writeHeader(header);
+    }
+  }
+
+  /**
+   * Loads an index from the given file, written by {@link #save}. The file is
+   * memory-mapped; the inverted lists and the entities of the loaded index are
+   * read-only views of the file, so loading is fast even for millions of
+   * entities.
+   *
+   * @param fileName
+   *        The name of the file to read.
+   *
+   * @return The loaded index.
+   */
+  public static QGramIndex load(String fileName) throws IOException {
+    SnapshotReader in = new SnapshotReader(fileName);
+    if (in.windows.length == 0 || in.getInt(0) != SNAPSHOT_MAGIC) {
+      throw new IOException("\"" + fileName + "\" is no index snapshot");
+    }
+    if (in.getInt(4) != SNAPSHOT_VERSION) {
+      throw new IOException("\"" + fileName + "\" has snapshot version "
+          + in.getInt(4) + ", expected " + SNAPSHOT_VERSION);
+    }
+
+    QGramIndex index = new QGramIndex(in.getInt(8), in.getInt(12) != 0);
+    int numEntities = in.getInt(16);
+    int numQGrams = in.getInt(20);
+    long qGramsPosition = in.getLong(24);
+    long listsPosition = in.getLong(32);
+    long lengthsPosition = in.getLong(40);
+    long scoresPosition = in.getLong(48);
+    long[] columnPositions = new long[EntityList.NUM_STRING_COLUMNS];
+    for (int c = 0; c < columnPositions.length; c++) {
+      columnPositions[c] = in.getLong(56 + 8 * c);
+    }
+
+    // Read the q-gram directory.
+    for (int i = 0; i < numQGrams; i++) {
+      String qGram = in.getString(in.getLong(qGramsPosition + 8L * i));
+      long listPosition = in.getLong(listsPosition + 8L * i);
+      int listLength = in.getInt(lengthsPosition + 4L * i);
+      index.invertedLists.put(qGram,
+          new PackedPairList(in.getInts(listPosition, 2 * listLength)));
+    }
+
+    index.entities = new MappedEntityList(in, numEntities, scoresPosition,
+        columnPositions);
+    int[] scores = readInts(in, scoresPosition, numEntities);
+    for (int i = 1; i < numEntities && index.scoresDescending; i++) {
+      index.scoresDescending = scores[i] <= scores[i - 1];
+    }
+
+    // Read the variants.
+    int variantsPosition = 56 + 8 * columnPositions.length;
+    index.numVariants = in.getInt(variantsPosition);
+    index.variantEntityIds = readInts(in, in.getLong(variantsPosition + 4),
+        index.numVariants);
+    index.variantSynonyms = readInts(in, in.getLong(variantsPosition + 12),
+        index.numVariants);
+    index.variantLengths = readInts(in, in.getLong(variantsPosition + 20),
+        index.numVariants);
+
+    // Read the prefix trie.
+    int triePosition = variantsPosition + 28;
+    PrefixTrie trie = new PrefixTrie(in.getInt(triePosition),
+        in.getInt(triePosition + 4), index.version);
+    trie.numNodes = in.getInt(triePosition + 8);
+    int numTops = in.getInt(triePosition + 12);
+    int[] labels = readInts(in, in.getLong(triePosition + 16), trie.numNodes);
+    trie.labels = new char[trie.numNodes];
+    for (int i = 0; i < trie.numNodes; i++) {
+      trie.labels[i] = (char) labels[i];
+    }
+    trie.firstChild = readInts(in, in.getLong(triePosition + 24),
+        trie.numNodes + 1);
+    trie.topStart = readInts(in, in.getLong(triePosition + 32),
+        trie.numNodes + 1);
+    trie.topIds = readInts(in, in.getLong(triePosition + 40), numTops);
+    trie.topSynonyms = readInts(in, in.getLong(triePosition + 48), numTops);
+    trie.topScores = readInts(in, in.getLong(triePosition + 56), numTops);
+    index.prefixTrie = trie;
+
+    // Read the precomputed matches of hot prefixes.
+    int precomputedPosition = triePosition + 64;
+    int numPrecomputed = in.getInt(precomputedPosition);
+    long keysPosition = in.getLong(precomputedPosition + 4);
+    long matchesPosition = in.getLong(precomputedPosition + 12);
+    long matchesLengthsPosition = in.getLong(precomputedPosition + 20);
+    for (int i = 0; i < numPrecomputed; i++) {
+      index.precomputedMatches.put(
+          in.getString(in.getLong(keysPosition + 8L * i)),
+          readInts(in, in.getLong(matchesPosition + 8L * i),
+              in.getInt(matchesLengthsPosition + 4L * i)));
+    }
+    index.precomputedVersion = index.version;
+    return index;
+  }
+
+  /**
+   * Reads the given number of integers, written by {@link #writeInts}.
+   *
+   * @param in
+   *        The reader.
+   * @param position
+   *        The position of the first integer.
+   * @param length
+   *        The number of integers.
+   *
+   * @return The integers.
+   */
+  protected static int[] readInts(SnapshotReader in, long position,
+      int length) {
+    int[] values = new int[length];
+    in.getInts(position, length).get(values);
+    return values;
+  }
+
+  /**
+   * Writes the given longs without crossing the boundary of a window.
+   *
+   * @param out
+   *        The writer.
+   * @param values
+   *        The longs to write.
+   *
+   * @return The position of the first long.
+   */
+  protected static long writeLongs(SnapshotWriter out, long[] values)
+      throws IOException {
+    long position = out.reserve(8L * values.length);
+    for (long value : values) {
+      out.writeLong(value);
+    }
+    return position;
+  }
+
+  /**
+   * Writes the given integers without crossing the boundary of a window.
+   *
+   * @param out
+   *        The writer.
+   * @param values
+   *        The integers to write.
+   *
+   * @return The position of the first integer.
+   */
+  protected static long writeInts(SnapshotWriter out, int[] values)
+      throws IOException {
+    long position = out.reserve(4L * values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+    return position;
+  }
 }
@@ -3,6 +3,10 @@
 // Author: Hannah Bast <bast@cs.uni-freiburg.de>,
 //         Claudius Korzen <korzen@cs.uni-freiburg.de>.
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 
@@ -17,41 +21,154 @@ public class QGramIndexMain {
    * @param args
    *        The command line arguments.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     // Parse the command line arguments.
     if (args.length < 1) {
       System.out.println("Usage: java -jar FuzzySearchMain.jar <entity-file> "
-          + "[--with-synonyms]");
+          + "[--with-synonyms] [--save-index <index-file>] "
+          + "[--hot-prefixes <prefix-file>] [--shards <num-shards>] "
+          + "[--q <q1,q2,...>] [--sort-by-score] [--multi-word] "
+          + "[--stats <stats-file>]");
+      System.out.println("If <entity-file> ends with '"
+          + QGramIndex.SNAPSHOT_EXTENSION + "', a saved index is loaded.");
+      System.out.println("The best matches of the prefixes in <prefix-file> "
+          + "(one per line) are precomputed and saved with the index; they "
+          + "answer queries for at most " + QGramIndex.PRECOMPUTED_K
+          + " matches, as the search server asks for.");
+      System.out.println("With <num-shards> > 1, the entities are split into "
+          + "shards which are queried in parallel.");
+      System.out.println("With several values of q, an index is built for "
+          + "each, and the cheapest one is chosen per query.");
+      System.out.println("With --sort-by-score, the entity ids are assigned "
+          + "by descending score, so that top-k queries can stop early.");
+      System.out.println("With --multi-word, each word of a query is matched "
+          + "against the words of the entities, in any order.");
+      System.out.println("With --stats, the histograms of the query "
+          + "statistics are written to <stats-file> after each query.");
       System.exit(1);
     }
 
     String fileName = args[0];
-    boolean withSynonyms = args.length > 1 && args[1].equals("--with-synonyms");
-
-    System.out.print("Building index from '" + fileName + "' ... ");
-    System.out.flush();
+    boolean withSynonyms = false;
+    String indexFileName = null;
+    String prefixFileName = null;
+    int numShards = 1;
+    int[] qs = {3};
+    boolean sortByScore = false;
+    boolean multiWord = false;
+    String statsFileName = null;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--with-synonyms")) {
+        withSynonyms = true;
+      } else if (args[i].equals("--save-index") && i + 1 < args.length) {
+        indexFileName = args[++i];
+      } else if (args[i].equals("--hot-prefixes") && i + 1 < args.length) {
+        prefixFileName = args[++i];
+      } else if (args[i].equals("--shards") && i + 1 < args.length) {
+        numShards = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--q") && i + 1 < args.length) {
+        String[] values = args[++i].split(",");
+        qs = new int[values.length];
+        for (int j = 0; j < values.length; j++) {
+          qs[j] = Integer.parseInt(values[j]);
+        }
+      } else if (args[i].equals("--sort-by-score")) {
+        sortByScore = true;
+      } else if (args[i].equals("--multi-word")) {
+        multiWord = true;
+      } else if (args[i].equals("--stats") && i + 1 < args.length) {
+        statsFileName = args[++i];
+      }
+    }
+    if (numShards > 1 && indexFileName != null) {
+      System.out.println("A sharded index cannot be saved; use --save-index "
+          + "without --shards.");
+      System.exit(1);
+    }
+    if (numShards > 1 && sortByScore) {
+      System.out.println("The shards are not sorted by score; use "
+          + "--sort-by-score without --shards.");
+      System.exit(1);
+    }
+    if (qs.length > 1 && (indexFileName != null || numShards > 1
+        || sortByScore)) {
+      System.out.println("Several values of q cannot be combined with "
+          + "--save-index, --shards or --sort-by-score.");
+      System.exit(1);
+    }
 
-    // Build a 3-gram index from the given file.
     long start = System.currentTimeMillis();
-    QGramIndex index = new QGramIndex(3, withSynonyms);
-    index.buildFromFile(fileName);
+    QGramIndex index;
+    if (fileName.endsWith(QGramIndex.SNAPSHOT_EXTENSION)) {
+      System.out.print("Loading index from '" + fileName + "' ... ");
+      System.out.flush();
+      index = QGramIndex.load(fileName);
+    } else {
+      System.out.print("Building index from '" + fileName + "' ... ");
+      System.out.flush();
+
+      // Build a q-gram index from the given file.
+      if (qs.length > 1) {
+        index = new MultiQGramIndex(qs, withSynonyms);
+      } else if (numShards > 1) {
+        index = new ShardedQGramIndex(qs[0], withSynonyms, numShards);
+      } else {
+        index = new QGramIndex(qs[0], withSynonyms, sortByScore);
+      }
+      index.buildFromFile(fileName);
+    }
     long end = System.currentTimeMillis();
 
     System.out.println("done in " + (end - start) + "ms.");
 
+    if (prefixFileName != null) {
+      System.out.print("Precomputing matches of '" + prefixFileName
+          + "' ... ");
+      System.out.flush();
+      for (String prefix : Files.readAllLines(Paths.get(prefixFileName))) {
+        index.precomputeMatches(prefix,
+            QGramIndex.normalize(prefix).length() / 4);
+      }
+      System.out.println("done.");
+    }
+
+    if (indexFileName != null) {
+      System.out.print("Saving index to '" + indexFileName + "' ... ");
+      System.out.flush();
+      index.save(indexFileName);
+      System.out.println("done.");
+    }
+
     while (true) {
       System.out.println(String.join("", Collections.nCopies(80, "-")));
       String query = System.console().readLine("Query: ");
 
-      // Normalize the query.
-      query = QGramIndex.normalize(query);
-      int delta = query.length() / 4;
+      ObjectIntPair<List<Match>> result;
+      QueryStats stats = null;
+      if (multiWord) {
+        // Allow the same delta for each word, with respect to the shortest.
+        int delta = Integer.MAX_VALUE;
+        for (String word : WordIndex.splitWords(query)) {
+          delta = Math.min(delta, word.length() / 4);
+        }
+
+        start = System.currentTimeMillis();
+        result = index.findMultiWordMatches(query, delta, Integer.MAX_VALUE);
+        end = System.currentTimeMillis();
+      } else {
+        // Normalize the query.
+        query = QGramIndex.normalize(query);
+        int delta = query.length() / 4;
 
-      start = System.currentTimeMillis();
-      ObjectIntPair<List<Entity>> result = index.findMatches(query, delta);
-      end = System.currentTimeMillis();
+        start = System.currentTimeMillis();
+        stats = new QueryStats();
+        result = index.findMatches(null, query, delta, Integer.MAX_VALUE,
+            stats);
+        end = System.currentTimeMillis();
+        index.histograms.record(stats);
+      }
 
-      List<Entity> matches = result.first;
+      List<Match> matches = result.first;
 
       System.out.println();
       System.out.printf("Found %d matches. ", matches.size());
@@ -61,11 +178,13 @@ public class QGramIndexMain {
         System.out.printf("The top-%d results are:\n", numResults);
 
         for (int i = 0; i < numResults; i++) {
-          Entity e = matches.get(i);
+          Match m = matches.get(i);
+          Entity e = index.getEntity(m.entityId);
 
           System.out.printf("\n\033[1m(%d) %s\033[0m ", i + 1, e.name);
-          if (e.matchedSynonym != null) {
-            System.out.printf("(Matched Synonym: '%s')\n", e.matchedSynonym);
+          String matchedSynonym = index.getMatchedSynonym(m);
+          if (matchedSynonym != null) {
+            System.out.printf("(Matched Synonym: '%s')\n", matchedSynonym);
           } else {
             System.out.println();
           }
@@ -77,7 +196,7 @@ public class QGramIndexMain {
             System.out.printf("Wikidata-URL:  "
                 + "http://www.wikidata.org/wiki/%s\n", e.wikidataId);
           }
-          System.out.printf("PED:           %d\n", e.ped);
+          System.out.printf("PED:           %d\n", m.ped);
           System.out.printf("Score:         %d\n", e.score);
         }
       }
@@ -85,6 +204,13 @@ public class QGramIndexMain {
       System.out.println();
       System.out.printf("Time needed to find matches: %dms: ", (end - start));
       System.out.printf(" #PED computations: %d.\n", result.second);
+      if (stats != null) {
+        System.out.println(stats);
+      }
+      if (statsFileName != null) {
+        Files.write(Paths.get(statsFileName),
+            index.histograms.toString().getBytes(StandardCharsets.UTF_8));
+      }
     }
   }
 }
@@ -0,0 +1,430 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One unit test for each non-trivial method in the QGramIndex class.
+ */
+public class QGramIndexTest {
+  @Test
+  public void testConstructor() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    Assert.assertEquals(3, qgi.q);
+    Assert.assertEquals("$$", qgi.padding);
+    Assert.assertEquals("{}", qgi.invertedLists.toString());
+  }
+
+  @Test
+  public void testBuildFromFile() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals("{$$b=[(2, 0)], $$f=[(1, 0)], $br=[(2, 1)],"
+        + " $fr=[(1, 1)], bre=[(2, 2)], fre=[(1, 2)], rei=[(1, 3), (2, 3)]}",
+        qgi.invertedLists.toString());
+    Assert.assertEquals("[4, 4]", Arrays.toString(
+        Arrays.copyOf(qgi.variantLengths, qgi.numVariants)));
+    Assert.assertEquals(2, qgi.entities.size());
+    Assert.assertEquals("Entity(name='brei', score=2, desc='another word')",
+        qgi.entities.get(1).toString());
+  }
+
+  @Test
+  public void testBuildFromFileInParallel() {
+    QGramIndex qgi1 = new QGramIndex(3, true);
+    qgi1.buildFromFile("example.tsv", 1);
+    for (int numThreads = 2; numThreads <= 4; numThreads++) {
+      QGramIndex qgi2 = new QGramIndex(3, true);
+      qgi2.buildFromFile("example.tsv", numThreads);
+      Assert.assertEquals(qgi1.invertedLists.toString(),
+          qgi2.invertedLists.toString());
+      Assert.assertEquals(qgi1.entities.toString(),
+          qgi2.entities.toString());
+      Assert.assertEquals(3, qgi2.numVariants);
+      Assert.assertEquals("[1, 1, 2]", Arrays.toString(
+          Arrays.copyOf(qgi2.variantEntityIds, qgi2.numVariants)));
+      Assert.assertEquals("[-1, 0, -1]", Arrays.toString(
+          Arrays.copyOf(qgi2.variantSynonyms, qgi2.numVariants)));
+    }
+  }
+
+  @Test
+  public void testBuildFromFileSortedByScore() throws IOException {
+    File file = File.createTempFile("example", ".tsv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), Arrays.asList("name\tscore",
+        "brei\t2\tanother word", "frei\t3\ta word\t\t\tfree"));
+    QGramIndex qgi1 = new QGramIndex(3, true);
+    qgi1.buildFromFile(file.getPath());
+    Assert.assertFalse(qgi1.scoresDescending);
+    QGramIndex qgi2 = new QGramIndex(3, true, true);
+    qgi2.buildFromFile(file.getPath());
+    Assert.assertTrue(qgi2.scoresDescending);
+    Assert.assertEquals("frei", qgi2.entities.get(0).name);
+    // The descriptions are read from the file, by the offsets of the lines.
+    Assert.assertEquals("a word", qgi2.entities.get(0).desc);
+    Assert.assertEquals("another word", qgi2.entities.get(1).desc);
+    Assert.assertEquals("[1, 1, 2]", Arrays.toString(
+        Arrays.copyOf(qgi2.variantEntityIds, qgi2.numVariants)));
+
+    // The top-1 match has PED 0, so the search stops after it (without the
+    // progressive search, which also skips "brei" here).
+    qgi1.progressive = false;
+    Assert.assertEquals("([Match(2, ped=0)], 2)",
+        qgi1.findMatches("frei", 1, 1).toString());
+    Assert.assertEquals("([Match(1, ped=0)], 1)",
+        qgi2.findMatches("frei", 1, 1).toString());
+    Assert.assertEquals("([Match(1, ped=0), Match(2, ped=1)], 2)",
+        qgi2.findMatches("frei", 1, 5).toString());
+  }
+
+  @Test
+  public void testMergeLists() {
+    List<IntIntPair> list1 = Arrays.asList(new IntIntPair(1, 1));
+    List<IntIntPair> list2 = Arrays.asList(new IntIntPair(1, 1),
+        new IntIntPair(2, 1));
+    Assert.assertEquals("[(1, 2), (2, 1)]",
+        QGramIndex.mergeLists(list1, list2).toString());
+  }
+
+  @Test
+  public void testFilterPositions() {
+    List<IntIntPair> list = Arrays.asList(new IntIntPair(1, 0),
+        new IntIntPair(1, 4), new IntIntPair(1, 5), new IntIntPair(2, 2),
+        new IntIntPair(3, 7));
+    Assert.assertEquals("[(1, 1)]",
+        QGramIndex.filterPositions(list, 4, 0).toString());
+    Assert.assertEquals("[(1, 1), (2, 1)]",
+        QGramIndex.filterPositions(list, 4, 2).toString());
+    Assert.assertEquals("[(1, 1), (2, 1), (3, 1)]",
+        QGramIndex.filterPositions(list, 4, 3).toString());
+  }
+
+  @Test
+  public void testDivideSkip() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    List<String> qGrams = qgi.computeQGrams("frei");
+    // Without skipping, all lists are merged.
+    Assert.assertEquals("[(1, 4), (2, 3), (3, 1)]",
+        qgi.divideSkip(qGrams, 0, 1, 1, 4).toString());
+    // The longest lists are only probed for the candidates, and the
+    // frequencies are counted up to the threshold.
+    Assert.assertEquals("[(1, 3), (2, 3)]",
+        qgi.divideSkip(qGrams, 0, 3, 1, 4).toString());
+    Assert.assertEquals("[(1, 4)]",
+        qgi.divideSkip(qGrams, 0, 4, 1, 4).toString());
+    // Only the given range of variant ids.
+    Assert.assertEquals("[(2, 3), (3, 1)]",
+        qgi.divideSkip(qGrams, 0, 1, 2, 4).toString());
+    Assert.assertEquals("[]", qgi.divideSkip(qGrams, 0, 5, 1, 4).toString());
+  }
+
+  @Test
+  public void testFindMatches() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals("([Match(1, ped=0), Match(2, ped=1)], 2)",
+        qgi.findMatches("frei", 1).toString());
+    ObjectIntPair<List<Match>> result = qgi.findMatches("free", 0);
+    Assert.assertEquals("([Match(1, ped=0, synonym=0)], 1)",
+        result.toString());
+    Assert.assertEquals("free", qgi.getMatchedSynonym(result.first.get(0)));
+  }
+
+  @Test
+  public void testFindMatchesTopK() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals("([Match(1, ped=0)], 1)",
+        qgi.findMatches("frei", 1, 1).toString());
+    Assert.assertEquals("([], 0)", qgi.findMatches("frei", 1, 0).toString());
+    Assert.assertEquals(qgi.findMatches("brei", 1).toString(),
+        qgi.findMatches("brei", 1, 5).toString());
+  }
+
+  @Test
+  public void testFindMatchesProgressive() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    // "brei" is the only candidate for PED 0, and the search stops after it.
+    Assert.assertEquals("([Match(2, ped=0)], 1)",
+        qgi.findMatches("brei", 1, 1).toString());
+    qgi.progressive = false;
+    Assert.assertEquals("([Match(2, ped=0)], 2)",
+        qgi.findMatches("brei", 1, 1).toString());
+
+    // The matches are the same as without the progressive search.
+    String[] prefixes = {"b", "brei", "breix", "frei", "freex", "xrei"};
+    for (String prefix : prefixes) {
+      for (int delta = 0; delta <= 2; delta++) {
+        qgi.progressive = false;
+        String expected = qgi.findMatches(prefix, delta, 1).first.toString();
+        qgi.progressive = true;
+        Assert.assertEquals(expected,
+            qgi.findMatches(prefix, delta, 1).first.toString());
+      }
+    }
+  }
+
+  @Test
+  public void testFindMatchesProgressiveGenerated() throws IOException {
+    // A file of a few thousand entities with random names and synonyms made
+    // of a few syllables, so that many variants are similar.
+    String[] syllables = {"ein", "stein", "frei", "burg", "bach", "ton",
+        "zart", "han", "ning", "ber", "mo", "cu", "lin", "wolf", "new"};
+    Random random = new Random(42);
+    List<String> lines = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    lines.add("name\tscore\tdescription\twikipedia_url\twikidata_id\tsynonyms");
+    for (int i = 0; i < 3000; i++) {
+      String[] variants = new String[1 + random.nextInt(4)];
+      for (int j = 0; j < variants.length; j++) {
+        StringBuilder variant = new StringBuilder();
+        for (int l = 1 + random.nextInt(4); l > 0; l--) {
+          variant.append(syllables[random.nextInt(syllables.length)]);
+          variant.append(random.nextInt(3) == 0 ? " " : "");
+        }
+        variants[j] = variant.toString().trim();
+      }
+      names.add(variants[0]);
+      lines.add(variants[0] + "\t" + random.nextInt(1000) + "\t\t\t\t"
+          + String.join(";", Arrays.asList(variants).subList(1,
+          variants.length)));
+    }
+    File file = File.createTempFile("generated", ".tsv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), lines);
+
+    // The matches are the same as without the progressive search, with at
+    // most as many PED computations.
+    for (boolean sorted : new boolean[] {false, true}) {
+      QGramIndex qgi = new QGramIndex(3, true, sorted);
+      qgi.buildFromFile(file.getPath());
+      for (int i = 0; i < 200; i++) {
+        String prefix = QGramIndex.normalize(names.get(random.nextInt(
+            names.size())));
+        prefix = prefix.substring(0, Math.min(prefix.length(),
+            3 + random.nextInt(10)));
+        // Replace a random character.
+        int position = random.nextInt(prefix.length());
+        prefix = prefix.substring(0, position) + (char) ('a'
+            + random.nextInt(26)) + prefix.substring(position + 1);
+        int delta = prefix.length() / 4;
+        for (int k : new int[] {1, 5, 10}) {
+          qgi.progressive = false;
+          ObjectIntPair<List<Match>> expected = qgi.findMatches(prefix, delta,
+              k);
+          qgi.progressive = true;
+          ObjectIntPair<List<Match>> actual = qgi.findMatches(prefix, delta,
+              k);
+          Assert.assertEquals(expected.first.toString(),
+              actual.first.toString());
+          Assert.assertTrue(prefix + ": " + actual.second + " > "
+              + expected.second, actual.second <= expected.second);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFindMatchesWithPrefixTrie() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals("([Match(1, ped=0)], 0)",
+        qgi.findMatches("fr", 0, 5).toString());
+    Assert.assertEquals("([Match(1, ped=0, synonym=0)], 0)",
+        qgi.findMatches("free", 0, 5).toString());
+    Assert.assertEquals("([], 0)", qgi.findMatches("x", 0, 5).toString());
+    Assert.assertEquals(qgi.findMatches("rei", 0).first.toString(),
+        qgi.findMatches("rei", 0, 5).first.toString());
+
+    PrefixTrie trie = new PrefixTrie(qgi, 2, 1);
+    Assert.assertEquals("[Match(1, ped=0)]",
+        trie.findMatches("f", 1).toString());
+    Assert.assertEquals("[Match(2, ped=0)]",
+        trie.findMatches("br", 1).toString());
+  }
+
+  @Test
+  public void testPrecomputeMatches() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals("([Match(2, ped=0), Match(1, ped=1)], 2)",
+        qgi.findMatches("brei", 1, 5).toString());
+    qgi.precomputeMatches("Brei", 1);
+    Assert.assertEquals("([Match(2, ped=0), Match(1, ped=1)], 0)",
+        qgi.findMatches("brei", 1, 5).toString());
+    Assert.assertEquals("([Match(2, ped=0)], 0)",
+        qgi.findMatches("brei", 1, 1).toString());
+  }
+
+  @Test
+  public void testFindMatchesInSession() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    QuerySession session = new QuerySession();
+    for (String prefix : new String[] {"b", "br", "bre", "brei", "fr", "fre"}) {
+      int delta = prefix.length() / 2;
+      Assert.assertEquals(qgi.findMatches(prefix, delta, 5).toString(),
+          qgi.findMatches(session, prefix, delta, 5).toString());
+      // Queries with delta = 0 are answered by the prefix trie.
+      Assert.assertEquals(delta == 0 ? null : prefix, session.prefix);
+    }
+  }
+
+  @Test
+  public void testFindMatchesStats() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    // The same statistics with and without a session: 4 q-grams, all with a
+    // list of 2 postings, and 3 candidates ("frei", "free", "brei").
+    for (QuerySession session : new QuerySession[] {null,
+        new QuerySession()}) {
+      QueryStats stats = new QueryStats();
+      qgi.findMatches(session, "frei", 1, 2, stats);
+      Assert.assertEquals("[4, 4, 8, 3, 2, 2]", Arrays.toString(
+          Arrays.copyOf(stats.getValues(), 6)));
+      Assert.assertTrue(stats.phaseNanos[QueryStats.VERIFY] > 0);
+    }
+
+    // Queries answered by the prefix trie only fetch.
+    QueryStats stats = new QueryStats();
+    qgi.findMatches(null, "fr", 0, 5, stats);
+    Assert.assertEquals(1, stats.numMatches);
+    Assert.assertEquals(stats.getTotalNanos(),
+        stats.phaseNanos[QueryStats.FETCH]);
+
+    // The histograms of the index count the queries without given statistics.
+    Assert.assertEquals(0, qgi.histograms.getNumQueries());
+    qgi.findMatches("frei", 1, 2);
+    qgi.findMatches("brei", 1, 2);
+    Assert.assertEquals(2, qgi.histograms.getNumQueries());
+    Assert.assertEquals(2.0, qgi.histograms.getMean(4), 0);
+  }
+
+  @Test
+  public void testVerifyCandidatesInParallel() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    List<IntIntPair> candidates = qgi.divideSkip(qgi.computeQGrams("frei"), 1,
+        1, 1, 4);
+    TopKHeap topK1 = new TopKHeap(5);
+    // The name "frei" matches, so its synonym is skipped.
+    Assert.assertEquals(2, qgi.verifyCandidates(null, null, "frei", 1, 1,
+        candidates, 0, candidates.size(), topK1, null));
+    TopKHeap topK2 = new TopKHeap(5);
+    Assert.assertEquals(2, qgi.verifyCandidatesInParallel(
+        new BitParallelPed("frei"), "frei", 1, 1, candidates, topK2, null));
+    Assert.assertEquals(2, topK2.sort());
+    Assert.assertEquals(2, topK1.sort());
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals(topK1.ids[i], topK2.ids[i]);
+      Assert.assertEquals(topK1.peds[i], topK2.peds[i]);
+      Assert.assertEquals(topK1.synonyms[i], topK2.synonyms[i]);
+    }
+  }
+
+  @Test
+  public void testFindMatchesBatch() {
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile("example.tsv");
+    List<String> prefixes = Arrays.asList("frei", "bre", "Frei", "freib",
+        "brei", "fr", "frei", "x", "");
+    int[] deltas = {1, 0, 1, 1, 1, 0, 0, 0, 0};
+    List<ObjectIntPair<List<Match>>> results = qgi.findMatchesBatch(prefixes,
+        deltas, 5);
+    Assert.assertEquals(prefixes.size(), results.size());
+    for (int i = 0; i < prefixes.size(); i++) {
+      Assert.assertEquals(
+          qgi.findMatches(prefixes.get(i), deltas[i], 5).first.toString(),
+          results.get(i).first.toString());
+    }
+    // Equal queries share their result.
+    Assert.assertSame(results.get(0), results.get(2));
+    Assert.assertEquals("[]", qgi.findMatchesBatch(new ArrayList<>(),
+        new int[0], 5).toString());
+  }
+
+  @Test
+  public void testExtendPedRow() {
+    int[] row = QGramIndex.initialPedRow("breifurg");
+    for (char c : "frei".toCharArray()) {
+      row = QGramIndex.extendPedRow(row, c, "breifurg");
+    }
+    Assert.assertEquals("[4, 4, 3, 2, 1, 2, 3, 4, 5]", Arrays.toString(row));
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    QGramIndex qgi1 = new QGramIndex(3, true);
+    qgi1.buildFromFile("example.tsv");
+    File file = File.createTempFile("example", QGramIndex.SNAPSHOT_EXTENSION);
+    file.deleteOnExit();
+    qgi1.save(file.getPath());
+
+    QGramIndex qgi2 = QGramIndex.load(file.getPath());
+    Assert.assertEquals(3, qgi2.q);
+    Assert.assertTrue(qgi2.withSynonyms);
+    Assert.assertEquals(qgi1.invertedLists.toString(),
+        qgi2.invertedLists.toString());
+    Assert.assertEquals(qgi1.entities.toString(), qgi2.entities.toString());
+    Assert.assertEquals("[free]", qgi2.entities.get(0).synonyms.toString());
+    Assert.assertEquals(qgi1.findMatches("frei", 1).toString(),
+        qgi2.findMatches("frei", 1).toString());
+    Assert.assertEquals(qgi1.findMatches("free", 0).toString(),
+        qgi2.findMatches("free", 0).toString());
+    Assert.assertEquals(qgi1.prefixTrie.topStart.length,
+        qgi2.prefixTrie.topStart.length);
+    Assert.assertEquals(qgi1.findMatches("br", 0, 5).toString(),
+        qgi2.findMatches("br", 0, 5).toString());
+
+    qgi1.precomputeMatches("brei", 1);
+    qgi1.save(file.getPath());
+    qgi2 = QGramIndex.load(file.getPath());
+    Assert.assertEquals("([Match(2, ped=0), Match(1, ped=1)], 0)",
+        qgi2.findMatches("brei", 1, 5).toString());
+  }
+
+  @Test
+  public void testRankMatches() {
+    List<Match> matches = new ArrayList<>(Arrays.asList(new Match(1, 1, -1, 5),
+        new Match(2, 0, -1, 1), new Match(3, 1, 0, 5), new Match(4, 1, -1, 7)));
+    Assert.assertEquals("[Match(2, ped=0), Match(4, ped=1), Match(1, ped=1),"
+        + " Match(3, ped=1, synonym=0)]",
+        QGramIndex.rankMatches(matches).toString());
+  }
+
+  @Test
+  public void testPrefixEditDistance() {
+    Assert.assertEquals(0, QGramIndex.prefixEditDistance("frei", "frei", 0));
+    Assert.assertEquals(0, QGramIndex.prefixEditDistance(
+        "frei", "freiburg", 0));
+    Assert.assertEquals(1, QGramIndex.prefixEditDistance(
+        "frei", "breifurg", 1));
+    Assert.assertEquals(3, QGramIndex.prefixEditDistance(
+        "freiburg", "stuttgart", 2));
+  }
+
+  @Test
+  public void testNormalize() {
+    Assert.assertEquals("freiburg", QGramIndex.normalize("freiburg"));
+    Assert.assertEquals("freiburg", QGramIndex.normalize("Frei, burg !!"));
+  }
+
+  @Test
+  public void testComputeQGrams() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    Assert.assertEquals("[$$f, $fr, fre, rei]",
+        qgi.computeQGrams("frei").toString());
+  }
+}
@@ -0,0 +1,334 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of query results in front of {@link QGramIndex#findMatches}.
+ * The cache is split into segments, each an LRU map with its own lock and an
+ * equal share of the memory budget, so that concurrent queries rarely wait
+ * for each other. A result is only valid for the version of the index it was
+ * computed on; results of older versions are dropped on access. Partial
+ * results (see {@link QueryStats#partial}) are not kept.
+ */
+public class QueryCache {
+  /**
+   * The estimated size of a cache entry without its key and matches, in bytes.
+   */
+  protected static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * The estimated size of a match, in bytes.
+   */
+  protected static final int MATCH_SIZE = 32;
+
+  /**
+   * The segments.
+   */
+  protected Segment[] segments;
+
+  /**
+   * The memory budget of each segment, in bytes.
+   */
+  protected long segmentBudget;
+
+  /**
+   * The number of lookups that found a valid result.
+   */
+  protected AtomicLong numHits = new AtomicLong();
+
+  /**
+   * The number of lookups that found no valid result.
+   */
+  protected AtomicLong numMisses = new AtomicLong();
+
+  /**
+   * The number of results evicted to stay within the memory budget.
+   */
+  protected AtomicLong numEvictions = new AtomicLong();
+
+  /**
+   * The number of results dropped because the index changed.
+   */
+  protected AtomicLong numInvalidations = new AtomicLong();
+
+  /**
+   * A cached result.
+   */
+  protected static class CachedResult {
+    /**
+     * The version of the index the result was computed on.
+     */
+    protected long version;
+
+    /**
+     * The matches.
+     */
+    protected List<Match> matches;
+
+    /**
+     * The estimated size of the entry, in bytes.
+     */
+    protected long size;
+  }
+
+  /**
+   * A segment of the cache: an LRU map from keys to results.
+   */
+  protected static class Segment {
+    /**
+     * The results, in LRU order (least recently used first).
+     */
+    protected LinkedHashMap<String, CachedResult> results =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The estimated size of the results, in bytes.
+     */
+    protected long size;
+  }
+
+  /**
+   * Creates a new cache with 16 segments.
+   *
+   * @param budget
+   *        The memory budget of the cache, in bytes.
+   */
+  public QueryCache(long budget) {
+    this(budget, 16);
+  }
+
+  /**
+   * Creates a new cache.
+   *
+   * @param budget
+   *        The memory budget of the cache, in bytes.
+   * @param numSegments
+   *        The number of segments.
+   */
+  public QueryCache(long budget, int numSegments) {
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      this.segments[i] = new Segment();
+    }
+    this.segmentBudget = budget / numSegments;
+  }
+
+  /**
+   * Returns the k best matches of the given prefix in the given index (see
+   * {@link QGramIndex#findMatches(String, int, int)}), from the cache if
+   * possible. A result computed on a miss is added to the cache.
+   *
+   * @param index
+   *        The index.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches.
+   *
+   * @return A pair (matches, numPEDComputations); the number of PED
+   *         computations is 0 if the result came from the cache.
+   */
+  public ObjectIntPair<List<Match>> findMatches(QGramIndex index,
+      String prefix, int delta, int k) {
+    return findMatches(index, null, prefix, delta, k);
+  }
+
+  /**
+   * Returns the k best matches of the given prefix in the given index as part
+   * of the given session (see {@link QGramIndex#findMatches(QuerySession,
+   * String, int, int)}), from the cache if possible. A result computed on a
+   * miss is added to the cache.
+   *
+   * @param index
+   *        The index.
+   * @param session
+   *        The session; may be null.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches.
+   *
+   * @return A pair (matches, numPEDComputations); the number of PED
+   *         computations is 0 if the result came from the cache.
+   */
+  public ObjectIntPair<List<Match>> findMatches(QGramIndex index,
+      QuerySession session, String prefix, int delta, int k) {
+    return findMatches(index, session, prefix, delta, k, new QueryStats());
+  }
+
+  /**
+   * Returns the k best matches of the given prefix in the given index as part
+   * of the given session, from the cache if possible, like
+   * {@link #findMatches(QGramIndex, QuerySession, String, int, int)}, and
+   * sets the given statistics to those of the query on a miss. The result is
+   * partial if the statistics say so; it is not added to the cache then.
+   *
+   * @param index
+   *        The index.
+   * @param session
+   *        The session; may be null.
+   * @param prefix
+   *        The prefix.
+   * @param delta
+   *        The value of delta.
+   * @param k
+   *        The maximum number of matches.
+   * @param stats
+   *        The statistics to set; left untouched if the result came from the
+   *        cache.
+   *
+   * @return A pair (matches, numPEDComputations); the number of PED
+   *         computations is 0 if the result came from the cache.
+   */
+  public ObjectIntPair<List<Match>> findMatches(QGramIndex index,
+      QuerySession session, String prefix, int delta, int k,
+      QueryStats stats) {
+    String normalizedPrefix = QGramIndex.normalize(prefix);
+    String key = delta + ":" + k + ":" + index.withSynonyms + ":"
+        + normalizedPrefix;
+    long version = index.version;
+
+    List<Match> matches = get(key, version);
+    if (matches != null) {
+      return new ObjectIntPair<>(matches, 0);
+    }
+
+    ObjectIntPair<List<Match>> result = index.findMatches(session,
+        normalizedPrefix, delta, k, stats);
+    index.histograms.record(stats);
+    matches = Collections.unmodifiableList(result.first);
+    if (!stats.partial) {
+      put(key, version, matches);
+    }
+    return new ObjectIntPair<>(matches, result.second);
+  }
+
+  /**
+   * Returns the cached result for the given key, if it was computed on the
+   * given version of the index.
+   *
+   * @param key
+   *        The key.
+   * @param version
+   *        The current version of the index.
+   *
+   * @return The cached matches; null if there are none.
+   */
+  protected List<Match> get(String key, long version) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      CachedResult result = segment.results.get(key);
+      if (result != null && result.version != version) {
+        segment.results.remove(key);
+        segment.size -= result.size;
+        this.numInvalidations.incrementAndGet();
+        result = null;
+      }
+      if (result == null) {
+        this.numMisses.incrementAndGet();
+        return null;
+      }
+      this.numHits.incrementAndGet();
+      return result.matches;
+    }
+  }
+
+  /**
+   * Adds the given result to the cache and evicts the least recently used
+   * results of its segment until the segment fits into its budget.
+   *
+   * @param key
+   *        The key.
+   * @param version
+   *        The version of the index the result was computed on.
+   * @param matches
+   *        The matches, which must not be changed afterwards.
+   */
+  protected void put(String key, long version, List<Match> matches) {
+    CachedResult result = new CachedResult();
+    result.version = version;
+    result.matches = matches;
+    result.size = ENTRY_OVERHEAD + 2L * key.length()
+        + (long) MATCH_SIZE * matches.size();
+    if (result.size > this.segmentBudget) {
+      return;
+    }
+
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      CachedResult old = segment.results.put(key, result);
+      if (old != null) {
+        segment.size -= old.size;
+      }
+      segment.size += result.size;
+
+      Iterator<Map.Entry<String, CachedResult>> it =
+          segment.results.entrySet().iterator();
+      while (segment.size > this.segmentBudget && it.hasNext()) {
+        segment.size -= it.next().getValue().size;
+        it.remove();
+        this.numEvictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Removes all results from the cache.
+   */
+  public void clear() {
+    for (Segment segment : this.segments) {
+      synchronized (segment) {
+        segment.results.clear();
+        segment.size = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of results in the cache.
+   *
+   * @return The number of results.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      synchronized (segment) {
+        size += segment.results.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the segment of the given key.
+   *
+   * @param key
+   *        The key.
+   *
+   * @return The segment.
+   */
+  protected Segment segmentFor(String key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return this.segments[Math.floorMod(hash, this.segments.length)];
+  }
+
+  @Override
+  public String toString() {
+    return String.format("QueryCache(size=%d, hits=%d, misses=%d, "
+        + "evictions=%d, invalidations=%d)", size(), this.numHits.get(),
+        this.numMisses.get(), this.numEvictions.get(),
+        this.numInvalidations.get());
+  }
+}
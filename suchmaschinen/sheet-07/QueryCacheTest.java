@@ -0,0 +1,53 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the QueryCache class.
+ */
+public class QueryCacheTest {
+  @Test
+  public void testFindMatches() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    qgi.buildFromFile("example.tsv");
+    QueryCache cache = new QueryCache(1 << 20);
+
+    Assert.assertEquals("([Match(1, ped=0), Match(2, ped=1)], 2)",
+        cache.findMatches(qgi, "frei", 1, 5).toString());
+    Assert.assertEquals("([Match(1, ped=0), Match(2, ped=1)], 0)",
+        cache.findMatches(qgi, "Frei!", 1, 5).toString());
+    Assert.assertEquals("QueryCache(size=1, hits=1, misses=1, evictions=0,"
+        + " invalidations=0)", cache.toString());
+
+    // A change of the index invalidates the cached results.
+    qgi.addEntity(new Entity("freiburg", 1));
+    Assert.assertEquals("([Match(1, ped=0), Match(3, ped=0), Match(2, ped=1)],"
+        + " 3)", cache.findMatches(qgi, "frei", 1, 5).toString());
+    Assert.assertEquals("QueryCache(size=1, hits=1, misses=2, evictions=0,"
+        + " invalidations=1)", cache.toString());
+  }
+
+  @Test
+  public void testEviction() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    qgi.buildFromFile("example.tsv");
+    // Room for about two results in a single segment.
+    QueryCache cache = new QueryCache(2 * (QueryCache.ENTRY_OVERHEAD + 100),
+        1);
+
+    cache.findMatches(qgi, "frei", 1, 5);
+    cache.findMatches(qgi, "brei", 1, 5);
+    cache.findMatches(qgi, "frei", 1, 5);
+    cache.findMatches(qgi, "fre", 0, 5);
+    Assert.assertEquals("QueryCache(size=2, hits=1, misses=3, evictions=1,"
+        + " invalidations=0)", cache.toString());
+    // "brei" was the least recently used result.
+    cache.findMatches(qgi, "frei", 1, 5);
+    cache.findMatches(qgi, "brei", 1, 5);
+    Assert.assertEquals("QueryCache(size=2, hits=2, misses=4, evictions=2,"
+        + " invalidations=0)", cache.toString());
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograms of the statistics of the queries of an index (see
+ * {@link QueryStats}), one per value. The buckets grow exponentially: each
+ * power of two is split into SUB_BUCKETS buckets of equal width, so that a
+ * percentile is off by at most 1 / SUB_BUCKETS of its value, with a few
+ * hundred counters per value. Recording a query takes a few atomic
+ * increments and no lock, so that the histograms can be kept for all
+ * queries. The number of queries, the sums and the maxima, which every query
+ * updates, are striped over the threads (see {@link LongAdder}) and only
+ * merged when read, so that concurrent queries do not contend for them.
+ */
+public class QueryHistograms {
+  /**
+   * The number of buckets per power of two (a power of two itself).
+   */
+  protected static final int SUB_BUCKETS = 4;
+
+  /**
+   * The number of bits of the index of a bucket in its power of two.
+   */
+  protected static final int SUB_BUCKET_BITS = 2;
+
+  /**
+   * The number of buckets per value, enough for all non-negative longs.
+   */
+  protected static final int NUM_BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+  /**
+   * The percentiles that are reported (see {@link #toString}).
+   */
+  protected static final double[] PERCENTILES = {50, 90, 99};
+
+  /**
+   * The number of queries recorded.
+   */
+  protected LongAdder numQueries = new LongAdder();
+
+  /**
+   * The number of values in each bucket, by value * NUM_BUCKETS + bucket.
+   */
+  protected AtomicLongArray counts = new AtomicLongArray(
+      QueryStats.NAMES.length * NUM_BUCKETS);
+
+  /**
+   * The sums of the values, by value.
+   */
+  protected LongAdder[] sums = new LongAdder[QueryStats.NAMES.length];
+
+  /**
+   * The maxima of the values, by value.
+   */
+  protected LongAccumulator[] maxima =
+      new LongAccumulator[QueryStats.NAMES.length];
+
+  /**
+   * Creates empty histograms.
+   */
+  public QueryHistograms() {
+    for (int i = 0; i < QueryStats.NAMES.length; i++) {
+      this.sums[i] = new LongAdder();
+      this.maxima[i] = new LongAccumulator(Math::max, 0);
+    }
+  }
+
+  /**
+   * Adds the statistics of a query to the histograms.
+   *
+   * @param stats
+   *        The statistics of the query.
+   */
+  public void record(QueryStats stats) {
+    long[] values = stats.getValues();
+    for (int i = 0; i < values.length; i++) {
+      long value = Math.max(values[i], 0);
+      this.counts.incrementAndGet(i * NUM_BUCKETS + bucketOf(value));
+      this.sums[i].add(value);
+      this.maxima[i].accumulate(value);
+    }
+    this.numQueries.increment();
+  }
+
+  /**
+   * Returns the number of queries recorded.
+   *
+   * @return The number of queries.
+   */
+  public long getNumQueries() {
+    return this.numQueries.sum();
+  }
+
+  /**
+   * Returns the mean of the given value over all queries.
+   *
+   * @param value
+   *        The index of the value (see {@link QueryStats#NAMES}).
+   *
+   * @return The mean; 0 if no query was recorded.
+   */
+  public double getMean(int value) {
+    long numQueries = this.numQueries.sum();
+    return numQueries > 0 ? (double) this.sums[value].sum() / numQueries : 0;
+  }
+
+  /**
+   * Returns the given percentile of the given value over all queries: the
+   * largest value of the bucket that holds the percentile (at most the
+   * maximum).
+   *
+   * @param value
+   *        The index of the value (see {@link QueryStats#NAMES}).
+   * @param percentile
+   *        The percentile, between 0 and 100.
+   *
+   * @return The percentile; 0 if no query was recorded.
+   */
+  public long getPercentile(int value, double percentile) {
+    long total = 0;
+    for (int b = 0; b < NUM_BUCKETS; b++) {
+      total += this.counts.get(value * NUM_BUCKETS + b);
+    }
+    // The rank of the percentile (1-based).
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long count = 0;
+    for (int b = 0; b < NUM_BUCKETS && total > 0; b++) {
+      count += this.counts.get(value * NUM_BUCKETS + b);
+      if (count >= rank) {
+        long upper = b + 1 < NUM_BUCKETS ? lowerBoundOf(b + 1) - 1
+            : Long.MAX_VALUE;
+        return Math.min(upper, this.maxima[value].get());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the bucket of the given value.
+   *
+   * @param value
+   *        The value, not negative.
+   *
+   * @return The bucket.
+   */
+  protected static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // The exponent of the highest bit, and the next bits below it.
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift)
+        & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Returns the smallest value of the given bucket.
+   *
+   * @param bucket
+   *        The bucket.
+   *
+   * @return The smallest value.
+   */
+  protected static long lowerBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+  }
+
+  /**
+   * Returns the histograms as a table with one line per value and
+   * tab-separated columns: the name, the number of queries, the mean, the
+   * percentiles and the maximum.
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("value\tqueries\tmean");
+    for (double percentile : PERCENTILES) {
+      builder.append("\tp").append((int) percentile);
+    }
+    builder.append("\tmax\n");
+    long numQueries = this.numQueries.sum();
+    for (int i = 0; i < QueryStats.NAMES.length; i++) {
+      builder.append(QueryStats.NAMES[i]).append('\t').append(numQueries)
+          .append('\t').append(String.format("%.1f", getMean(i)));
+      for (double percentile : PERCENTILES) {
+        builder.append('\t').append(getPercentile(i, percentile));
+      }
+      builder.append('\t').append(this.maxima[i].get()).append('\n');
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the QueryHistograms class.
+ */
+public class QueryHistogramsTest {
+  @Test
+  public void testBucketOf() {
+    Assert.assertEquals(0, QueryHistograms.bucketOf(0));
+    Assert.assertEquals(3, QueryHistograms.bucketOf(3));
+    Assert.assertEquals(4, QueryHistograms.bucketOf(4));
+    Assert.assertEquals(7, QueryHistograms.bucketOf(7));
+    // 8 and 9 share a bucket, as do 14 and 15.
+    Assert.assertEquals(8, QueryHistograms.bucketOf(8));
+    Assert.assertEquals(8, QueryHistograms.bucketOf(9));
+    Assert.assertEquals(11, QueryHistograms.bucketOf(15));
+    Assert.assertEquals(QueryHistograms.NUM_BUCKETS - 1,
+        QueryHistograms.bucketOf(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testLowerBoundOf() {
+    for (long value : new long[] {0, 3, 4, 9, 15, 1000, 123456789}) {
+      int bucket = QueryHistograms.bucketOf(value);
+      Assert.assertTrue(QueryHistograms.lowerBoundOf(bucket) <= value);
+      Assert.assertTrue(QueryHistograms.lowerBoundOf(bucket + 1) > value);
+    }
+  }
+
+  @Test
+  public void testRecord() {
+    QueryHistograms histograms = new QueryHistograms();
+    Assert.assertEquals(0, histograms.getPercentile(4, 50));
+    for (int i = 1; i <= 100; i++) {
+      QueryStats stats = new QueryStats();
+      stats.numPedComputations = i;
+      histograms.record(stats);
+    }
+    Assert.assertEquals(100, histograms.getNumQueries());
+    Assert.assertEquals(50.5, histograms.getMean(4), 0);
+    // The 50th value (50) is in the bucket [48, 56).
+    Assert.assertEquals(55, histograms.getPercentile(4, 50));
+    // The 99th value (99) is in the bucket [96, 112), capped at the maximum.
+    Assert.assertEquals(100, histograms.getPercentile(4, 99));
+    Assert.assertEquals(1, histograms.getPercentile(4, 0));
+  }
+
+  @Test
+  public void testRecordConcurrently() throws InterruptedException {
+    QueryHistograms histograms = new QueryHistograms();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int numPeds = t + 1;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          QueryStats stats = new QueryStats();
+          stats.numPedComputations = numPeds;
+          histograms.record(stats);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(4000, histograms.getNumQueries());
+    Assert.assertEquals(2.5, histograms.getMean(4), 0);
+    Assert.assertEquals(4, histograms.getPercentile(4, 100));
+  }
+
+  @Test
+  public void testToString() {
+    QueryHistograms histograms = new QueryHistograms();
+    QueryStats stats = new QueryStats();
+    stats.numQGrams = 3;
+    histograms.record(stats);
+    String[] lines = histograms.toString().split("\n");
+    Assert.assertEquals(1 + QueryStats.NAMES.length, lines.length);
+    Assert.assertEquals("value\tqueries\tmean\tp50\tp90\tp99\tmax", lines[0]);
+    Assert.assertEquals("qgrams\t1\t3.0\t3\t3\t3\t3", lines[1]);
+  }
+}
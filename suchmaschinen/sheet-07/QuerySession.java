@@ -0,0 +1,222 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of a search-as-you-type session, that is, of a sequence of
+ * queries where each query typically extends the previous one by a few
+ * characters. The state of the last query is kept, so that the next query can
+ * reuse its work when it extends the last prefix:
+ *
+ * <p>(1) the merged inverted lists of the q-grams of the last prefix, so that
+ * only the lists of the new q-grams have to be merged in;
+ *
+ * <p>(2) the last row of the PED matrix of each verified candidate, so that the
+ * PED of the new prefix is computed by adding one row per new character.
+ *
+ * <p>A session must not be used by several threads at once.
+ */
+public class QuerySession {
+  /**
+   * The maximum number of rows kept per session, to bound its memory.
+   */
+  public static final int MAX_ROWS = 100000;
+
+  /**
+   * The maximum number of candidates kept per session, to bound its memory.
+   */
+  public static final int MAX_CANDIDATES = 1000000;
+
+  /**
+   * The estimated size of a kept candidate, in bytes.
+   */
+  protected static final int CANDIDATE_SIZE = 32;
+
+  /**
+   * The estimated size of a kept row without its values, in bytes.
+   */
+  protected static final int ROW_OVERHEAD = 64;
+
+  /**
+   * The (normalized) prefix of the last query; null if there was none.
+   */
+  protected String prefix;
+
+  /**
+   * The version of the index the state was computed on.
+   */
+  protected long version;
+
+  /**
+   * The merged inverted lists of the q-grams of the last prefix.
+   */
+  protected List<IntIntPair> candidates;
+
+  /**
+   * The largest delta the candidates are complete for (their q-grams were
+   * counted if their positions differ by at most this value).
+   */
+  protected int delta;
+
+  /**
+   * The last rows of the PED matrices of the last prefix, by variant id.
+   */
+  protected Map<Integer, int[]> rows;
+
+  /**
+   * The last rows of the PED matrices of the current prefix, by variant id.
+   */
+  protected Map<Integer, int[]> nextRows;
+
+  /**
+   * The estimated size of the rows of the last prefix, in bytes.
+   */
+  protected long rowsSize;
+
+  /**
+   * The estimated size of the rows of the current prefix, in bytes.
+   */
+  protected long nextRowsSize;
+
+  /**
+   * The sessions of the shards of a sharded index (see
+   * {@link ShardedQGramIndex}), by shard; null if there are none.
+   */
+  protected QuerySession[] shardSessions;
+
+  /**
+   * Creates a new session.
+   */
+  public QuerySession() {
+    this.rows = new HashMap<>();
+    this.nextRows = new HashMap<>();
+  }
+
+  /**
+   * Checks whether the given prefix extends the prefix of the last query, so
+   * that the state of the last query can be reused.
+   *
+   * @param prefix
+   *        The normalized prefix.
+   *
+   * @return True if the given prefix extends the last prefix.
+   */
+  public boolean isExtension(String prefix) {
+    return this.prefix != null && !this.prefix.isEmpty()
+        && prefix.startsWith(this.prefix);
+  }
+
+  /**
+   * Computes the prefix edit distance PED(x,y) for the given prefix x and the
+   * given variant y of a candidate (its name or one of its synonyms). If the
+   * last query verified the same variant and x extends the last prefix, only
+   * the rows of the new characters are computed. Returns PED(x,y) if it is
+   * smaller or equal to the given delta; delta + 1 otherwise.
+   *
+   * @param x
+   *        The normalized prefix.
+   * @param variantId
+   *        The id of the variant.
+   * @param y
+   *        The normalized variant.
+   * @param delta
+   *        The value of delta.
+   *
+   * @return PED(x,y) if it is smaller or equal to the given delta; delta + 1
+   *         otherwise.
+   */
+  public int prefixEditDistance(String x, int variantId, String y,
+      int delta) {
+    int[] row = isExtension(x) ? this.rows.get(variantId) : null;
+    int start = this.prefix != null ? this.prefix.length() : 0;
+    if (row == null) {
+      row = QGramIndex.initialPedRow(y);
+      start = 0;
+    }
+    for (int i = start; i < x.length(); i++) {
+      row = QGramIndex.extendPedRow(row, x.charAt(i), y);
+    }
+
+    // Search the last row for the minimum value.
+    int ped = Integer.MAX_VALUE;
+    for (int value : row) {
+      ped = Math.min(ped, value);
+    }
+
+    // Keep the row only if the candidate may still match the next prefix,
+    // assuming that delta grows by at most one per keystroke.
+    if (ped <= delta + 1 && this.nextRows.size() < MAX_ROWS) {
+      this.nextRows.put(variantId, row);
+      this.nextRowsSize += ROW_OVERHEAD + 4L * row.length;
+    }
+    return Math.min(ped, delta + 1);
+  }
+
+  /**
+   * Forgets the state of the last query, so that the next query starts from
+   * scratch.
+   */
+  public void reset() {
+    this.prefix = null;
+    this.candidates = null;
+    this.rows.clear();
+    this.nextRows.clear();
+    this.rowsSize = 0;
+    this.nextRowsSize = 0;
+    this.shardSessions = null;
+  }
+
+  /**
+   * Returns the estimated size of the state of this session, including the
+   * sessions of the shards.
+   *
+   * @return The size, in bytes.
+   */
+  public long getSize() {
+    long size = this.rowsSize + this.nextRowsSize;
+    if (this.candidates != null) {
+      size += (long) CANDIDATE_SIZE * this.candidates.size();
+    }
+    if (this.shardSessions != null) {
+      for (QuerySession shardSession : this.shardSessions) {
+        size += shardSession.getSize();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Finishes the current query and makes it the last query.
+   *
+   * @param prefix
+   *        The normalized prefix of the current query.
+   * @param delta
+   *        The largest delta the candidates are complete for.
+   * @param candidates
+   *        The merged inverted lists of the q-grams of the current prefix.
+   */
+  public void finish(String prefix, int delta, List<IntIntPair> candidates) {
+    Map<Integer, int[]> tmp = this.rows;
+    this.rows = this.nextRows;
+    this.nextRows = tmp;
+    this.nextRows.clear();
+    this.rowsSize = this.nextRowsSize;
+    this.nextRowsSize = 0;
+
+    if (candidates.size() > MAX_CANDIDATES) {
+      // Too much state; the next query starts from scratch.
+      this.prefix = null;
+      this.candidates = null;
+      this.rows.clear();
+      this.rowsSize = 0;
+    } else {
+      this.prefix = prefix;
+      this.delta = delta;
+      this.candidates = candidates;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The search-as-you-type sessions of a server, by session id (see
+ * {@link QuerySession}). The ids are chosen by the clients, so the sessions
+ * are bounded by their total estimated size, not by their number: sessions
+ * that were not used for a while are dropped, and then the least recently
+ * used sessions until the sessions fit into the memory budget. A dropped
+ * session that is still in use is only forgotten; its query finishes
+ * normally, and the next query of its client starts a new session.
+ */
+public class QuerySessions {
+  /**
+   * The estimated size of a session without its state, in bytes.
+   */
+  protected static final int ENTRY_OVERHEAD = 256;
+
+  /**
+   * A kept session.
+   */
+  protected static class Entry {
+    /**
+     * The session.
+     */
+    protected QuerySession session;
+
+    /**
+     * The estimated size of the session when its last query finished, in
+     * bytes.
+     */
+    protected long size;
+
+    /**
+     * The time the session was last used, in milliseconds.
+     */
+    protected long lastUsed;
+  }
+
+  /**
+   * The sessions, in LRU order (least recently used first).
+   */
+  protected LinkedHashMap<String, Entry> sessions =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The estimated size of the sessions, in bytes.
+   */
+  protected long size;
+
+  /**
+   * The memory budget of the sessions, in bytes.
+   */
+  protected long budget;
+
+  /**
+   * The time in milliseconds after which an unused session is dropped.
+   */
+  protected long maxIdleMillis;
+
+  /**
+   * The number of sessions dropped.
+   */
+  protected long numEvictions;
+
+  /**
+   * Creates an empty set of sessions.
+   *
+   * @param budget
+   *        The memory budget of the sessions, in bytes.
+   * @param maxIdleMillis
+   *        The time in milliseconds after which an unused session is dropped.
+   */
+  public QuerySessions(long budget, long maxIdleMillis) {
+    this.budget = budget;
+    this.maxIdleMillis = maxIdleMillis;
+  }
+
+  /**
+   * Returns the session with the given id, and starts a new one if there is
+   * none. The session must be passed to {@link #finish} after its query.
+   *
+   * @param id
+   *        The session id.
+   * @param now
+   *        The current time, in milliseconds.
+   *
+   * @return The session.
+   */
+  public synchronized QuerySession get(String id, long now) {
+    Entry entry = this.sessions.get(id);
+    if (entry == null) {
+      entry = new Entry();
+      entry.session = new QuerySession();
+      entry.size = ENTRY_OVERHEAD + 2L * id.length();
+      this.sessions.put(id, entry);
+      this.size += entry.size;
+    }
+    entry.lastUsed = now;
+    evict(now);
+    return entry.session;
+  }
+
+  /**
+   * Updates the size of the given session after its query, and drops
+   * sessions until the sessions fit into the budget.
+   *
+   * @param id
+   *        The session id.
+   * @param session
+   *        The session, as returned by {@link #get}.
+   * @param now
+   *        The current time, in milliseconds.
+   */
+  public synchronized void finish(String id, QuerySession session,
+      long now) {
+    Entry entry = this.sessions.get(id);
+    if (entry == null || entry.session != session) {
+      // The session was dropped during its query.
+      return;
+    }
+    long size = ENTRY_OVERHEAD + 2L * id.length() + session.getSize();
+    this.size += size - entry.size;
+    entry.size = size;
+    entry.lastUsed = now;
+    evict(now);
+  }
+
+  /**
+   * Drops the sessions that were not used for too long, and then the least
+   * recently used sessions until the sessions fit into the budget.
+   *
+   * @param now
+   *        The current time, in milliseconds.
+   */
+  protected void evict(long now) {
+    Iterator<Map.Entry<String, Entry>> it =
+        this.sessions.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next().getValue();
+      if (this.size <= this.budget
+          && now - entry.lastUsed <= this.maxIdleMillis) {
+        // The later sessions were used more recently.
+        break;
+      }
+      this.size -= entry.size;
+      it.remove();
+      this.numEvictions++;
+    }
+  }
+
+  /**
+   * Returns the number of sessions.
+   *
+   * @return The number of sessions.
+   */
+  public synchronized int size() {
+    return this.sessions.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("QuerySessions(size=%d, bytes=%d, evictions=%d)",
+        this.sessions.size(), this.size, this.numEvictions);
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the QuerySessions class.
+ */
+public class QuerySessionsTest {
+  @Test
+  public void testGet() {
+    QuerySessions sessions = new QuerySessions(1 << 20, 1000);
+    QuerySession session = sessions.get("a", 0);
+    Assert.assertSame(session, sessions.get("a", 10));
+    Assert.assertNotSame(session, sessions.get("b", 20));
+    Assert.assertEquals(2, sessions.size());
+    // Sessions that were not used for too long are dropped.
+    sessions.get("c", 1015);
+    Assert.assertEquals("QuerySessions(size=2, bytes="
+        + 2 * (QuerySessions.ENTRY_OVERHEAD + 2) + ", evictions=1)",
+        sessions.toString());
+    Assert.assertNotSame(session, sessions.get("a", 1020));
+  }
+
+  @Test
+  public void testFinish() {
+    QGramIndex qgi = new QGramIndex(3, false);
+    qgi.buildFromFile("example.tsv");
+    // Room for one session with its state.
+    QuerySessions sessions = new QuerySessions(
+        2 * QuerySessions.ENTRY_OVERHEAD + 200, 1000);
+    QuerySession session1 = sessions.get("a", 0);
+    qgi.findMatches(session1, "frei", 1, 5);
+    sessions.finish("a", session1, 0);
+    Assert.assertTrue(session1.getSize() > 0);
+    Assert.assertEquals(1, sessions.size());
+
+    // A new session makes the least recently used one go.
+    QuerySession session2 = sessions.get("b", 1);
+    qgi.findMatches(session2, "brei", 1, 5);
+    sessions.finish("b", session2, 1);
+    Assert.assertEquals(1, sessions.size());
+    Assert.assertSame(session2, sessions.get("b", 2));
+    // A dropped session is not added again.
+    sessions.finish("a", session1, 3);
+    Assert.assertEquals(1, sessions.size());
+  }
+}
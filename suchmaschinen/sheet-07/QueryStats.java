@@ -0,0 +1,202 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * The statistics of a query (see
+ * {@link QGramIndex#findMatches(QuerySession, String, int, int, QueryStats)}):
+ * the sizes of the intermediate results and the time spent in each phase:
+ *
+ * <p>(1) fetch: looking up the inverted lists of the q-grams (or the
+ * precomputed matches, the prefix trie or the shard servers);
+ *
+ * <p>(2) filter: decoding the lists and keeping the postings at a matching
+ * position (position filter);
+ *
+ * <p>(3) merge: merging the lists into the candidates and counting their
+ * q-grams (count filter);
+ *
+ * <p>(4) verify: computing the PEDs of the candidates;
+ *
+ * <p>(5) rank: sorting the matches and creating the result.
+ *
+ * <p>The statistics of an index made of several indexes are the sums of the
+ * statistics of its indexes. The phase times are wall times: for indexes
+ * queried one after the other, they are the sums of the phase times of the
+ * indexes; for indexes queried in parallel (the shards), the time until all
+ * indexes answered counts as fetch time, like the time of shard servers.
+ * The phase times of indexes queried in parallel are summed up separately
+ * (see {@link #shardPhaseNanos}), as they add up to more than the time of
+ * the query.
+ */
+public class QueryStats {
+  /**
+   * The phases, in the order in which they run.
+   */
+  public static final int FETCH = 0;
+  public static final int FILTER = 1;
+  public static final int MERGE = 2;
+  public static final int VERIFY = 3;
+  public static final int RANK = 4;
+  public static final int NUM_PHASES = 5;
+
+  /**
+   * The names of the values (see {@link #getValues}).
+   */
+  public static final String[] NAMES = {"qgrams", "lists", "postings",
+      "candidates", "peds", "matches", "fetch_ns", "filter_ns", "merge_ns",
+      "verify_ns", "rank_ns", "total_ns"};
+
+  /**
+   * The number of q-grams of the prefix.
+   */
+  public int numQGrams;
+
+  /**
+   * The number of inverted lists found for the q-grams.
+   */
+  public int numLists;
+
+  /**
+   * The number of postings of the inverted lists that were scanned (long
+   * lists that are only probed do not count).
+   */
+  public long numPostings;
+
+  /**
+   * The number of candidates that passed the count filter.
+   */
+  public int numCandidates;
+
+  /**
+   * The number of PED computations.
+   */
+  public int numPedComputations;
+
+  /**
+   * The number of matches returned.
+   */
+  public int numMatches;
+
+  /**
+   * Whether the matches are partial, because a part of the index (a shard
+   * server) did not answer in time.
+   */
+  public boolean partial;
+
+  /**
+   * The time spent in each phase, in nanoseconds, by phase.
+   */
+  public long[] phaseNanos = new long[NUM_PHASES];
+
+  /**
+   * The time spent in each phase by the indexes queried in parallel, in
+   * nanoseconds, by phase, summed up over the indexes (see
+   * {@link #addShard}). It is not part of {@link #getValues}.
+   */
+  public long[] shardPhaseNanos = new long[NUM_PHASES];
+
+  /**
+   * Adds the time since the given start to the given phase.
+   *
+   * @param phase
+   *        The phase.
+   * @param start
+   *        The start of the phase, as returned by {@link System#nanoTime}.
+   *
+   * @return The current time, the start of the next phase.
+   */
+  public long endPhase(int phase, long start) {
+    long end = System.nanoTime();
+    this.phaseNanos[phase] += end - start;
+    return end;
+  }
+
+  /**
+   * Adds the given statistics of a part of the query (in one of several
+   * indexes queried one after the other) to these statistics, except for
+   * the number of matches, which the whole query sets. The query is partial
+   * if the part is.
+   *
+   * @param other
+   *        The statistics to add.
+   */
+  public void add(QueryStats other) {
+    addCounts(other);
+    for (int i = 0; i < NUM_PHASES; i++) {
+      this.phaseNanos[i] += other.phaseNanos[i];
+      this.shardPhaseNanos[i] += other.shardPhaseNanos[i];
+    }
+  }
+
+  /**
+   * Adds the given statistics of a part of the query in one of several
+   * indexes queried in parallel (a shard) to these statistics, like
+   * {@link #add}, but its phase times to {@link #shardPhaseNanos}. The
+   * caller adds the time until all parts answered to the fetch phase.
+   *
+   * @param other
+   *        The statistics to add.
+   */
+  public void addShard(QueryStats other) {
+    addCounts(other);
+    for (int i = 0; i < NUM_PHASES; i++) {
+      this.shardPhaseNanos[i] += other.phaseNanos[i]
+          + other.shardPhaseNanos[i];
+    }
+  }
+
+  /**
+   * Adds the sizes of the given statistics to these statistics, except for
+   * the number of matches. The query is partial if the other one is.
+   *
+   * @param other
+   *        The statistics to add.
+   */
+  protected void addCounts(QueryStats other) {
+    this.numQGrams += other.numQGrams;
+    this.numLists += other.numLists;
+    this.numPostings += other.numPostings;
+    this.numCandidates += other.numCandidates;
+    this.numPedComputations += other.numPedComputations;
+    this.partial |= other.partial;
+  }
+
+  /**
+   * Returns the total time spent in the phases.
+   *
+   * @return The time, in nanoseconds.
+   */
+  public long getTotalNanos() {
+    long total = 0;
+    for (long nanos : this.phaseNanos) {
+      total += nanos;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the statistics as an array of values, in the order of
+   * {@link #NAMES}.
+   *
+   * @return The values.
+   */
+  public long[] getValues() {
+    return new long[] {this.numQGrams, this.numLists, this.numPostings,
+        this.numCandidates, this.numPedComputations, this.numMatches,
+        this.phaseNanos[FETCH], this.phaseNanos[FILTER],
+        this.phaseNanos[MERGE], this.phaseNanos[VERIFY],
+        this.phaseNanos[RANK], getTotalNanos()};
+  }
+
+  @Override
+  public String toString() {
+    long[] values = getValues();
+    StringBuilder builder = new StringBuilder("QueryStats(");
+    for (int i = 0; i < values.length; i++) {
+      builder.append(i > 0 ? ", " : "").append(NAMES[i]).append('=')
+          .append(values[i]);
+    }
+    return builder.append(')').toString();
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+
+/**
+ * One unit test for each non-trivial method in the QueryStats class.
+ */
+public class QueryStatsTest {
+  @Test
+  public void testEndPhase() {
+    QueryStats stats = new QueryStats();
+    long start = System.nanoTime();
+    long end = stats.endPhase(QueryStats.MERGE, start);
+    Assert.assertEquals(end - start, stats.phaseNanos[QueryStats.MERGE]);
+    stats.endPhase(QueryStats.MERGE, end);
+    Assert.assertTrue(stats.phaseNanos[QueryStats.MERGE] >= end - start);
+    Assert.assertEquals(stats.phaseNanos[QueryStats.MERGE],
+        stats.getTotalNanos());
+  }
+
+  @Test
+  public void testAdd() {
+    QueryStats stats = new QueryStats();
+    stats.numQGrams = 4;
+    stats.numMatches = 5;
+    stats.phaseNanos[QueryStats.FETCH] = 10;
+    QueryStats other = new QueryStats();
+    other.numQGrams = 4;
+    other.numPostings = 7;
+    other.numMatches = 2;
+    other.phaseNanos[QueryStats.FETCH] = 20;
+    other.phaseNanos[QueryStats.RANK] = 1;
+    stats.add(other);
+    // The number of matches is not added.
+    Assert.assertEquals("[8, 0, 7, 0, 0, 5, 30, 0, 0, 0, 1, 31]",
+        Arrays.toString(stats.getValues()));
+    Assert.assertFalse(stats.partial);
+    other.partial = true;
+    stats.add(other);
+    Assert.assertTrue(stats.partial);
+  }
+
+  @Test
+  public void testAddShard() {
+    QueryStats stats = new QueryStats();
+    stats.phaseNanos[QueryStats.FETCH] = 10;
+    QueryStats other = new QueryStats();
+    other.numPostings = 7;
+    other.phaseNanos[QueryStats.FETCH] = 20;
+    other.phaseNanos[QueryStats.VERIFY] = 5;
+    stats.addShard(other);
+    stats.addShard(other);
+    // The phase times of the shards are kept apart.
+    Assert.assertEquals("[0, 0, 14, 0, 0, 0, 10, 0, 0, 0, 0, 10]",
+        Arrays.toString(stats.getValues()));
+    Assert.assertEquals("[40, 0, 0, 10, 0]",
+        Arrays.toString(stats.shardPhaseNanos));
+
+    // They are kept apart when added to the statistics of a larger query.
+    QueryStats total = new QueryStats();
+    total.add(stats);
+    Assert.assertEquals(10, total.getTotalNanos());
+    Assert.assertEquals(40, total.shardPhaseNanos[QueryStats.FETCH]);
+  }
+
+  @Test
+  public void testToString() {
+    QueryStats stats = new QueryStats();
+    stats.numPedComputations = 3;
+    stats.phaseNanos[QueryStats.VERIFY] = 100;
+    Assert.assertEquals("QueryStats(qgrams=0, lists=0, postings=0, "
+        + "candidates=0, peds=3, matches=0, fetch_ns=0, filter_ns=0, "
+        + "merge_ns=0, verify_ns=100, rank_ns=0, total_ns=100)",
+        stats.toString());
+  }
+}
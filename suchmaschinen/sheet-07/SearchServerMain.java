@@ -10,32 +10,109 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Basic server code that returns the contents of a requested file.
  */
 public class SearchServerMain {
+  /**
+   * The memory budget of the search-as-you-type sessions, in bytes.
+   */
+  protected static final long SESSION_BUDGET = 256L << 20;
+
+  /**
+   * The time in milliseconds after which an unused session is dropped.
+   */
+  protected static final long SESSION_IDLE_MILLIS = 10 * 60 * 1000;
+
+  /**
+   * The time in milliseconds a shard server has to answer a query.
+   */
+  protected static final int SHARD_TIMEOUT = 1000;
+
+  /**
+   * The search-as-you-type sessions, by session id. Idle sessions, and the
+   * least recently used sessions beyond the budget, are dropped.
+   */
+  protected static final QuerySessions SESSIONS = new QuerySessions(
+      SESSION_BUDGET, SESSION_IDLE_MILLIS);
+
   /**
    * The main method.
    */
   public static void main(String[] args) throws IOException {
     // Parse the command line arguments.
     if (args.length < 2) {
-      System.out.println("java -jar SearchServerMain <port> <file>");
+      System.out.println("java -jar SearchServerMain <port> <file> "
+          + "[<cache-size-in-MB>] [--hot-prefixes <prefix-file>]");
+      System.out.println("If <file> is a comma-separated list of host:port "
+          + "addresses of shard servers, the queries are sent to them.");
+      System.out.println("The best matches of the prefixes in <prefix-file> "
+          + "(one per line) are precomputed before the first request.");
       System.exit(1);
     }
     int port = Integer.parseInt(args[0]);
+    long cacheSize = 64;
+    String prefixFileName = null;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("--hot-prefixes") && i + 1 < args.length) {
+        prefixFileName = args[++i];
+      } else {
+        cacheSize = Long.parseLong(args[i]);
+      }
+    }
     System.out.println(InetAddress.getLocalHost());
 
     ServerSocket server = new ServerSocket(port);
-    QGramIndex qgi = new QGramIndex(3, false);
-    qgi.buildFromFile(args[1]);
+    QGramIndex qgi;
+    if (args[1].matches("[^,]+:\\d+(,[^,]+:\\d+)*")) {
+      // Coordinate the shard servers.
+      List<InetSocketAddress> shards = new ArrayList<>();
+      for (String address : args[1].split(",")) {
+        int pos = address.lastIndexOf(':');
+        shards.add(new InetSocketAddress(address.substring(0, pos),
+            Integer.parseInt(address.substring(pos + 1))));
+      }
+      qgi = new DistributedQGramIndex(shards, SHARD_TIMEOUT);
+    } else if (args[1].endsWith(QGramIndex.SNAPSHOT_EXTENSION)) {
+      // Load a saved index instead of building it from scratch.
+      qgi = QGramIndex.load(args[1]);
+    } else {
+      qgi = new QGramIndex(3, false);
+      qgi.buildFromFile(args[1]);
+    }
+    if (!(qgi instanceof DistributedQGramIndex)) {
+      // Build the prefix trie for short queries before the first request.
+      qgi.getPrefixTrie();
+    }
+    if (prefixFileName != null) {
+      // Precompute the matches of hot prefixes with the delta of the queries
+      // below (in the shard servers, if there are any).
+      for (String prefix : Files.readAllLines(Paths.get(prefixFileName))) {
+        qgi.precomputeMatches(prefix,
+            QGramIndex.normalize(prefix).length() / 4);
+      }
+    }
+
+    // Cache the results of frequent queries.
+    QueryCache cache = new QueryCache(cacheSize << 20);
+
+    // Handle the requests in a pool of threads. This is safe, because
+    // queries only read the index.
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors());
 
     // Server loop.
     while (true) {
@@ -46,95 +123,173 @@ public class SearchServerMain {
       Socket client = server.accept();
       System.out.println("client connected from " + client.getInetAddress());
 
-      // Client connected; set read timeout.
-      client.setSoTimeout(5000);
+      executor.execute(() -> {
+        // Close the client also if the request fails.
+        try (Socket socket = client) {
+          handleClient(socket, qgi, cache);
+        } catch (IOException | RuntimeException e) {
+          System.err.println("Could not handle request: " + e.getMessage());
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads a request from the given client and sends the response.
+   *
+   * @param client
+   *        The client.
+   * @param qgi
+   *        The index to query.
+   * @param cache
+   *        The cache of query results.
+   */
+  protected static void handleClient(Socket client, QGramIndex qgi,
+      QueryCache cache) throws IOException {
+    // Client connected; set read timeout.
+    client.setSoTimeout(5000);
 
 
-      // Read the first line from the the request (not enough for ES6).
-      BufferedReader input = new BufferedReader(new InputStreamReader(
+    // Read the first line from the the request (not enough for ES6).
+    BufferedReader input = new BufferedReader(new InputStreamReader(
                                                   client.getInputStream()));
-      String request = "";
-      try {
-        request = input.readLine();
-      } catch (java.net.SocketTimeoutException e) {
-        System.out.println("Timeout");
+    String request = "";
+    try {
+      request = input.readLine();
+    } catch (java.net.SocketTimeoutException e) {
+      System.out.println("Timeout");
+    }
+    if (request == null) {
+      // The client disconnected before sending a request.
+      request = "";
+    }
+    byte[] contentBytes = new byte[0];
+    String contentType = "text/plain";
+    String statusString = "HTTP/1.1 200 OK";
+    boolean partial = false;
+    if (!request.startsWith("GET ")) {
+      String response = "Only GET requests";
+      contentBytes = response.getBytes("UTF-8");
+    } else {
+      request = request.substring(5, request.indexOf(" HTTP/1.1"));
+      // Check for API calls.
+      int pos = request.indexOf("?");
+      String params = "";
+      if (pos != -1) {
+        params = getParameter(request.substring(pos + 1), "query");
       }
-      byte[] contentBytes = new byte[0];
-      String contentType = "text/plain";
-      String statusString = "HTTP/1.1 200 OK";
-      if (!request.startsWith("GET ")) {
-        String response = "Only GET requests";
-        contentBytes = response.getBytes("UTF-8");
+      if (request.startsWith("api?query=")) {
+        params = QGramIndex.normalize(params);
+        int delta = (int) Math.floor(params.length() / 4);
+        ObjectIntPair<List<Match>> matches;
+        QueryStats stats = new QueryStats();
+        String sessionId = getParameter(request.substring(pos + 1),
+            "session");
+        if (sessionId.isEmpty()) {
+          matches = cache.findMatches(qgi, null, params, delta, 5, stats);
+        } else {
+          // Continue the search-as-you-type session of the client.
+          QuerySession session = SESSIONS.get(sessionId,
+              System.currentTimeMillis());
+          synchronized (session) {
+            matches = cache.findMatches(qgi, session, params, delta, 5,
+                stats);
+            SESSIONS.finish(sessionId, session, System.currentTimeMillis());
+          }
+        }
+        // Tell the client if some shard servers did not answer.
+        partial = stats.partial;
+        List<Match> bestFive = matches.first;
+        StringBuilder matchBuilder = new StringBuilder();
+        for (Match match : bestFive) {
+          Entity entry = qgi.getEntity(match.entityId);
+          if (entry == null) {
+            // The shard of the entity is down.
+            continue;
+          }
+          String replacement = entry.name + ";" + entry.score + ";"
+              + entry.desc;
+          matchBuilder.append(replacement + "\t" + "\r\n");
+        }
+        String matchString = matchBuilder.toString();
+        System.out.println(matchString);
+        contentBytes = matchString.getBytes("UTF-8");
+        contentType = "application/json";
+      } else if (request.equals("api/cache")) {
+        // Report the statistics of the result cache.
+        contentBytes = cache.toString().getBytes("UTF-8");
+      } else if (request.equals("api/stats")) {
+        // Report the histograms of the statistics of the queries (without
+        // the queries answered from the cache), as tab-separated values.
+        contentBytes = qgi.histograms.toString().getBytes("UTF-8");
       } else {
-        request = request.substring(5, request.indexOf(" HTTP/1.1"));
-        // Check for API calls.
-        int pos = request.indexOf("?");
-        String params = "";
         if (pos != -1) {
-          params = request.substring(pos + 7);
+          request = request.substring(0, pos);
         }
-        if (request.startsWith("api?query=")) {
-          params = QGramIndex.normalize(params);
-          int delta = (int) Math.floor(params.length() / 4);
-          ObjectIntPair<List<Entity>> matches =
-              qgi.findMatches(params, delta);
-          int datalenght = Math.min(5, matches.first.size());
-          List<Entity> bestFive = matches.first.subList(0, datalenght);
-          StringBuilder matchBuilder = new StringBuilder();
-          for (Entity entry : bestFive) {
-            String replacement = entry.name + ";" + entry.score + ";"
-                + entry.desc;
-            matchBuilder.append(replacement + "\t" + "\r\n");
-          }
-          String matchString = matchBuilder.toString();
-          System.out.println(matchString);
-          contentBytes = matchString.getBytes("UTF-8");
-          contentType = "application/json";
-        } else {
-          if (pos != -1) {
-            request = request.substring(0, pos);
-          }
 
-          if (request.contains("/")) {
-            statusString = "HTTP/1.1 403 Not allowed";
-          } else {
-            Path file = Paths.get(request);
-            if (Files.isRegularFile(file) && Files.isReadable(file)) {
-              // We found the file
-              File reqFile = new File(request);
-              FileInputStream fis = new FileInputStream(reqFile);
-              contentBytes = new byte[(int) reqFile.length()];
-              fis.read(contentBytes);
-              if (request.endsWith(".html" + ".css")) {
-                contentType = "text/" + request.substring(request.indexOf(".")
-                  + 1);
-              } else if (request.endsWith(".js")) {
-                contentType = "application/javascript";
-              }
-            } else {
-              // File isnt on server
-              statusString = "HTTP/1.1 404 Not found";
+        if (request.contains("/")) {
+          statusString = "HTTP/1.1 403 Not allowed";
+        } else {
+          Path file = Paths.get(request);
+          if (Files.isRegularFile(file) && Files.isReadable(file)) {
+            // We found the file
+            File reqFile = new File(request);
+            FileInputStream fis = new FileInputStream(reqFile);
+            contentBytes = new byte[(int) reqFile.length()];
+            fis.read(contentBytes);
+            if (request.endsWith(".html" + ".css")) {
+              contentType = "text/" + request.substring(request.indexOf(".")
+                + 1);
+            } else if (request.endsWith(".js")) {
+              contentType = "application/javascript";
             }
+          } else {
+            // File isnt on server
+            statusString = "HTTP/1.1 404 Not found";
           }
         }
       }
+    }
 
 
 
 
-      // Send the response.
-      StringBuilder responseBuilder = new StringBuilder();
-      responseBuilder.append(statusString + "\r\n");
-      responseBuilder.append("Content Lenght: " + contentBytes.length + "\r\n");
-      responseBuilder.append("Content Type: " + contentType + "\r\n");
-      responseBuilder.append("\r\n");
-      DataOutputStream output = new DataOutputStream(client.getOutputStream());
-      output.write(responseBuilder.toString().getBytes("UTF-8"));
-      output.write(contentBytes);
+    // Send the response.
+    StringBuilder responseBuilder = new StringBuilder();
+    responseBuilder.append(statusString + "\r\n");
+    responseBuilder.append("Content Lenght: " + contentBytes.length + "\r\n");
+    responseBuilder.append("Content Type: " + contentType + "\r\n");
+    if (partial) {
+      responseBuilder.append("X-Partial-Result: true\r\n");
+    }
+    responseBuilder.append("\r\n");
+    DataOutputStream output = new DataOutputStream(client.getOutputStream());
+    output.write(responseBuilder.toString().getBytes("UTF-8"));
+    output.write(contentBytes);
+
+    output.close();
+    input.close();
+    client.close();
+  }
 
-      output.close();
-      input.close();
-      client.close();
+  /**
+   * Returns the (URL-decoded) value of the given parameter in the given query
+   * string of form "name1=value1&name2=value2".
+   *
+   * @param queryString
+   *        The query string.
+   * @param name
+   *        The name of the parameter.
+   *
+   * @return The value of the parameter; the empty string if there is none.
+   */
+  protected static String getParameter(String queryString, String name) {
+    for (String param : queryString.split("&")) {
+      if (param.startsWith(name + "=")) {
+        return URLDecoder.decode(param.substring(name.length() + 1),
+            StandardCharsets.UTF_8);
+      }
     }
+    return "";
   }
 }
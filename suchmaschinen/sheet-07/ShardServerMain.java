@@ -0,0 +1,329 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A server for one shard of a distributed q-gram index (see
+ * {@link DistributedQGramIndex}). It answers requests over a simple binary
+ * protocol on top of TCP. A request is an operation code followed by its
+ * arguments, the response follows the request on the same connection; a
+ * client may send several requests over one connection:
+ *
+ * <p>INFO: the response is the number of entities and whether synonyms are
+ * indexed (int, boolean).
+ *
+ * <p>FIND_MATCHES (prefix, delta, k as UTF string, int, int): the response is
+ * the number of PED computations and the number of matches, followed by the
+ * matches as quadruples (entityId, PED, synonym, score), all ints.
+ *
+ * <p>GET_ENTITY (entityId as int): the response is whether there is such an
+ * entity, followed by the entity (see {@link #writeEntity}), with its
+ * strings written by {@link #writeString}.
+ *
+ * <p>PRECOMPUTE_MATCHES (prefix, delta as UTF string, int): precomputes the
+ * matches of the hot prefix (see {@link QGramIndex#precomputeMatches}); the
+ * response is true once they are precomputed (boolean).
+ *
+ * <p>A client that sends nothing for CLIENT_TIMEOUT milliseconds is
+ * disconnected.
+ */
+public class ShardServerMain {
+  /**
+   * The operation code of an INFO request.
+   */
+  public static final int INFO = 1;
+
+  /**
+   * The operation code of a FIND_MATCHES request.
+   */
+  public static final int FIND_MATCHES = 2;
+
+  /**
+   * The operation code of a GET_ENTITY request.
+   */
+  public static final int GET_ENTITY = 3;
+
+  /**
+   * The operation code of a PRECOMPUTE_MATCHES request.
+   */
+  public static final int PRECOMPUTE_MATCHES = 4;
+
+  /**
+   * The time in milliseconds a client has to send the next request (or the
+   * rest of a request), so that idle clients do not keep the threads busy.
+   */
+  protected static final int CLIENT_TIMEOUT = 30000;
+
+  /**
+   * The main method.
+   */
+  public static void main(String[] args) throws IOException {
+    // Parse the command line arguments.
+    if (args.length < 2) {
+      System.out.println("java -jar ShardServerMain <port> <file> "
+          + "[--with-synonyms] [--shard <shard> <num-shards>]");
+      System.out.println("If <file> ends with '"
+          + QGramIndex.SNAPSHOT_EXTENSION + "', a saved index is loaded. "
+          + "Otherwise, with --shard, only the given shard (0-based) of the "
+          + "file is indexed.");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+    String fileName = args[1];
+    boolean withSynonyms = false;
+    int shard = 0;
+    int numShards = 1;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("--with-synonyms")) {
+        withSynonyms = true;
+      } else if (args[i].equals("--shard") && i + 2 < args.length) {
+        shard = Integer.parseInt(args[++i]);
+        numShards = Integer.parseInt(args[++i]);
+      }
+    }
+
+    QGramIndex index;
+    if (fileName.endsWith(QGramIndex.SNAPSHOT_EXTENSION)) {
+      index = QGramIndex.load(fileName);
+    } else {
+      index = buildShard(fileName, withSynonyms, shard, numShards);
+    }
+    index.getPrefixTrie();
+    System.out.println("Serving " + index.entities.size()
+        + " entities on port " + port);
+
+    ServerSocket server = new ServerSocket(port);
+    serve(server, index, Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Builds the index of the given shard of the given file. The file is split
+   * into the shards like {@link ShardedQGramIndex} splits it, so that the
+   * entity ids of the shards, appended in order, are those of the whole file.
+   *
+   * @param fileName
+   *        The name of the file.
+   * @param withSynonyms
+   *        The boolean flag that indicates whether to use synonyms or not.
+   * @param shard
+   *        The index of the shard (0-based).
+   * @param numShards
+   *        The number of shards.
+   *
+   * @return The index of the shard; empty if the file has fewer shards.
+   */
+  protected static QGramIndex buildShard(String fileName,
+      boolean withSynonyms, int shard, int numShards) throws IOException {
+    QGramIndex index = new QGramIndex(3, withSynonyms);
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+      long[] bounds = QGramIndex.computeChunkBounds(channel, numShards);
+      if (shard < bounds.length - 1) {
+        index.appendIndex(index.buildFromChunk(channel.map(
+            FileChannel.MapMode.READ_ONLY, bounds[shard],
+            bounds[shard + 1] - bounds[shard]), new EntitySource(fileName),
+            bounds[shard]));
+      }
+    }
+    index.trimLists();
+    return index;
+  }
+
+  /**
+   * Accepts clients on the given server socket and handles them in the given
+   * executor, until the socket is closed.
+   *
+   * @param server
+   *        The server socket.
+   * @param index
+   *        The index of the shard.
+   * @param executor
+   *        The executor to handle the clients in.
+   */
+  public static void serve(ServerSocket server, QGramIndex index,
+      ExecutorService executor) throws IOException {
+    try {
+      while (true) {
+        Socket client = server.accept();
+        executor.execute(() -> {
+          try {
+            handleClient(client, index);
+          } catch (IOException e) {
+            System.err.println("Could not handle request: " + e.getMessage());
+          }
+        });
+      }
+    } catch (SocketException e) {
+      // The server socket was closed.
+      if (!server.isClosed()) {
+        throw e;
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Answers the requests of the given client until it closes the connection.
+   *
+   * @param client
+   *        The client.
+   * @param index
+   *        The index of the shard.
+   */
+  protected static void handleClient(Socket client, QGramIndex index)
+      throws IOException {
+    try (Socket socket = client) {
+      socket.setSoTimeout(CLIENT_TIMEOUT);
+      DataInputStream input = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream()));
+      DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      while (true) {
+        int operation = input.read();
+        if (operation == -1) {
+          return;
+        }
+        if (operation == INFO) {
+          output.writeInt(index.entities.size());
+          output.writeBoolean(index.withSynonyms);
+        } else if (operation == FIND_MATCHES) {
+          String prefix = input.readUTF();
+          int delta = input.readInt();
+          int k = input.readInt();
+          ObjectIntPair<List<Match>> result = index.findMatches(prefix, delta,
+              k);
+          output.writeInt(result.second);
+          output.writeInt(result.first.size());
+          for (Match match : result.first) {
+            output.writeInt(match.entityId);
+            output.writeInt(match.ped);
+            output.writeInt(match.synonym);
+            output.writeInt(match.score);
+          }
+        } else if (operation == GET_ENTITY) {
+          int entityId = input.readInt();
+          boolean found = entityId >= 1 && entityId <= index.entities.size();
+          output.writeBoolean(found);
+          if (found) {
+            writeEntity(output, index.getEntity(entityId));
+          }
+        } else if (operation == PRECOMPUTE_MATCHES) {
+          String prefix = input.readUTF();
+          int delta = input.readInt();
+          index.precomputeMatches(prefix, delta);
+          output.writeBoolean(true);
+        } else {
+          throw new IOException("Unknown operation " + operation);
+        }
+        output.flush();
+      }
+    } catch (EOFException e) {
+      // The client closed the connection in the middle of a request.
+    } catch (SocketTimeoutException e) {
+      // The client was idle for too long.
+    }
+  }
+
+  /**
+   * Writes the given entity to the given stream.
+   *
+   * @param output
+   *        The stream.
+   * @param entity
+   *        The entity.
+   */
+  protected static void writeEntity(DataOutputStream output, Entity entity)
+      throws IOException {
+    writeString(output, entity.name);
+    output.writeInt(entity.score);
+    writeString(output, entity.desc);
+    writeString(output, entity.wikipediaUrl);
+    writeString(output, entity.wikidataId);
+    output.writeInt(entity.synonyms.size());
+    for (String synonym : entity.synonyms) {
+      writeString(output, synonym);
+    }
+  }
+
+  /**
+   * Reads an entity written by {@link #writeEntity} from the given stream.
+   *
+   * @param input
+   *        The stream.
+   *
+   * @return The entity.
+   */
+  protected static Entity readEntity(DataInputStream input)
+      throws IOException {
+    String name = readString(input);
+    int score = input.readInt();
+    String desc = readString(input);
+    String wikipediaUrl = readString(input);
+    String wikidataId = readString(input);
+    int numSynonyms = input.readInt();
+    List<String> synonyms = new ArrayList<>(numSynonyms);
+    for (int i = 0; i < numSynonyms; i++) {
+      synonyms.add(readString(input));
+    }
+    return new Entity(name, score, desc, wikipediaUrl, wikidataId, synonyms);
+  }
+
+  /**
+   * Writes the given string, which may be null, to the given stream: the
+   * number of its UTF-8 bytes (-1 for null) and the bytes. Unlike
+   * {@link DataOutputStream#writeUTF}, it is not limited to 65535 bytes.
+   *
+   * @param output
+   *        The stream.
+   * @param string
+   *        The string; may be null.
+   */
+  protected static void writeString(DataOutputStream output, String string)
+      throws IOException {
+    if (string == null) {
+      output.writeInt(-1);
+      return;
+    }
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /**
+   * Reads a string written by {@link #writeString} from the given stream.
+   *
+   * @param input
+   *        The stream.
+   *
+   * @return The string; may be null.
+   */
+  protected static String readString(DataInputStream input)
+      throws IOException {
+    int length = input.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,260 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A q-gram index whose entities are split into shards by entity id. Each shard
+ * is a q-gram index of its own, with its own inverted lists, prefix trie and
+ * precomputed matches, and holds a contiguous range of entity ids. A query is
+ * run on all shards in parallel (in a fork/join pool) and the k best matches
+ * of the shards are merged by (PED, s).
+ *
+ * <p>The result is the same as the result of the unsharded index: since the
+ * ids of a shard are contiguous, the order of its matches by (PED, s, id) is
+ * the same with local and global ids, so each of the k best matches overall
+ * is among the k best matches of its shard.
+ *
+ * <p>The index cannot be changed after it is built (use a
+ * {@link LiveQGramIndex} on top of it for that), and it cannot be saved.
+ */
+public class ShardedQGramIndex extends QGramIndex {
+  /**
+   * The shards. The entity with local id i in shard j has the id
+   * offsets[j] + i.
+   */
+  protected QGramIndex[] shards;
+
+  /**
+   * The number of entities in the shards before each shard, by shard, and the
+   * total number of entities at the end.
+   */
+  protected int[] offsets;
+
+  /**
+   * The number of shards to build.
+   */
+  protected int numShards;
+
+  /**
+   * The pool to run the queries on the shards in.
+   */
+  protected ForkJoinPool pool;
+
+  /**
+   * Creates an empty sharded q-gram index.
+   *
+   * @param q
+   *        The value of q.
+   * @param withSynonyms
+   *        The boolean flag that indicates whether to use synonyms or not.
+   * @param numShards
+   *        The number of shards.
+   */
+  public ShardedQGramIndex(int q, boolean withSynonyms, int numShards) {
+    super(q, withSynonyms);
+    this.numShards = numShards;
+    this.pool = ForkJoinPool.commonPool();
+    setShards(new ArrayList<>());
+  }
+
+  /**
+   * Sets the shards and makes the entities of all shards the entities of
+   * this index.
+   *
+   * @param shards
+   *        The shards, in the order of their entity ids.
+   */
+  protected void setShards(List<QGramIndex> shards) {
+    this.shards = shards.toArray(new QGramIndex[0]);
+    this.offsets = new int[this.shards.length + 1];
+    for (int i = 0; i < this.shards.length; i++) {
+      this.offsets[i + 1] = this.offsets[i] + this.shards[i].entities.size();
+    }
+    this.entities = new EntityList() {
+      @Override
+      public Entity get(int index) {
+        return getEntity(index + 1);
+      }
+
+      @Override
+      public int getScore(int index) {
+        int shard = findShard(offsets, index + 1);
+        return ShardedQGramIndex.this.shards[shard].entities.getScore(
+            index - offsets[shard]);
+      }
+
+      @Override
+      public String getString(int column, int index) {
+        int shard = findShard(offsets, index + 1);
+        return ShardedQGramIndex.this.shards[shard].entities.getString(
+            column, index - offsets[shard]);
+      }
+
+      @Override
+      public int size() {
+        return offsets[offsets.length - 1];
+      }
+    };
+    this.version = VERSIONS.incrementAndGet();
+  }
+
+  @Override
+  public Entity getEntity(int entityId) {
+    int shard = findShard(this.offsets, entityId);
+    return this.shards[shard].getEntity(entityId - this.offsets[shard]);
+  }
+
+  /**
+   * Returns the shard that holds the entity with the given id (binary search).
+   *
+   * @param offsets
+   *        The number of entities in the shards before each shard, by shard,
+   *        and the total number of entities at the end.
+   * @param entityId
+   *        The id of the entity (1-based).
+   *
+   * @return The index of the shard.
+   */
+  protected static int findShard(int[] offsets, int entityId) {
+    // Find the last shard with an offset smaller than the id.
+    int low = 0;
+    int high = offsets.length - 2;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (offsets[mid] < entityId) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Builds the index from the given file (one line per entity, see ES5), one
+   * shard per chunk of the file (see {@link QGramIndex#buildPartials}), and
+   * the prefix tries of the shards.
+   *
+   * @param fileName
+   *        the name of the file to read.
+   * @param numThreads
+   *        The number of threads to use.
+   */
+  @Override
+  protected void buildFromFile(String fileName, int numThreads) {
+    try {
+      List<QGramIndex> partials = buildPartials(fileName, this.numShards,
+          numThreads);
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      for (QGramIndex partial : partials) {
+        tasks.add(this.pool.submit(() -> {
+          partial.trimLists();
+          partial.getPrefixTrie();
+        }));
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+      setShards(partials);
+    } catch (IOException e) {
+      System.err.println("Could not read \"" + fileName + "\"");
+      e.printStackTrace();
+    } catch (InterruptedException | ExecutionException e) {
+      System.err.println("Could not build index from \"" + fileName + "\"");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Finds the k best entities y with PED(x, y) <= delta in all shards (see
+   * {@link QGramIndex#findMatches(QuerySession, String, int, int)}). The
+   * shards are queried in parallel, the first one in the calling thread. A
+   * session keeps one session per shard.
+   */
+  @Override
+  protected ObjectIntPair<List<Match>> findMatches(QuerySession session,
+      String prefix, int delta, int k, QueryStats stats) {
+    QuerySession[] sessions = new QuerySession[this.shards.length];
+    if (session != null) {
+      if (session.shardSessions == null
+          || session.shardSessions.length != this.shards.length) {
+        session.shardSessions = new QuerySession[this.shards.length];
+        for (int i = 0; i < this.shards.length; i++) {
+          session.shardSessions[i] = new QuerySession();
+        }
+      }
+      sessions = session.shardSessions;
+    }
+
+    // Scatter the query to the shards, each with statistics of its own. The
+    // shards run in parallel, so the time until all shards answered is the
+    // fetch time of the query, and their phase times are kept apart.
+    long start = System.nanoTime();
+    QueryStats[] shardStats = new QueryStats[this.shards.length];
+    shardStats[0] = new QueryStats();
+    List<ForkJoinTask<ObjectIntPair<List<Match>>>> tasks = new ArrayList<>();
+    for (int i = 1; i < this.shards.length; i++) {
+      QGramIndex shard = this.shards[i];
+      QuerySession shardSession = sessions[i];
+      QueryStats statsOfShard = new QueryStats();
+      shardStats[i] = statsOfShard;
+      tasks.add(this.pool.submit(() -> shard.findMatches(shardSession,
+          prefix, delta, k, statsOfShard)));
+    }
+
+    // Gather the matches with their global ids.
+    List<Match> matches = new ArrayList<>();
+    int numPedComputations = 0;
+    for (int i = 0; i < this.shards.length; i++) {
+      ObjectIntPair<List<Match>> result = i == 0
+          ? this.shards[0].findMatches(sessions[0], prefix, delta, k,
+              shardStats[0])
+          : tasks.get(i - 1).join();
+      numPedComputations += result.second;
+      stats.addShard(shardStats[i]);
+      for (Match match : result.first) {
+        matches.add(new Match(this.offsets[i] + match.entityId, match.ped,
+            match.synonym, match.score));
+      }
+    }
+
+    start = stats.endPhase(QueryStats.FETCH, start);
+    matches = rankMatches(matches);
+    if (matches.size() > k) {
+      matches = new ArrayList<>(matches.subList(0, k));
+    }
+    stats.numMatches += matches.size();
+    stats.endPhase(QueryStats.RANK, start);
+    return new ObjectIntPair<>(matches, numPedComputations);
+  }
+
+  /**
+   * Precomputes the best matches of the given hot prefix in each shard (see
+   * {@link QGramIndex#precomputeMatches}).
+   */
+  @Override
+  public void precomputeMatches(String prefix, int delta) {
+    for (QGramIndex shard : this.shards) {
+      shard.precomputeMatches(prefix, delta);
+    }
+  }
+
+  @Override
+  protected int addEntity(Entity entity) {
+    throw new UnsupportedOperationException(
+        "A sharded index cannot be changed");
+  }
+
+  @Override
+  public void save(String fileName) throws IOException {
+    throw new UnsupportedOperationException(
+        "A sharded index cannot be saved");
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+
+/**
+ * One unit test for each non-trivial method in the ShardedQGramIndex class.
+ */
+public class ShardedQGramIndexTest {
+  @Test
+  public void testBuildFromFile() {
+    // The file is split into chunks of about equal size in bytes, but a
+    // shard holds at least one line.
+    ShardedQGramIndex qgi = new ShardedQGramIndex(3, true, 3);
+    qgi.buildFromFile("example.tsv");
+    Assert.assertEquals(2, qgi.shards.length);
+    Assert.assertEquals("[0, 1, 2]", Arrays.toString(qgi.offsets));
+    Assert.assertEquals(2, qgi.entities.size());
+    Assert.assertEquals("frei", qgi.getEntity(1).name);
+    Assert.assertEquals("brei", qgi.getEntity(2).name);
+  }
+
+  @Test
+  public void testFindMatches() {
+    QGramIndex expected = new QGramIndex(3, true);
+    expected.buildFromFile("example.tsv");
+    ShardedQGramIndex qgi = new ShardedQGramIndex(3, true, 3);
+    qgi.buildFromFile("example.tsv");
+
+    Assert.assertEquals("[Match(1, ped=0), Match(2, ped=1)]",
+        qgi.findMatches("frei", 1).first.toString());
+    Assert.assertEquals("[Match(1, ped=0)]",
+        qgi.findMatches("frei", 1, 1).first.toString());
+    for (String prefix : new String[] {"", "b", "fr", "brei", "fre", "free"}) {
+      for (int delta = 0; delta <= 2; delta++) {
+        Assert.assertEquals(
+            expected.findMatches(prefix, delta).first.toString(),
+            qgi.findMatches(prefix, delta).first.toString());
+      }
+    }
+
+    // The sizes are the sums of those of the shards, and the time until all
+    // shards answered is the fetch time.
+    QueryStats stats = new QueryStats();
+    qgi.findMatches(null, "frei", 1, 2, stats);
+    QueryStats expectedStats = new QueryStats();
+    expected.findMatches(null, "frei", 1, 2, expectedStats);
+    Assert.assertEquals(expectedStats.numPostings, stats.numPostings);
+    Assert.assertEquals(2, stats.numMatches);
+    Assert.assertEquals(0, stats.phaseNanos[QueryStats.VERIFY]);
+    Assert.assertTrue(stats.phaseNanos[QueryStats.FETCH]
+        >= stats.shardPhaseNanos[QueryStats.VERIFY] / qgi.shards.length);
+
+    // A session keeps one session per shard.
+    QuerySession session = new QuerySession();
+    qgi.findMatches(session, "br", 1, 5);
+    Assert.assertEquals("[Match(2, ped=0), Match(1, ped=1)]",
+        qgi.findMatches(session, "brei", 1, 5).first.toString());
+    Assert.assertEquals(2, session.shardSessions.length);
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * A read-only view of a binary index snapshot written by a
+ * {@link SnapshotWriter}. The file is memory-mapped in windows of
+ * {@link SnapshotWriter#WINDOW_SIZE} bytes, so loading costs no more than
+ * mapping the file; the data is paged in by the operating system on first
+ * access. All methods use absolute reads and can be called from several
+ * threads at once.
+ */
+public class SnapshotReader {
+  /**
+   * The mapped windows of the file.
+   */
+  protected ByteBuffer[] windows;
+
+  /**
+   * Maps the given file.
+   *
+   * @param fileName
+   *        The name of the file to map.
+   */
+  public SnapshotReader(String fileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+      long size = channel.size();
+      int numWindows = (int) ((size + SnapshotWriter.WINDOW_SIZE - 1)
+          / SnapshotWriter.WINDOW_SIZE);
+      this.windows = new ByteBuffer[numWindows];
+      for (int i = 0; i < numWindows; i++) {
+        long start = i * SnapshotWriter.WINDOW_SIZE;
+        this.windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(SnapshotWriter.WINDOW_SIZE, size - start));
+      }
+    }
+  }
+
+  /**
+   * Returns the integer at the given position.
+   *
+   * @param position
+   *        The position in the file.
+   *
+   * @return The integer at the given position.
+   */
+  public int getInt(long position) {
+    return window(position).getInt(offset(position));
+  }
+
+  /**
+   * Returns the long at the given position.
+   *
+   * @param position
+   *        The position in the file.
+   *
+   * @return The long at the given position.
+   */
+  public long getLong(long position) {
+    return window(position).getLong(offset(position));
+  }
+
+  /**
+   * Returns the string at the given position, as written by
+   * {@link SnapshotWriter#writeString}.
+   *
+   * @param position
+   *        The position in the file.
+   *
+   * @return The string at the given position, may be null.
+   */
+  public String getString(long position) {
+    int length = getInt(position);
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    window(position).get(offset(position) + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a view of the given number of integers at the given position.
+   *
+   * @param position
+   *        The position in the file.
+   * @param length
+   *        The number of integers.
+   *
+   * @return The view of the integers.
+   */
+  public IntBuffer getInts(long position, int length) {
+    return window(position).slice(offset(position), 4 * length)
+        .asIntBuffer();
+  }
+
+  /**
+   * Returns the window that contains the given position.
+   *
+   * @param position
+   *        The position in the file.
+   *
+   * @return The window.
+   */
+  protected ByteBuffer window(long position) {
+    return this.windows[(int) (position / SnapshotWriter.WINDOW_SIZE)];
+  }
+
+  /**
+   * Returns the offset of the given position within its window.
+   *
+   * @param position
+   *        The position in the file.
+   *
+   * @return The offset within the window.
+   */
+  protected static int offset(long position) {
+    return (int) (position % SnapshotWriter.WINDOW_SIZE);
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffered writer for binary index snapshots. The file is read back by a
+ * {@link SnapshotReader}, which maps it in windows of {@link #WINDOW_SIZE}
+ * bytes. The writer makes sure that no item (a number, a string, a list)
+ * crosses the boundary of a window, so that each item can be read from a
+ * single mapped buffer.
+ */
+public class SnapshotWriter implements Closeable {
+  /**
+   * The size of a window in bytes (a mapped buffer can hold at most 2 GB).
+   */
+  public static final long WINDOW_SIZE = 1L << 30;
+
+  /**
+   * The channel of the file to write.
+   */
+  protected FileChannel channel;
+
+  /**
+   * The buffer for the bytes not yet written to the channel.
+   */
+  protected ByteBuffer buffer;
+
+  /**
+   * Creates a new writer that writes to the given file. The first headerSize
+   * bytes of the file are reserved for a header, see {@link #writeHeader}.
+   *
+   * @param fileName
+   *        The name of the file to write.
+   * @param headerSize
+   *        The size of the header in bytes.
+   */
+  public SnapshotWriter(String fileName, int headerSize) throws IOException {
+    this.channel = FileChannel.open(Paths.get(fileName),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = ByteBuffer.allocate(1 << 20);
+    this.buffer.put(new byte[headerSize]);
+  }
+
+  /**
+   * Returns the position of the next byte to write.
+   *
+   * @return The position of the next byte to write.
+   */
+  public long position() throws IOException {
+    return this.channel.position() + this.buffer.position();
+  }
+
+  /**
+   * Makes sure that an item of the given size can be written without crossing
+   * the boundary of a window, by padding up to the next window if necessary.
+   *
+   * @param size
+   *        The size of the item in bytes.
+   *
+   * @return The position of the item.
+   */
+  public long reserve(long size) throws IOException {
+    if (size > WINDOW_SIZE) {
+      throw new IOException("Item of " + size + " bytes exceeds window size.");
+    }
+    long position = position();
+    if (size > 0 && position / WINDOW_SIZE
+        != (position + size - 1) / WINDOW_SIZE) {
+      // Skip the rest of the window (the skipped bytes read as zeros).
+      flush();
+      position += WINDOW_SIZE - position % WINDOW_SIZE;
+      this.channel.position(position);
+    }
+    return position;
+  }
+
+  /**
+   * Writes the given integer.
+   *
+   * @param value
+   *        The integer to write.
+   */
+  public void writeInt(int value) throws IOException {
+    ensureCapacity(4);
+    this.buffer.putInt(value);
+  }
+
+  /**
+   * Writes the given long.
+   *
+   * @param value
+   *        The long to write.
+   */
+  public void writeLong(long value) throws IOException {
+    ensureCapacity(8);
+    this.buffer.putLong(value);
+  }
+
+  /**
+   * Writes the given string as its length in bytes followed by its UTF-8
+   * bytes, without crossing the boundary of a window. A null string is written
+   * as length -1.
+   *
+   * @param string
+   *        The string to write, may be null.
+   *
+   * @return The position of the string.
+   */
+  public long writeString(String string) throws IOException {
+    if (string == null) {
+      long position = reserve(4);
+      writeInt(-1);
+      return position;
+    }
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    long position = reserve(4 + bytes.length);
+    writeInt(bytes.length);
+    for (int i = 0; i < bytes.length; i += this.buffer.capacity()) {
+      int length = Math.min(bytes.length - i, this.buffer.capacity());
+      ensureCapacity(length);
+      this.buffer.put(bytes, i, length);
+    }
+    return position;
+  }
+
+  /**
+   * Writes the given header to the start of the file.
+   *
+   * @param header
+   *        The header, with its position at the end of the header data.
+   */
+  public void writeHeader(ByteBuffer header) throws IOException {
+    flush();
+    header.flip();
+    long position = 0;
+    while (header.hasRemaining()) {
+      position += this.channel.write(header, position);
+    }
+  }
+
+  /**
+   * Writes all buffered bytes to the channel.
+   */
+  protected void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+
+  /**
+   * Makes sure that the buffer has room for the given number of bytes.
+   *
+   * @param numBytes
+   *        The number of bytes.
+   */
+  protected void ensureCapacity(int numBytes) throws IOException {
+    if (this.buffer.remaining() < numBytes) {
+      flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    this.channel.close();
+  }
+}
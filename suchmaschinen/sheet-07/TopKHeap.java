@@ -0,0 +1,291 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+/**
+ * A bounded heap that keeps the k best matches of a query, ranked by
+ * (PED, s), where s is the popularity score of an entity. Ties are broken by
+ * the entity id (smaller ids first), which is the order of a stable sort of
+ * the matches in the order of their ids. The matches are stored as plain
+ * integers, so a match that does not make it into the top-k costs no objects.
+ */
+public class TopKHeap {
+  /**
+   * The maximum number of matches to keep.
+   */
+  protected int k;
+
+  /**
+   * The entity ids of the matches, in heap order (worst match first).
+   */
+  protected int[] ids;
+
+  /**
+   * The PEDs of the matches.
+   */
+  protected int[] peds;
+
+  /**
+   * The scores of the matches.
+   */
+  protected int[] scores;
+
+  /**
+   * The indexes of the matched synonyms (-1 if the name matched).
+   */
+  protected int[] synonyms;
+
+  /**
+   * The number of matches in this heap.
+   */
+  protected int size;
+
+  /**
+   * Creates an empty heap.
+   *
+   * @param k
+   *        The maximum number of matches to keep.
+   */
+  public TopKHeap(int k) {
+    this.k = k;
+    int capacity = Math.max(Math.min(k, 16), 1);
+    this.ids = new int[capacity];
+    this.peds = new int[capacity];
+    this.scores = new int[capacity];
+    this.synonyms = new int[capacity];
+  }
+
+  /**
+   * Returns the largest PED a new match with the given score must not exceed
+   * to make it into the top-k. The new match must have a larger id than all
+   * matches in this heap.
+   *
+   * @param score
+   *        The score of the new match.
+   * @param delta
+   *        The largest PED of a match.
+   *
+   * @return The bound for the PED of the new match; -1 if the new match cannot
+   *         make it into the top-k at all.
+   */
+  public int pedBound(int score, int delta) {
+    return pedBound(Integer.MAX_VALUE, score, delta);
+  }
+
+  /**
+   * Returns the largest PED a new match with the given id and score must not
+   * exceed to make it into the top-k.
+   *
+   * @param id
+   *        The entity id of the new match.
+   * @param score
+   *        The score of the new match.
+   * @param delta
+   *        The largest PED of a match.
+   *
+   * @return The bound for the PED of the new match; -1 if the new match cannot
+   *         make it into the top-k at all.
+   */
+  public int pedBound(int id, int score, int delta) {
+    if (this.size < this.k) {
+      return delta;
+    }
+    if (this.k == 0) {
+      return -1;
+    }
+    // On equal PEDs, the new match must rank before the worst match.
+    int bound = compare(this.peds[0], score, id, 0) < 0 ? this.peds[0]
+        : this.peds[0] - 1;
+    return Math.min(bound, delta);
+  }
+
+  /**
+   * Adds the given match if it is among the k best matches seen so far.
+   *
+   * @param id
+   *        The entity id.
+   * @param ped
+   *        The PED.
+   * @param score
+   *        The score of the entity.
+   * @param synonym
+   *        The index of the matched synonym (-1 if the name matched).
+   */
+  public void offer(int id, int ped, int score, int synonym) {
+    if (this.size < this.k) {
+      if (this.size == this.ids.length) {
+        int capacity = (int) Math.min(2L * this.size, this.k);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.peds = Arrays.copyOf(this.peds, capacity);
+        this.scores = Arrays.copyOf(this.scores, capacity);
+        this.synonyms = Arrays.copyOf(this.synonyms, capacity);
+      }
+      set(this.size, id, ped, score, synonym);
+      this.size++;
+      siftUp(this.size - 1);
+    } else if (this.k > 0 && compare(ped, score, id, 0) < 0) {
+      // Replace the worst match.
+      set(0, id, ped, score, synonym);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Adds the matches of the given heap that are among the k best matches seen
+   * so far (see {@link #offer}).
+   *
+   * @param other
+   *        The other heap, for example of another range of candidates.
+   */
+  public void offerAll(TopKHeap other) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.ids[i], other.peds[i], other.scores[i], other.synonyms[i]);
+    }
+  }
+
+  /**
+   * Sorts the matches in this heap from the best to the worst match (heap
+   * sort). Afterwards the heap is empty, but the first n entries of the arrays
+   * hold the sorted matches until the next call of {@link #offer}.
+   *
+   * @return The number n of sorted matches.
+   */
+  public int sort() {
+    int n = this.size;
+    while (this.size > 1) {
+      // Move the worst match behind the heap.
+      swap(0, this.size - 1);
+      this.size--;
+      siftDown(0);
+    }
+    this.size = 0;
+    return n;
+  }
+
+  /**
+   * Returns the number of matches in this heap.
+   *
+   * @return The number of matches.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Compares the given match with the match at position i.
+   *
+   * @param ped
+   *        The PED of the match.
+   * @param score
+   *        The score of the match.
+   * @param id
+   *        The entity id of the match.
+   * @param i
+   *        The position of the other match.
+   *
+   * @return A negative value if the given match ranks before the other match,
+   *         a positive value if it ranks after it, and 0 if both are equal.
+   */
+  protected int compare(int ped, int score, int id, int i) {
+    if (ped != this.peds[i]) {
+      return Integer.compare(ped, this.peds[i]);
+    }
+    if (score != this.scores[i]) {
+      return Integer.compare(this.scores[i], score);
+    }
+    return Integer.compare(id, this.ids[i]);
+  }
+
+  /**
+   * Compares the matches at the positions i and j.
+   *
+   * @param i
+   *        The position of the first match.
+   * @param j
+   *        The position of the second match.
+   *
+   * @return A negative value if the first match ranks before the second match.
+   */
+  protected int compare(int i, int j) {
+    return compare(this.peds[i], this.scores[i], this.ids[i], j);
+  }
+
+  /**
+   * Moves the match at position i up until its parent ranks after it.
+   *
+   * @param i
+   *        The position of the match.
+   */
+  protected void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (compare(i, parent) <= 0) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  /**
+   * Moves the match at position i down until both children rank before it.
+   *
+   * @param i
+   *        The position of the match.
+   */
+  protected void siftDown(int i) {
+    while (2 * i + 1 < this.size) {
+      int child = 2 * i + 1;
+      if (child + 1 < this.size && compare(child + 1, child) > 0) {
+        child++;
+      }
+      if (compare(child, i) <= 0) {
+        break;
+      }
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  /**
+   * Sets the match at position i.
+   *
+   * @param i
+   *        The position.
+   * @param id
+   *        The entity id.
+   * @param ped
+   *        The PED.
+   * @param score
+   *        The score.
+   * @param synonym
+   *        The index of the matched synonym.
+   */
+  protected void set(int i, int id, int ped, int score, int synonym) {
+    this.ids[i] = id;
+    this.peds[i] = ped;
+    this.scores[i] = score;
+    this.synonyms[i] = synonym;
+  }
+
+  /**
+   * Swaps the matches at the positions i and j.
+   *
+   * @param i
+   *        The first position.
+   * @param j
+   *        The second position.
+   */
+  protected void swap(int i, int j) {
+    int id = this.ids[i];
+    int ped = this.peds[i];
+    int score = this.scores[i];
+    int synonym = this.synonyms[i];
+    set(i, this.ids[j], this.peds[j], this.scores[j], this.synonyms[j]);
+    set(j, id, ped, score, synonym);
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+/**
+ * The work of the earlier levels of a progressive search (see
+ * {@link QGramIndex#findMatchesAtLevel}): the PEDs of the variants verified so
+ * far and the entities offered to the heap so far, so that the later levels
+ * neither compute a PED twice nor offer an entity twice. The candidates of a
+ * level include those of the earlier levels, since the filters get weaker
+ * with each level.
+ *
+ * <p>A level reads what the earlier levels recorded and records what it
+ * verifies and offers itself; {@link #endLevel} makes the records of a level
+ * visible to the next one. The ranges of a level that are verified in
+ * parallel record into forks of their own (see {@link #fork}), which are
+ * added back afterwards.
+ */
+public class VerifiedVariants {
+  /**
+   * The verified variants of the earlier levels, sorted, as longs of the form
+   * (variantId << 32) | PED.
+   */
+  protected long[] variants = new long[0];
+
+  /**
+   * The ids of the entities offered by the earlier levels, sorted.
+   */
+  protected long[] entities = new long[0];
+
+  /**
+   * The variants verified by this level, in the form of {@link #variants},
+   * in any order.
+   */
+  protected long[] newVariants = new long[16];
+
+  /**
+   * The number of variants verified by this level.
+   */
+  protected int numNewVariants;
+
+  /**
+   * The ids of the entities offered by this level, in any order.
+   */
+  protected long[] newEntities = new long[16];
+
+  /**
+   * The number of entities offered by this level.
+   */
+  protected int numNewEntities;
+
+  /**
+   * Returns the PED of the given variant as computed by an earlier level.
+   * Like the result of {@link QGramIndex#prefixEditDistance}, a PED above the
+   * bound it was computed with only tells that the variant did not match.
+   *
+   * @param variantId
+   *        The id of the variant.
+   *
+   * @return The PED; -1 if no earlier level verified the variant.
+   */
+  public int getPed(int variantId) {
+    int low = 0;
+    int high = this.variants.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int id = (int) (this.variants[mid] >>> 32);
+      if (id < variantId) {
+        low = mid + 1;
+      } else if (id > variantId) {
+        high = mid - 1;
+      } else {
+        return (int) this.variants[mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns whether an earlier level offered the given entity to the heap.
+   *
+   * @param entityId
+   *        The id of the entity.
+   *
+   * @return True if the entity was offered.
+   */
+  public boolean isOffered(int entityId) {
+    return Arrays.binarySearch(this.entities, entityId) >= 0;
+  }
+
+  /**
+   * Records that this level verified the given variant.
+   *
+   * @param variantId
+   *        The id of the variant.
+   * @param ped
+   *        The PED, not negative.
+   */
+  public void addVariant(int variantId, int ped) {
+    if (this.numNewVariants == this.newVariants.length) {
+      this.newVariants = Arrays.copyOf(this.newVariants,
+          2 * this.numNewVariants);
+    }
+    this.newVariants[this.numNewVariants++] = (long) variantId << 32 | ped;
+  }
+
+  /**
+   * Records that this level offered the given entity to the heap.
+   *
+   * @param entityId
+   *        The id of the entity.
+   */
+  public void addEntity(int entityId) {
+    if (this.numNewEntities == this.newEntities.length) {
+      this.newEntities = Arrays.copyOf(this.newEntities,
+          2 * this.numNewEntities);
+    }
+    this.newEntities[this.numNewEntities++] = entityId;
+  }
+
+  /**
+   * Returns a fork for a range of this level, which reads the records of the
+   * earlier levels and records into buffers of its own.
+   *
+   * @return The fork.
+   */
+  public VerifiedVariants fork() {
+    VerifiedVariants fork = new VerifiedVariants();
+    fork.variants = this.variants;
+    fork.entities = this.entities;
+    return fork;
+  }
+
+  /**
+   * Adds the records of the given fork to the records of this level.
+   *
+   * @param fork
+   *        The fork.
+   */
+  public void addAll(VerifiedVariants fork) {
+    for (int i = 0; i < fork.numNewVariants; i++) {
+      addVariant((int) (fork.newVariants[i] >>> 32),
+          (int) fork.newVariants[i]);
+    }
+    for (int i = 0; i < fork.numNewEntities; i++) {
+      addEntity((int) fork.newEntities[i]);
+    }
+  }
+
+  /**
+   * Ends this level: the records of this level are merged into those of the
+   * earlier levels.
+   */
+  public void endLevel() {
+    this.variants = merge(this.variants, this.newVariants,
+        this.numNewVariants);
+    this.numNewVariants = 0;
+    this.entities = merge(this.entities, this.newEntities,
+        this.numNewEntities);
+    this.numNewEntities = 0;
+  }
+
+  /**
+   * Merges the given sorted array with the first n elements of the given
+   * unsorted array, which are sorted in place.
+   *
+   * @param sorted
+   *        The sorted array.
+   * @param unsorted
+   *        The unsorted array.
+   * @param n
+   *        The number of elements of the unsorted array.
+   *
+   * @return The merged array.
+   */
+  protected static long[] merge(long[] sorted, long[] unsorted, int n) {
+    Arrays.sort(unsorted, 0, n);
+    long[] merged = new long[sorted.length + n];
+    int i = 0;
+    int j = 0;
+    int m = 0;
+    while (i < sorted.length || j < n) {
+      if (j == n || i < sorted.length && sorted[i] < unsorted[j]) {
+        merged[m++] = sorted[i++];
+      } else {
+        merged[m++] = unsorted[j++];
+      }
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+
+/**
+ * One unit test for each non-trivial method in the VerifiedVariants class.
+ */
+public class VerifiedVariantsTest {
+  @Test
+  public void testEndLevel() {
+    VerifiedVariants verified = new VerifiedVariants();
+    verified.addVariant(5, 2);
+    verified.addVariant(3, 0);
+    verified.addEntity(2);
+    // The records of a level are only visible to the next level.
+    Assert.assertEquals(-1, verified.getPed(3));
+    Assert.assertFalse(verified.isOffered(2));
+    verified.endLevel();
+    Assert.assertEquals(0, verified.getPed(3));
+    Assert.assertEquals(2, verified.getPed(5));
+    Assert.assertEquals(-1, verified.getPed(4));
+    Assert.assertTrue(verified.isOffered(2));
+    Assert.assertFalse(verified.isOffered(1));
+  }
+
+  @Test
+  public void testAddAll() {
+    VerifiedVariants verified = new VerifiedVariants();
+    verified.addVariant(1, 1);
+    verified.endLevel();
+    VerifiedVariants fork = verified.fork();
+    Assert.assertEquals(1, fork.getPed(1));
+    fork.addVariant(7, 3);
+    fork.addEntity(4);
+    verified.addAll(fork);
+    verified.endLevel();
+    Assert.assertEquals(3, verified.getPed(7));
+    Assert.assertTrue(verified.isOffered(4));
+  }
+
+  @Test
+  public void testMerge() {
+    long[] unsorted = {9, 2, 6, 0};
+    Assert.assertEquals("[1, 2, 5, 6, 9]", Arrays.toString(
+        VerifiedVariants.merge(new long[] {1, 5}, unsorted, 3)));
+  }
+}
@@ -0,0 +1,438 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A word-level index of the entities of a q-gram index, which answers
+ * multi-word queries. The normalized words of the names (and synonyms) of the
+ * entities are kept in a q-gram index of their own, one entity per distinct
+ * word, and each word has the sorted list of the ids of the entities that
+ * contain it.
+ *
+ * <p>Each word x of a query is fuzzy-matched against the words, that is, all
+ * words y with PED(x, y) <= delta are found, and the entity lists of the
+ * matched words are merged into one list of (entityId, PED) pairs per query
+ * word, with the smallest PED of the words of an entity. The lists of the
+ * query words are then intersected, shortest first. The intersection only
+ * holds the candidates: the words of an entity may match the query words
+ * from different variants, or one word several query words. So each query
+ * word is aligned with a distinct word of one variant of a candidate, by the
+ * PEDs of the matched words, and the candidate matches with the smallest sum
+ * of the PEDs of an alignment. The query words may appear in any order. A
+ * matching name takes precedence over the synonyms, like in the q-gram
+ * index.
+ */
+public class WordIndex {
+  /**
+   * The maximum number of words of a query; the later words are ignored, so
+   * that the alignments stay cheap (see {@link #alignWords(int[][])}).
+   */
+  public static final int MAX_QUERY_WORDS = 8;
+  /**
+   * The version of the index the word index was built from.
+   */
+  protected long version;
+
+  /**
+   * The distinct words, each as an entity with score 0. The id of a word is
+   * its entity id.
+   */
+  protected QGramIndex words;
+
+  /**
+   * The ids of the entities that contain word i are the entity ids at the
+   * positions wordStart[i - 1], ..., wordStart[i] - 1 of wordEntityIds, in
+   * ascending order.
+   */
+  protected int[] wordStart;
+
+  /**
+   * The entity ids, by word (see above).
+   */
+  protected int[] wordEntityIds;
+
+  /**
+   * The variants of entity i are the variants entityVariantStart[i - 1], ...,
+   * entityVariantStart[i] - 1, the name first and then the synonyms (if the
+   * index has synonyms).
+   */
+  protected int[] entityVariantStart;
+
+  /**
+   * The ids of the words of variant j are the word ids at the positions
+   * variantWordStart[j], ..., variantWordStart[j + 1] - 1 of variantWordIds,
+   * in the order of the words, with repetitions.
+   */
+  protected int[] variantWordStart;
+
+  /**
+   * The word ids, by variant (see above).
+   */
+  protected int[] variantWordIds;
+
+  /**
+   * The scores of the entities, by entity id - 1.
+   */
+  protected int[] scores;
+
+  /**
+   * Builds the word index of the given index.
+   *
+   * @param index
+   *        The index.
+   * @param numEntities
+   *        The largest entity id of the index.
+   */
+  public WordIndex(QGramIndex index, int numEntities) {
+    this.version = index.version;
+    this.words = new QGramIndex(index.q, false);
+
+    // Split the names (and synonyms) of the entities into words, and collect
+    // the word ids of each variant and the distinct word ids of each entity.
+    this.scores = new int[numEntities];
+    Map<String, Integer> wordIds = new HashMap<>();
+    int[] entityStart = new int[numEntities + 1];
+    int[] entityWordIds = new int[16];
+    int n = 0;
+    this.entityVariantStart = new int[numEntities + 1];
+    this.variantWordStart = new int[16];
+    this.variantWordIds = new int[16];
+    int numVariants = 0;
+    int numVariantWords = 0;
+    for (int i = 0; i < numEntities; i++) {
+      // Read only the columns needed, not the entity with all its fields.
+      String name = index.entities.getString(EntityList.NAME, i);
+      List<String> strings = new ArrayList<>();
+      if (name != null) { // Deleted or unavailable entities are null.
+        this.scores[i] = index.entities.getScore(i);
+        strings.add(name);
+        String synonyms = index.entities.getString(EntityList.SYNONYMS, i);
+        if (index.withSynonyms && !synonyms.isEmpty()) {
+          strings.addAll(Arrays.asList(
+              synonyms.split(EntityList.SYNONYM_SEPARATOR)));
+        }
+      }
+      for (String string : strings) {
+        if (numVariants + 1 == this.variantWordStart.length) {
+          this.variantWordStart = Arrays.copyOf(this.variantWordStart,
+              2 * this.variantWordStart.length);
+        }
+        this.variantWordStart[numVariants++] = numVariantWords;
+        for (String word : splitWords(string)) {
+          Integer wordId = wordIds.get(word);
+          if (wordId == null) {
+            wordId = this.words.addEntity(new Entity(word, 0));
+            wordIds.put(word, wordId);
+          }
+          if (numVariantWords == this.variantWordIds.length) {
+            this.variantWordIds = Arrays.copyOf(this.variantWordIds,
+                2 * numVariantWords);
+          }
+          this.variantWordIds[numVariantWords++] = wordId;
+          // Each word only once per entity.
+          boolean seen = false;
+          for (int j = entityStart[i]; j < n && !seen; j++) {
+            seen = entityWordIds[j] == wordId;
+          }
+          if (!seen) {
+            if (n == entityWordIds.length) {
+              entityWordIds = Arrays.copyOf(entityWordIds, 2 * n);
+            }
+            entityWordIds[n++] = wordId;
+          }
+        }
+      }
+      entityStart[i + 1] = n;
+      this.entityVariantStart[i + 1] = numVariants;
+    }
+    this.variantWordStart[numVariants] = numVariantWords;
+    this.variantWordStart = Arrays.copyOf(this.variantWordStart,
+        numVariants + 1);
+    this.variantWordIds = Arrays.copyOf(this.variantWordIds,
+        numVariantWords);
+    this.words.trimLists();
+
+    // Invert the word ids of the entities. The entities are visited in
+    // ascending order, so the entity ids of each word are sorted.
+    int numWords = wordIds.size();
+    this.wordStart = new int[numWords + 1];
+    for (int j = 0; j < n; j++) {
+      this.wordStart[entityWordIds[j]]++;
+    }
+    for (int i = 1; i <= numWords; i++) {
+      this.wordStart[i] += this.wordStart[i - 1];
+    }
+    this.wordEntityIds = new int[n];
+    int[] next = Arrays.copyOf(this.wordStart, numWords);
+    for (int i = 0; i < numEntities; i++) {
+      for (int j = entityStart[i]; j < entityStart[i + 1]; j++) {
+        this.wordEntityIds[next[entityWordIds[j] - 1]++] = i + 1;
+      }
+    }
+  }
+
+  /**
+   * Finds the k best entities with a variant whose words match the words x of
+   * the given query, each query word a distinct word y of the variant with
+   * PED(x, y) <= delta, ranked by (PED, s), where PED is the sum of the PEDs
+   * of the query words.
+   *
+   * @param query
+   *        The query, with one or more words; only the first
+   *        MAX_QUERY_WORDS words are matched.
+   * @param delta
+   *        The value of delta, for each word.
+   * @param k
+   *        The maximum number of matches to return.
+   * @return A pair (matches, numPEDComputations), where 'matches' is the list
+   *         of the k best matches and 'numPEDComputations' is the number of
+   *         PED computations needed to compute the matches.
+   */
+  public ObjectIntPair<List<Match>> findMatches(String query, int delta,
+      int k) {
+    List<String> queryWords = splitWords(query);
+    if (queryWords.size() > MAX_QUERY_WORDS) {
+      queryWords = queryWords.subList(0, MAX_QUERY_WORDS);
+    }
+    int numPedComputations = 0;
+
+    // Compute the (entityId, PED) list of each query word, and the PEDs of
+    // its matched words, by word id.
+    List<List<IntIntPair>> lists = new ArrayList<>();
+    List<Map<Integer, Integer>> wordPeds = new ArrayList<>();
+    for (String word : queryWords) {
+      ObjectIntPair<List<Match>> result = this.words.findMatches(null, word,
+          delta, Integer.MAX_VALUE);
+      numPedComputations += result.second;
+      Map<Integer, Integer> peds = new HashMap<>();
+      for (Match match : result.first) {
+        peds.put(match.entityId, match.ped);
+      }
+      wordPeds.add(peds);
+      lists.add(mergeEntityLists(result.first));
+    }
+
+    // Intersect the lists, shortest first.
+    lists.sort((list1, list2) -> Integer.compare(list1.size(),
+        list2.size()));
+    List<IntIntPair> entities = lists.isEmpty() ? new ArrayList<>()
+        : lists.get(0);
+    for (int i = 1; i < lists.size() && !entities.isEmpty(); i++) {
+      entities = intersect(entities, lists.get(i));
+    }
+
+    // Align the query words with the variants of the entities in the
+    // intersection, and rank the entities that match.
+    TopKHeap topK = new TopKHeap(k);
+    for (IntIntPair entity : entities) {
+      int id = entity.first;
+      int score = this.scores[id - 1];
+      // The sum in the intersection is a lower bound for the PED.
+      if (topK.pedBound(id, score, Integer.MAX_VALUE) < entity.second) {
+        continue;
+      }
+      int from = this.entityVariantStart[id - 1];
+      int to = this.entityVariantStart[id];
+      int bestPed = -1;
+      int bestSynonym = -1;
+      for (int j = from; j < to; j++) {
+        int ped = alignWords(wordPeds, j);
+        if (ped >= 0 && (bestPed < 0 || ped < bestPed)) {
+          bestPed = ped;
+          bestSynonym = j - from - 1;
+        }
+        if (j == from && ped >= 0) {
+          break; // The name takes precedence over the synonyms.
+        }
+      }
+      if (bestPed >= 0) {
+        topK.offer(id, bestPed, score, bestSynonym);
+      }
+    }
+    int numMatches = topK.sort();
+    List<Match> matches = new ArrayList<>(numMatches);
+    for (int i = 0; i < numMatches; i++) {
+      matches.add(new Match(topK.ids[i], topK.peds[i], topK.synonyms[i],
+          topK.scores[i]));
+    }
+    return new ObjectIntPair<>(matches, numPedComputations);
+  }
+
+  /**
+   * Aligns the query words with distinct words of the given variant.
+   *
+   * @param wordPeds
+   *        The PEDs of the matched words of each query word, by word id.
+   * @param variant
+   *        The index of the variant (see {@link #variantWordStart}).
+   *
+   * @return The smallest sum of the PEDs of an alignment; -1 if the query
+   *         words cannot be aligned.
+   */
+  protected int alignWords(List<Map<Integer, Integer>> wordPeds,
+      int variant) {
+    int from = this.variantWordStart[variant];
+    int to = this.variantWordStart[variant + 1];
+    int[][] peds = new int[wordPeds.size()][to - from];
+    for (int i = 0; i < peds.length; i++) {
+      for (int j = from; j < to; j++) {
+        Integer ped = wordPeds.get(i).get(this.variantWordIds[j]);
+        peds[i][j - from] = ped != null ? ped : -1;
+      }
+    }
+    return alignWords(peds);
+  }
+
+  /**
+   * Aligns the given query words with distinct words of a variant (a min-cost
+   * assignment). The words of the variant are added one by one, and for each
+   * set of query words, the smallest sum of the PEDs of an alignment with the
+   * words added so far is kept, in O(|words| * 2^|query words| * |query
+   * words|) time.
+   *
+   * @param peds
+   *        The PED of each query word to each word of the variant; -1 if the
+   *        words do not match. At most MAX_QUERY_WORDS query words.
+   *
+   * @return The smallest sum of the PEDs of an alignment of all query words;
+   *         -1 if they cannot be aligned.
+   */
+  protected static int alignWords(int[][] peds) {
+    int numQueryWords = peds.length;
+    int numWords = numQueryWords > 0 ? peds[0].length : 0;
+    // The smallest sums, by set of query words (as a bit mask); -1 if the
+    // query words cannot be aligned yet.
+    int[] sums = new int[1 << numQueryWords];
+    Arrays.fill(sums, -1);
+    sums[0] = 0;
+    for (int j = 0; j < numWords; j++) {
+      // Larger sets first, so that word j is aligned at most once.
+      for (int set = sums.length - 1; set >= 0; set--) {
+        if (sums[set] < 0) {
+          continue;
+        }
+        for (int i = 0; i < numQueryWords; i++) {
+          int next = set | (1 << i);
+          if (next == set || peds[i][j] < 0) {
+            continue;
+          }
+          int sum = sums[set] + peds[i][j];
+          if (sums[next] < 0 || sum < sums[next]) {
+            sums[next] = sum;
+          }
+        }
+      }
+    }
+    return sums[sums.length - 1];
+  }
+
+  /**
+   * Merges the entity lists of the given matched words into one list of
+   * (entityId, PED) pairs, sorted by entity id, with the smallest PED of the
+   * words of each entity.
+   *
+   * @param matchedWords
+   *        The matched words.
+   *
+   * @return The merged list.
+   */
+  protected List<IntIntPair> mergeEntityLists(List<Match> matchedWords) {
+    // Pack the pairs into longs, so that they sort by (entityId, PED).
+    int size = 0;
+    for (Match word : matchedWords) {
+      size += this.wordStart[word.entityId] - this.wordStart[word.entityId - 1];
+    }
+    long[] pairs = new long[size];
+    int n = 0;
+    for (Match word : matchedWords) {
+      for (int i = this.wordStart[word.entityId - 1];
+          i < this.wordStart[word.entityId]; i++) {
+        pairs[n++] = ((long) this.wordEntityIds[i] << 32) | word.ped;
+      }
+    }
+    Arrays.sort(pairs);
+
+    List<IntIntPair> result = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int entityId = (int) (pairs[i] >>> 32);
+      if (i == 0 || entityId != result.get(result.size() - 1).first) {
+        result.add(new IntIntPair(entityId, (int) pairs[i]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Intersects the given lists of (entityId, PED) pairs, sorted by entity id,
+   * and sums the PEDs of the entities in both lists. If the second list is
+   * much longer than the first, the ids of the first are searched in the
+   * second by binary search; otherwise, the lists are merged.
+   *
+   * @param list1
+   *        The shorter list.
+   * @param list2
+   *        The longer list.
+   *
+   * @return The intersection.
+   */
+  protected static List<IntIntPair> intersect(List<IntIntPair> list1,
+      List<IntIntPair> list2) {
+    List<IntIntPair> result = new ArrayList<>();
+    int n1 = list1.size();
+    int n2 = list2.size();
+    int i2 = 0;
+    if ((long) n1 * (32 - Integer.numberOfLeadingZeros(n2)) < n2) {
+      for (int i1 = 0; i1 < n1 && i2 < n2; i1++) {
+        IntIntPair pair1 = list1.get(i1);
+        i2 = QGramIndex.lowerBound(list2, i2, pair1.first);
+        if (i2 < n2 && list2.get(i2).first == pair1.first) {
+          result.add(new IntIntPair(pair1.first,
+              pair1.second + list2.get(i2).second));
+        }
+      }
+      return result;
+    }
+
+    int i1 = 0;
+    while (i1 < n1 && i2 < n2) {
+      IntIntPair pair1 = list1.get(i1);
+      IntIntPair pair2 = list2.get(i2);
+      if (pair1.first < pair2.first) {
+        i1++;
+      } else if (pair1.first > pair2.first) {
+        i2++;
+      } else {
+        result.add(new IntIntPair(pair1.first, pair1.second + pair2.second));
+        i1++;
+        i2++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Splits the given string into its normalized words (see
+   * {@link QGramIndex#normalize}).
+   *
+   * @param string
+   *        The string.
+   *
+   * @return The non-empty normalized words.
+   */
+  public static List<String> splitWords(String string) {
+    List<String> words = new ArrayList<>();
+    for (String word : string.split("\\W+")) {
+      word = QGramIndex.normalize(word);
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+}
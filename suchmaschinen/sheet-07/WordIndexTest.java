@@ -0,0 +1,136 @@
+// Copyright 2018, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Authors: Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One unit test for each non-trivial method in the WordIndex class.
+ */
+public class WordIndexTest {
+  /**
+   * Builds an index with multi-word names from a temporary file.
+   */
+  protected static QGramIndex buildIndex() throws IOException {
+    File file = File.createTempFile("words", ".tsv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), Arrays.asList("name\tscore",
+        "Albert Einstein\t5\ta physicist\t\t\tEinstein",
+        "Einstein Tower\t3\ta tower",
+        "Albert Camus\t4\ta writer\t\t\tA. Camus",
+        "Tower Bridge\t2\ta bridge\t\t\tLondon Bridge"));
+    QGramIndex qgi = new QGramIndex(3, true);
+    qgi.buildFromFile(file.getPath());
+    return qgi;
+  }
+
+  @Test
+  public void testConstructor() throws IOException {
+    WordIndex wi = new WordIndex(buildIndex(), 4);
+    Assert.assertEquals("albert", wi.words.getEntity(1).name);
+    Assert.assertEquals("a", wi.words.getEntity(5).name);
+    // albert, einstein, tower, camus, a, bridge and london; each word once
+    // per entity.
+    Assert.assertEquals("[0, 2, 4, 6, 7, 8, 9, 10]",
+        Arrays.toString(wi.wordStart));
+    Assert.assertEquals("[1, 3, 1, 2, 2, 4, 3, 3, 4, 4]",
+        Arrays.toString(wi.wordEntityIds));
+    Assert.assertEquals("[5, 3, 4, 2]", Arrays.toString(wi.scores));
+    // The words of each variant, in order.
+    Assert.assertEquals("[0, 2, 3, 5, 7]",
+        Arrays.toString(wi.entityVariantStart));
+    Assert.assertEquals("[0, 2, 3, 5, 7, 9, 11, 13]",
+        Arrays.toString(wi.variantWordStart));
+    Assert.assertEquals("[1, 2, 2, 2, 3, 1, 4, 5, 4, 3, 6, 7, 6]",
+        Arrays.toString(wi.variantWordIds));
+  }
+
+  @Test
+  public void testFindMatches() throws IOException {
+    QGramIndex qgi = buildIndex();
+    // The words may appear in any order.
+    Assert.assertEquals("[Match(1, ped=0)]",
+        qgi.findMultiWordMatches("einst albert", 0, 5).first.toString());
+    Assert.assertEquals("[Match(1, ped=1), Match(3, ped=1)]",
+        qgi.findMultiWordMatches("Albrt", 1, 5).first.toString());
+    Assert.assertEquals("[Match(1, ped=1)]",
+        qgi.findMultiWordMatches("albrt einstein", 1, 5).first.toString());
+    Assert.assertEquals("[Match(1, ped=1)]",
+        qgi.findMultiWordMatches("albrt einstein", 1, 1).first.toString());
+    Assert.assertEquals("[]",
+        qgi.findMultiWordMatches("tower albert", 1, 5).first.toString());
+    // Each query word needs a distinct word of one variant.
+    Assert.assertEquals("[]",
+        qgi.findMultiWordMatches("ein ein", 0, 5).first.toString());
+    Assert.assertEquals("[]",
+        qgi.findMultiWordMatches("london tower", 0, 5).first.toString());
+    Assert.assertEquals("[Match(4, ped=0, synonym=0)]",
+        qgi.findMultiWordMatches("bridge london", 0, 5).first.toString());
+    // The name takes precedence over the synonyms.
+    Assert.assertEquals("[Match(4, ped=0)]",
+        qgi.findMultiWordMatches("bridge", 0, 5).first.toString());
+    Assert.assertEquals("[]",
+        qgi.findMultiWordMatches(" ", 1, 5).first.toString());
+  }
+
+  @Test
+  public void testAlignWords() {
+    // Two query words that match the same word of the variant only.
+    int[][] peds = {{1, -1}, {0, -1}};
+    Assert.assertEquals(-1, WordIndex.alignWords(peds));
+    // The alignment with the smallest sum of the PEDs.
+    peds = new int[][] {{0, 1, -1}, {1, 2, 0}, {0, -1, -1}};
+    Assert.assertEquals(1, WordIndex.alignWords(peds));
+    // Many short query words that match all words of a long variant.
+    peds = new int[WordIndex.MAX_QUERY_WORDS][100];
+    for (int[] row : peds) {
+      Arrays.fill(row, 1);
+    }
+    peds[0][99] = 0;
+    Assert.assertEquals(WordIndex.MAX_QUERY_WORDS - 1,
+        WordIndex.alignWords(peds));
+    Assert.assertEquals(0, WordIndex.alignWords(new int[0][]));
+  }
+
+  @Test
+  public void testMergeEntityLists() throws IOException {
+    WordIndex wi = new WordIndex(buildIndex(), 4);
+    // "einstein" with PED 1 and "albert" with PED 0.
+    List<Match> matchedWords = Arrays.asList(new Match(2, 1, -1, 0),
+        new Match(1, 0, -1, 0));
+    Assert.assertEquals("[(1, 0), (2, 1), (3, 0)]",
+        wi.mergeEntityLists(matchedWords).toString());
+  }
+
+  @Test
+  public void testIntersect() {
+    List<IntIntPair> list1 = Arrays.asList(new IntIntPair(3, 1),
+        new IntIntPair(7, 0));
+    List<IntIntPair> list2 = new ArrayList<>();
+    for (int i = 1; i <= 20; i++) {
+      list2.add(new IntIntPair(i, 1));
+    }
+    // By binary search, and by merging.
+    Assert.assertEquals("[(3, 2), (7, 1)]",
+        WordIndex.intersect(list1, list2).toString());
+    Assert.assertEquals("[(3, 2), (7, 1)]",
+        WordIndex.intersect(list1, list2.subList(2, 8)).toString());
+    Assert.assertEquals("[]",
+        WordIndex.intersect(list1, list2.subList(3, 6)).toString());
+  }
+
+  @Test
+  public void testSplitWords() {
+    Assert.assertEquals("[albert, einstein]",
+        WordIndex.splitWords(" Albert  Einstein!").toString());
+    Assert.assertEquals("[a, camus]", WordIndex.splitWords("A. Camus")
+        .toString());
+  }
+}
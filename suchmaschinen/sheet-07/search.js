@@ -1,13 +1,22 @@
 $(document).ready(function(){
     document.getElementById("result").innerHTML = "42;"
+    // Identifies this page to the server, which reuses the work of the last
+    // query when the next query extends it.
+    var session = Math.random().toString(36).substring(2);
     $("#input").keyup(function() {
         var query = $("#input").val();
         var host = window.location.hostname;
         var port = window.location.port;
-        var url = "http://" + host +":" + port + "/api?query=" + query;
+        var url = "http://" + host +":" + port + "/api?query="
+            + encodeURIComponent(query) + "&session=" + session;
         console.log(url);
-        $.get(url, function(response) {
+        $.get(url, function(response, status, xhr) {
             console.log(response);
+            // Some shard servers did not answer; better matches may be
+            // missing.
+            if (xhr.getResponseHeader("X-Partial-Result")) {
+                response += "(partial result)";
+            }
             $("#result").html(response)
         })
     })